@@ -0,0 +1,70 @@
+package raju.javautils.cvc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Aggregation of the scan results by {@link ProgressUpdater} (processNewResults), for each report.
+ * Nothing is printed, as there are no failures
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregationBenchmark
+{
+	private static final int NO_OF_CONTAINERS = 10000, NO_OF_CLASSES = 50000;
+
+	/** gc, gv: container summaries of the verbosity level 1. v2: a result per class */
+	@Param({ "gc", "gv", "v2" })
+	String report;
+
+	private final List<Result> results = new ArrayList<Result>();
+
+	@Setup
+	public void setup()
+	{
+		Version java5 = Version.fromClassVersion(49, 0), java8 = Version.fromClassVersion(52, 0);
+		if (report.equals("v2"))
+		{
+			for (int i = 0; i < NO_OF_CLASSES; i++)
+				results.add(Result.success("/apps/lib" + (i / 100) + ".jar", "com/example/Class" + i + ".class",
+						i % 10 == 0 ? java5 : java8));
+			return;
+		}
+
+		for (int i = 0; i < NO_OF_CONTAINERS; i++)
+		{
+			VersionCounts counts = new VersionCounts();
+			counts.add(java8, 100 + i % 50);
+			if (i % 3 == 0)
+				counts.add(java5, 1 + i % 7);
+			results.add(Result.containerSummary("/apps/app" + (i / 100) + ".war/WEB-INF/lib/lib" + i + ".jar", counts));
+		}
+	}
+
+	@Benchmark
+	public ProgressUpdater processResults()
+	{
+		ProgressUpdater progressUpdater = new ProgressUpdater(report.equals("v2") ? 2 : 1, report.equals("gc"), false,
+				null, null, null, null, false, false, System.out, System.err);
+		for (Result result : results)
+			progressUpdater.processResult(result);
+		return progressUpdater;
+	}
+}
@@ -0,0 +1,74 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Scanner#scan()} of a single jar (i.e. scanExistingFile), on a single thread. Covers the
+ * class header reads of the STORED and the DEFLATED entries through both the archive readers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveScanBenchmark
+{
+	@Param({ "10", "1000", "100000" })
+	int noOfEntries;
+
+	@Param({ "STORED", "DEFLATED" })
+	String compression;
+
+	@Param({ "zipfile", "mmap" })
+	String reader;
+
+	/** true for the verbosity level 1 (counts by container), false for 2 (a result per class) */
+	@Param({ "true", "false" })
+	boolean classCountsOnly;
+
+	private static final Set<String> JAR = Collections.singleton("jar");
+
+	private File folder, jar;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		folder = SyntheticArchives.newTempFolder();
+		int method = compression.equals("STORED") ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		jar = SyntheticArchives.jar(folder, "lib.jar", noOfEntries, method, noOfEntries);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		SyntheticArchives.delete(folder);
+	}
+
+	@Benchmark
+	public List<Result> scan()
+	{
+		Scanner scanner = new Scanner(Collections.singletonList(jar), JAR, 1, reader.equals("mmap"), classCountsOnly, null, null);
+		scanner.scan();
+		return scanner.getNewResults();
+	}
+}
@@ -0,0 +1,79 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class header read of a single entry by {@link MappedZipFile}, i.e. the per class cost of the
+ * mmap reader without the rest of the scan. Reported per entry (the archive is opened in each
+ * invocation, which is negligible for 10k entries)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassHeaderBenchmark
+{
+	private static final int NO_OF_ENTRIES = 10000;
+
+	@Param({ "STORED", "DEFLATED" })
+	String compression;
+
+	private File folder, jar;
+	private final byte[] header = new byte[8];
+
+	@Setup
+	public void setup() throws IOException
+	{
+		folder = SyntheticArchives.newTempFolder();
+		int method = compression.equals("STORED") ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		jar = SyntheticArchives.jar(folder, "lib.jar", NO_OF_ENTRIES, method, 0);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		SyntheticArchives.delete(folder);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NO_OF_ENTRIES)
+	public int readClassHeaders() throws IOException
+	{
+		int majors = 0;
+		MappedZipFile zipFile = new MappedZipFile(jar);
+		try
+		{
+			while (zipFile.next())
+			{
+				if (zipFile.isDirectory())
+					continue;
+				zipFile.readEntryData(header, header.length);
+				majors += header[7];
+			}
+		}
+		finally
+		{
+			zipFile.close();
+		}
+		return majors;
+	}
+}
@@ -0,0 +1,64 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+
+/**
+ * Stand-in for a file system with a high latency (e.g. NFS). Listing a folder and opening an
+ * archive (read by the mmap reader, which gets the {@link File#length()} first) each wait for the
+ * latency, like a round trip to the file server. The attributes of the children come with the
+ * listing (as with the NFS READDIRPLUS), so they don't wait
+ */
+final class DelayedFolderLister implements FolderLister
+{
+	private final FolderLister lister = new IoFolderLister();
+	private final long latencyMicros;
+
+	DelayedFolderLister(long latencyMicros)
+	{
+		this.latencyMicros = latencyMicros;
+	}
+
+	public boolean list(File folder, final Visitor visitor)
+	{
+		roundTrip(latencyMicros);
+		return lister.list(folder, new Visitor()
+		{
+			public boolean visit(File child, boolean isFolder)
+			{
+				return visitor.visit(isFolder ? child : new DelayedFile(child.getPath(), latencyMicros), isFolder);
+			}
+		});
+	}
+
+	private static void roundTrip(long latencyMicros)
+	{
+		try
+		{
+			Thread.sleep(latencyMicros / 1000, (int) (latencyMicros % 1000) * 1000);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class DelayedFile extends File
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final long latencyMicros;
+
+		DelayedFile(String path, long latencyMicros)
+		{
+			super(path);
+			this.latencyMicros = latencyMicros;
+		}
+
+		@Override
+		public long length()
+		{
+			roundTrip(latencyMicros);
+			return super.length();
+		}
+	}
+}
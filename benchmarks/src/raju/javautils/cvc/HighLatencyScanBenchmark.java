@@ -0,0 +1,88 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Scanner#scan()} of a folder of small jars (with the mmap reader) on a file system with a
+ * high latency, simulated by the {@link DelayedFolderLister}. Shows how much of the latency is hidden by the platform threads (-j) and
+ * by the virtual threads (--virtual-threads) for the same no. of files read at a time.
+ * <p>
+ * Virtual threads need Java 21+ to run the benchmark, otherwise the platform threads are used for
+ * both
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HighLatencyScanBenchmark
+{
+	private static final int NO_OF_FOLDERS = 20, NO_OF_JARS_PER_FOLDER = 100, NO_OF_CLASSES_PER_JAR = 10;
+
+	/** Latency of each folder listing and archive open, in microseconds */
+	@Param({ "2000" })
+	long latencyMicros;
+
+	/** No. of files and folders read at a time. 1 is the serial scan, which waits for each call */
+	@Param({ "1", "8", "256" })
+	int parallelism;
+
+	@Param({ "false", "true" })
+	boolean virtualThreads;
+
+	private static final Set<String> JAR = Collections.singleton("jar");
+
+	private File folder;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		folder = SyntheticArchives.newTempFolder();
+		for (int i = 0; i < NO_OF_FOLDERS; i++)
+		{
+			File subFolder = new File(folder, "lib" + i);
+			if (!subFolder.mkdir())
+				throw new IOException("Unable to create the folder: " + subFolder);
+			for (int j = 0; j < NO_OF_JARS_PER_FOLDER; j++)
+				SyntheticArchives.jar(subFolder, j + ".jar", NO_OF_CLASSES_PER_JAR, ZipEntry.DEFLATED,
+						i * NO_OF_JARS_PER_FOLDER + j);
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		SyntheticArchives.delete(folder);
+	}
+
+	@Benchmark
+	public List<Result> scan()
+	{
+		FolderWalker walker = new FolderWalker(Collections.<String> emptyList(), Integer.MAX_VALUE,
+				new DelayedFolderLister(latencyMicros));
+		Scanner scanner = new Scanner(Collections.singletonList(folder), JAR, parallelism, true, true, null, null,
+				Integer.MAX_VALUE, null, virtualThreads, walker);
+		scanner.scan();
+		return scanner.getNewResults();
+	}
+}
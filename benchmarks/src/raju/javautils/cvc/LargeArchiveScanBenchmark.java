@@ -0,0 +1,81 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Scanner#scan()} (with mmap) of a single large archive: an uber-jar, or a war with many
+ * nested jars. With a parallelism of more than 1, the entries of the archive are split into ranges
+ * which are scanned on all the threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LargeArchiveScanBenchmark
+{
+	private static final int NO_OF_CLASSES = 40000, NO_OF_JARS = 100, NO_OF_CLASSES_PER_JAR = 400;
+
+	@Param({ "uberjar", "war" })
+	String archive;
+
+	@Param({ "1", "4" })
+	int parallelism;
+
+	private static final Set<String> WAR_AND_JAR = new HashSet<String>(Arrays.asList("war", "jar"));
+
+	private File folder, file;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		folder = SyntheticArchives.newTempFolder();
+
+		if (archive.equals("uberjar"))
+		{
+			file = SyntheticArchives.jar(folder, "app.jar", NO_OF_CLASSES, ZipEntry.DEFLATED, 0);
+			return;
+		}
+
+		byte[][] jars = new byte[NO_OF_JARS][];
+		for (int i = 0; i < NO_OF_JARS; i++)
+			jars[i] = SyntheticArchives.jar(NO_OF_CLASSES_PER_JAR, ZipEntry.DEFLATED, i);
+		file = SyntheticArchives.war(folder, "app.war", jars, ZipEntry.STORED);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		SyntheticArchives.delete(folder);
+	}
+
+	@Benchmark
+	public List<Result> scan()
+	{
+		Scanner scanner = new Scanner(Collections.singletonList(file), WAR_AND_JAR, parallelism, true, true, null, null);
+		scanner.scan();
+		return scanner.getNewResults();
+	}
+}
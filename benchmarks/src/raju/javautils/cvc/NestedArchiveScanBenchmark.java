@@ -0,0 +1,79 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Scanner#scan()} of a war with the nested jars. With the zipfile reader the nested jars are
+ * read by scanZipInputStream, with mmap by {@link MappedZipFile#openNested(String)}.
+ * <p>
+ * Nested jars are all different, so none of them is skipped as a duplicate
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NestedArchiveScanBenchmark
+{
+	private static final int NO_OF_JARS = 20, NO_OF_CLASSES_PER_JAR = 1000;
+
+	/** Compression of the war entries (i.e. the nested jars). Classes in the jars are DEFLATED */
+	@Param({ "STORED", "DEFLATED" })
+	String compression;
+
+	@Param({ "zipfile", "mmap" })
+	String reader;
+
+	private static final Set<String> WAR_AND_JAR = new HashSet<String>(Arrays.asList("war", "jar"));
+
+	private File folder, war;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		folder = SyntheticArchives.newTempFolder();
+
+		byte[][] jars = new byte[NO_OF_JARS][];
+		for (int i = 0; i < NO_OF_JARS; i++)
+			jars[i] = SyntheticArchives.jar(NO_OF_CLASSES_PER_JAR, ZipEntry.DEFLATED, i);
+
+		int method = compression.equals("STORED") ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		war = SyntheticArchives.war(folder, "app.war", jars, method);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		SyntheticArchives.delete(folder);
+	}
+
+	@Benchmark
+	public List<Result> scan()
+	{
+		Scanner scanner = new Scanner(Collections.singletonList(war), WAR_AND_JAR, 1, reader.equals("mmap"), true, null, null);
+		scanner.scan();
+		return scanner.getNewResults();
+	}
+}
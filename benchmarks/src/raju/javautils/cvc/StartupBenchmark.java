@@ -0,0 +1,197 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup of the tool, i.e. a new JVM per scan, for a small input (a few jars), with and without
+ * the class data sharing (AppCDS) archive of the distribution (mvn -P dist package).
+ * {@link #firstResult()} measures the time until the first line of the output, {@link #total()}
+ * until the JVM exits.
+ * <p>
+ * Runs the tool jar in the target folder (mvn package), or the one in the cvc.jar system property
+ * (-jvmArgsAppend -Dcvc.jar=...). The archive is created at the setup by a training run, on the
+ * Java running the benchmark (13+)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark
+{
+	private static final int NO_OF_JARS = 3, NO_OF_CLASSES_PER_JAR = 300;
+
+	@Param({ "off", "on" })
+	String cds;
+
+	/** Verbosity level 1, or 2 with the classes printed as they are found (-s) */
+	@Param({ "1", "2s" })
+	String report;
+
+	private File folder;
+	private List<String> command;
+
+	/** Of the {@link #firstResult()} being measured. Waited for after the measurement */
+	private Process process;
+
+	@Setup
+	public void setup() throws IOException, InterruptedException
+	{
+		folder = SyntheticArchives.newTempFolder();
+
+		// A copy, so that rebuilding the tool doesn't invalidate the archive
+		File jar = new File(folder, "cvc.jar");
+		copy(toolJar(), jar);
+
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < NO_OF_JARS; i++)
+			inputs.add(SyntheticArchives.jar(folder, "lib" + i + ".jar", NO_OF_CLASSES_PER_JAR, ZipEntry.DEFLATED, i).getPath());
+
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		command = new ArrayList<String>();
+		command.add(java);
+
+		if (cds.equals("on"))
+		{
+			File archive = new File(folder, "cvc.jsa");
+			List<String> training = new ArrayList<String>();
+			training.add(java);
+			training.add("-XX:ArchiveClassesAtExit=" + archive.getPath());
+			training.add("-jar");
+			training.add(jar.getPath());
+			training.addAll(inputs);
+			Process p = start(training);
+			drain(p.getInputStream());
+			p.waitFor();
+			if (!archive.isFile())
+				throw new IllegalStateException("AppCDS archive is not created. Java 13+ is required");
+
+			command.add("-XX:SharedArchiveFile=" + archive.getPath());
+		}
+
+		command.add("-jar");
+		command.add(jar.getPath());
+		if (report.equals("2s"))
+		{
+			command.add("-v");
+			command.add("2");
+			command.add("-s");
+		}
+		command.addAll(inputs);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		SyntheticArchives.delete(folder);
+	}
+
+	@Benchmark
+	public int total() throws IOException, InterruptedException
+	{
+		Process p = start(command);
+		drain(p.getInputStream());
+		return p.waitFor();
+	}
+
+	@Benchmark
+	public int firstResult() throws IOException
+	{
+		process = start(command);
+		InputStream is = process.getInputStream();
+		int b;
+		while ((b = is.read()) != -1 && b != '\n')
+			;
+		return b;
+	}
+
+	@TearDown(Level.Invocation)
+	public void awaitExit() throws IOException, InterruptedException
+	{
+		if (process == null)
+			return;
+		drain(process.getInputStream());
+		process.waitFor();
+		process = null;
+	}
+
+	private Process start(List<String> command) throws IOException
+	{
+		return new ProcessBuilder(command).directory(folder).redirectErrorStream(true).start();
+	}
+
+	private static File toolJar()
+	{
+		String path = System.getProperty("cvc.jar");
+		if (path != null)
+			return new File(path);
+
+		File[] jars = new File("target").listFiles(new FilenameFilter()
+		{
+			public boolean accept(File dir, String name)
+			{
+				return name.startsWith("java-class-version-checker-") && name.endsWith(".jar");
+			}
+		});
+		if (jars == null || jars.length == 0)
+			throw new IllegalStateException("Tool jar not found in the target folder. Build it (mvn package), or set the"
+					+ " cvc.jar system property");
+		return jars[0];
+	}
+
+	private static void drain(InputStream is) throws IOException
+	{
+		byte[] buf = new byte[8192];
+		while (is.read(buf) != -1)
+			;
+		is.close();
+	}
+
+	private static void copy(File from, File to) throws IOException
+	{
+		InputStream is = new FileInputStream(from);
+		try
+		{
+			OutputStream os = new FileOutputStream(to);
+			try
+			{
+				byte[] buf = new byte[65536];
+				for (int n; (n = is.read(buf)) != -1;)
+					os.write(buf, 0, n);
+			}
+			finally
+			{
+				os.close();
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package raju.javautils.cvc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the archives for the benchmarks. Contents depend only on the arguments (fixed seeds).
+ * i.e. the results are reproducible without any real jars
+ */
+final class SyntheticArchives
+{
+	/** Size of each class file, including the header */
+	private static final int CLASS_FILE_SIZE = 512;
+
+	/** Class major versions of the generated classes, 1 in 10 are 1.5 and the rest 1.8 */
+	private static final int CLASS_MAJOR = 52, OLD_CLASS_MAJOR = 49;
+
+	private SyntheticArchives()
+	{
+	}
+
+	/** Creates an empty temporary folder */
+	static File newTempFolder() throws IOException
+	{
+		File folder = File.createTempFile("cvc-bench", "");
+		if (!folder.delete() || !folder.mkdir())
+			throw new IOException("Unable to create the folder: " + folder);
+		return folder;
+	}
+
+	/**
+	 * @param method
+	 *          {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+	 * @param seed
+	 *          Archives with different seeds have different contents
+	 */
+	static byte[] jar(int noOfClasses, int method, long seed) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(noOfClasses * (CLASS_FILE_SIZE + 100));
+		writeJar(baos, noOfClasses, method, seed);
+		return baos.toByteArray();
+	}
+
+	static File jar(File folder, String name, int noOfClasses, int method, long seed) throws IOException
+	{
+		File file = new File(folder, name);
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 65536);
+		try
+		{
+			writeJar(os, noOfClasses, method, seed);
+		}
+		finally
+		{
+			os.close();
+		}
+		return file;
+	}
+
+	private static void writeJar(OutputStream os, int noOfClasses, int method, long seed) throws IOException
+	{
+		Random random = new Random(seed);
+		ZipOutputStream zos = new ZipOutputStream(os);
+		zos.setMethod(method);
+
+		put(zos, "META-INF/", new byte[0], method);
+		for (int i = 0; i < noOfClasses; i++)
+			put(zos, "com/example/p" + (i / 100) + "/Class" + i + ".class", classFile(random, i % 10 == 0), method);
+		zos.finish();
+	}
+
+	/** War with the {@code jars} in WEB-INF/lib */
+	static File war(File folder, String name, byte[][] jars, int method) throws IOException
+	{
+		File file = new File(folder, name);
+		ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		try
+		{
+			zos.setMethod(method);
+			for (int i = 0; i < jars.length; i++)
+				put(zos, "WEB-INF/lib/lib" + i + ".jar", jars[i], method);
+		}
+		finally
+		{
+			zos.close();
+		}
+		return file;
+	}
+
+	/** Class header followed by the bytes which compress roughly like the real class files */
+	private static byte[] classFile(Random random, boolean old)
+	{
+		byte[] data = new byte[CLASS_FILE_SIZE];
+		data[0] = (byte) 0xCA;
+		data[1] = (byte) 0xFE;
+		data[2] = (byte) 0xBA;
+		data[3] = (byte) 0xBE;
+		data[7] = (byte) (old ? OLD_CLASS_MAJOR : CLASS_MAJOR);
+
+		String alphabet = "abcdefghijklmnopqrstuvwxyz/;()L<>";
+		for (int i = 8; i < data.length; i++)
+			data[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(256) : alphabet.charAt(random.nextInt(alphabet.length())));
+		return data;
+	}
+
+	private static void put(ZipOutputStream zos, String name, byte[] data, int method) throws IOException
+	{
+		ZipEntry entry = new ZipEntry(name);
+		if (method == ZipEntry.STORED)
+		{
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			entry.setCrc(crc.getValue());
+			entry.setSize(data.length);
+			entry.setCompressedSize(data.length);
+		}
+		zos.putNextEntry(entry);
+		zos.write(data);
+		zos.closeEntry();
+	}
+
+	/** Deletes the {@code file} or the folder with all its contents */
+	static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
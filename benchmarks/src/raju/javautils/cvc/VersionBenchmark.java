@@ -0,0 +1,57 @@
+package raju.javautils.cvc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** {@link Version#fromClassVersion(int, int)}. Reported per lookup */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionBenchmark
+{
+	private static final int NO_OF_LOOKUPS = 1024;
+
+	/**
+	 * cached: class versions of Java 1.0 to 27 (incl. preview). uncached: e.g. unusual minor
+	 * versions, future versions
+	 */
+	@Param({ "cached", "uncached" })
+	String versions;
+
+	private final int[] majors = new int[NO_OF_LOOKUPS], minors = new int[NO_OF_LOOKUPS];
+
+	@Setup
+	public void setup()
+	{
+		boolean cached = versions.equals("cached");
+		for (int i = 0; i < NO_OF_LOOKUPS; i++)
+		{
+			majors[i] = cached ? 45 + i % 27 : 72 + i % 27;
+			minors[i] = cached ? (i % 7 == 0 ? Version.PREVIEW_MINOR : 0) : 1 + i % 3;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NO_OF_LOOKUPS)
+	public void fromClassVersion(Blackhole blackhole)
+	{
+		for (int i = 0; i < NO_OF_LOOKUPS; i++)
+			blackhole.consume(Version.fromClassVersion(majors[i], minors[i]));
+	}
+}
@@ -0,0 +1,16 @@
+@echo off
+rem Runs the checker with the class data sharing (AppCDS) archive of its classes. See bin/cvc
+setlocal
+
+set "LIB=%~dp0..\lib"
+set "JAVA=java"
+if defined JAVA_HOME set "JAVA=%JAVA_HOME%\bin\java"
+
+if exist "%LIB%\cvc.jsa" (
+	set "CDS=-XX:SharedArchiveFile=%LIB%\cvc.jsa"
+) else (
+	set "CDS=-XX:ArchiveClassesAtExit=%LIB%\cvc.jsa"
+)
+
+"%JAVA%" -XX:+IgnoreUnrecognizedVMOptions -Xshare:auto "%CDS%" -jar "%LIB%\cvc.jar" %*
+exit /b %ERRORLEVEL%
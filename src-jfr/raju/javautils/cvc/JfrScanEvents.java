@@ -0,0 +1,146 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+/**
+ * Records the {@link ScanEvents} as Java Flight Recorder events, along with the JDK's default
+ * events (GC, file I/O, ..). The recording is dumped to a file when closed.
+ * <p>
+ * Requires Java 11+. So it's compiled separately (only by JDK 11+) and loaded by name
+ * <p>
+ * Note: Instances of this class are thread safe
+ */
+final class JfrScanEvents implements ScanEvents
+{
+	private static final String CATEGORY = "Java Class Version Checker";
+
+	@Name("raju.javautils.cvc.ArchiveScan")
+	@Label("Archive Scan")
+	@Description("Scan of an archive (outer or nested), including its nested archives")
+	@Category(CATEGORY)
+	static final class ArchiveScanEvent extends Event
+	{
+		@Label("Path")
+		String path;
+
+		@Label("Entries")
+		long entries;
+
+		@Label("Bytes Read")
+		@DataAmount
+		long bytes;
+
+		@Label("Nesting Depth")
+		int depth;
+	}
+
+	@Name("raju.javautils.cvc.DirectoryListing")
+	@Label("Directory Listing")
+	@Category(CATEGORY)
+	static final class DirectoryListingEvent extends Event
+	{
+		@Label("Path")
+		String path;
+
+		@Label("Children")
+		@Description("Matching files and folders, -1 if the directory can't be read")
+		int children;
+	}
+
+	@Name("raju.javautils.cvc.ScanFailure")
+	@Label("Scan Failure")
+	@Category(CATEGORY)
+	static final class ScanFailureEvent extends Event
+	{
+		@Label("Message")
+		String message;
+	}
+
+	private final File dumpFile;
+	private final Recording recording;
+
+	JfrScanEvents(File dumpFile) throws IOException, ParseException
+	{
+		this.dumpFile = dumpFile;
+		recording = new Recording(Configuration.getConfiguration("default"));
+		recording.enable(ArchiveScanEvent.class);
+		recording.enable(DirectoryListingEvent.class);
+		recording.enable(ScanFailureEvent.class);
+		recording.start();
+	}
+
+	public Object archiveStarted()
+	{
+		ArchiveScanEvent event = new ArchiveScanEvent();
+		event.begin();
+		return event;
+	}
+
+	public void archiveScanned(Object started, String path, long entries, long bytes, int depth)
+	{
+		ArchiveScanEvent event = (ArchiveScanEvent) started;
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.path = path;
+			event.entries = entries;
+			event.bytes = bytes;
+			event.depth = depth;
+			event.commit();
+		}
+	}
+
+	public Object directoryListingStarted()
+	{
+		DirectoryListingEvent event = new DirectoryListingEvent();
+		event.begin();
+		return event;
+	}
+
+	public void directoryListed(Object started, String path, int noOfChildren)
+	{
+		DirectoryListingEvent event = (DirectoryListingEvent) started;
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.path = path;
+			event.children = noOfChildren;
+			event.commit();
+		}
+	}
+
+	public void failure(String failureMessage)
+	{
+		ScanFailureEvent event = new ScanFailureEvent();
+		if (event.shouldCommit())
+		{
+			event.message = failureMessage;
+			event.commit();
+		}
+	}
+
+	/** Stops the recording and dumps it to the file */
+	public void close() throws IOException
+	{
+		recording.stop();
+		try
+		{
+			recording.dump(dumpFile.toPath());
+		}
+		finally
+		{
+			recording.close();
+		}
+	}
+}
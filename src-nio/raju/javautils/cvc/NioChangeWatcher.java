@@ -0,0 +1,68 @@
+package raju.javautils.cvc;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChangeWatcher} backed by the {@link WatchService}. So a poll costs in proportion to the
+ * no. of changes, not the no. of files watched.
+ * <p>
+ * Requires Java 7+. So it's compiled separately and loaded by name, with the
+ * {@link PollingChangeWatcher} as the fallback
+ */
+final class NioChangeWatcher implements ChangeWatcher
+{
+	private final WatchService watchService;
+	private final Map<WatchKey, File> dirs = new HashMap<WatchKey, File>();
+
+	NioChangeWatcher() throws IOException
+	{
+		watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	public void register(File dir) throws IOException
+	{
+		dirs.put(dir.toPath().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+	}
+
+	public Set<File> poll(long timeoutMillis) throws InterruptedException
+	{
+		Set<File> changed = new LinkedHashSet<File>();
+		for (WatchKey key = watchService.poll(timeoutMillis, TimeUnit.MILLISECONDS); key != null; key = watchService.poll())
+		{
+			File dir = dirs.get(key);
+			for (WatchEvent<?> event : key.pollEvents())
+			{
+				if (event.kind() == OVERFLOW)
+					changed.add(dir); // Events are lost
+				else
+					changed.add(new File(dir, ((Path) event.context()).toString()));
+			}
+
+			// Invalid once the folder is deleted
+			if (!key.reset())
+				dirs.remove(key);
+		}
+		return changed;
+	}
+
+	public void close() throws IOException
+	{
+		watchService.close();
+	}
+}
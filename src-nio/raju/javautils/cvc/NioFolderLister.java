@@ -0,0 +1,72 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * {@link FolderLister} backed by a {@link DirectoryStream}. The children are visited as they are
+ * read (i.e. a folder with millions of files is never held in memory) and the attributes of each
+ * child are read once.
+ * <p>
+ * Requires Java 7+. So it's compiled separately and loaded by name, with the
+ * {@link IoFolderLister} as the fallback
+ */
+final class NioFolderLister implements FolderLister
+{
+	public boolean list(File folder, Visitor visitor)
+	{
+		DirectoryStream<Path> stream;
+		try
+		{
+			stream = Files.newDirectoryStream(folder.toPath());
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+
+		try
+		{
+			for (Path child : stream)
+			{
+				boolean isFolder;
+				try
+				{
+					BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class);
+					if (!attributes.isDirectory() && !attributes.isRegularFile())
+						continue; // e.g. a socket
+					isFolder = attributes.isDirectory();
+				}
+				catch (IOException e)
+				{
+					// e.g. a broken link. Reported when it's read, if it has one of the extensions to scan
+					isFolder = false;
+				}
+
+				if (!visitor.visit(child.toFile(), isFolder))
+					break;
+			}
+			return true;
+		}
+		catch (DirectoryIteratorException e)
+		{
+			return false;
+		}
+		finally
+		{
+			try
+			{
+				stream.close();
+			}
+			catch (IOException e)
+			{
+				// Nothing more is read
+			}
+		}
+	}
+}
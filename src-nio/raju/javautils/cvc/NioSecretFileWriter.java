@@ -0,0 +1,42 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * {@link SecretFileWriter} which creates the file with the owner only permissions (rw-------) on
+ * the POSIX file systems. i.e. no other user can open it, even before it's written. Elsewhere
+ * (e.g. Windows) the file gets the access control list of its folder, i.e. it's private in the
+ * user's home folder.
+ * <p>
+ * Requires Java 7+. So it's compiled separately and loaded by name
+ */
+final class NioSecretFileWriter implements SecretFileWriter
+{
+	public void write(File file, byte[] content) throws IOException
+	{
+		Path path = file.toPath();
+
+		// Not replaced in place, so that a file (or a link) created by someone else is never written
+		Files.deleteIfExists(path);
+		if (Files.getFileStore(path.getParent()).supportsFileAttributeView("posix"))
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		else
+			Files.createFile(path); // Inherits the access control list of the folder
+
+		OutputStream os = Files.newOutputStream(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			os.write(content);
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+}
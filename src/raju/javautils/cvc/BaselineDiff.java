@@ -0,0 +1,180 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import raju.javautils.cvc.Result.ContainerSummary;
+
+/**
+ * Compares a scan with a baseline (--baseline), e.g. of the previous release, and prints only the
+ * containers which are added, removed or whose no. of classes by version changed.
+ * <p>
+ * The baseline is a {@link ScanCache} file, i.e. container summaries by file path, size, last
+ * modified time and central directory CRC. It's created by the first run, and only looked up by
+ * the later runs. So the files with the same size and either the same last modified time or the
+ * same central directory CRC are not scanned at all. The baseline records the file extensions
+ * scanned (-e), as the summaries depend on them. So a diff with other file extensions is refused.
+ * Exit codes: {@link #NO_CHANGES}, {@link #CHANGED}, {@link #INCOMPLETE}
+ */
+final class BaselineDiff
+{
+	static final int NO_CHANGES = 0;
+
+	/** Some of the containers are added, removed or changed */
+	static final int CHANGED = 1;
+
+	/** Some of the files couldn't be read (their containers are reported as removed) or the baseline is invalid */
+	static final int INCOMPLETE = 2;
+
+	private static final String CHANGE_FORMAT_STR = "%-8s %-20s %s%n";
+
+	private final File baselineFile;
+
+	/** {@link #baselineFile} as given, to show in the errors */
+	private final String baselinePath;
+
+	private final PrintStream out, err;
+
+	BaselineDiff(File baselineFile, String baselinePath, PrintStream out, PrintStream err)
+	{
+		this.baselineFile = baselineFile;
+		this.baselinePath = baselinePath;
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Scans the {@code inputPaths} on the calling thread (and the scanning threads). Creates the
+	 * baseline, if the baseline file doesn't exist
+	 *
+	 * @param baseDir
+	 *          Folder the relative {@code inputPaths} are resolved against, see
+	 *          {@link Scanner#relativeTo(File)}. Null for the current folder
+	 * @return exit code
+	 */
+	int diff(Collection<File> inputPaths, Set<String> fileExtns, int parallelism, boolean mappedArchives,
+			boolean virtualThreads, FolderWalker walker, File baseDir) throws IOException
+	{
+		long startTime = System.nanoTime();
+
+		boolean create = !baselineFile.exists();
+		ScanCache baseline = new ScanCache(baselineFile, fileExtns, !create);
+		if (baseline.otherFileExtns() != null)
+		{
+			err.printf("ERROR: Baseline file was created for other file extensions (-e %s): %s%n",
+					baseline.otherFileExtns(), baselinePath);
+			return INCOMPLETE;
+		}
+
+		// Read before the scan, so that a corrupt baseline is reported without scanning. Empty, if creating
+		List<ScanCache.Entry> baselineEntries = null;
+		if (create || baseline.isLoaded())
+		{
+			try
+			{
+				baselineEntries = baseline.entries();
+			}
+			catch (IOException e)
+			{
+				// Corrupt
+			}
+		}
+		if (baselineEntries == null)
+		{
+			err.printf("ERROR: Invalid baseline file: %s%n", baselinePath);
+			return INCOMPLETE;
+		}
+
+		// Container summaries are few, so the results are not consumed during the scan
+		Scanner scanner = new Scanner(inputPaths, fileExtns, parallelism, mappedArchives, true, baseline, null,
+				Integer.MAX_VALUE, null, virtualThreads, walker);
+		if (baseDir != null)
+			scanner.relativeTo(baseDir);
+		scanner.scan();
+
+		int noOfFailures = 0;
+		Map<String, VersionCounts> containers = new LinkedHashMap<String, VersionCounts>();
+		for (Result result : scanner.getNewResults())
+		{
+			if (result.isFailure())
+			{
+				err.println(result.getFailure().failureMessage);
+				noOfFailures++;
+			}
+			else
+			{
+				ContainerSummary summary = result.getContainerSummary();
+				add(containers, summary.containerPath, summary.counts);
+			}
+		}
+
+		long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+		if (create)
+		{
+			out.printf("Created the baseline: %d containers, %d classes (%d ms)%n", containers.size(),
+					scanner.noOfClassFilesScanned(), elapsedMillis);
+			return noOfFailures == 0 ? NO_CHANGES : INCOMPLETE;
+		}
+
+		Map<String, VersionCounts> baselineContainers = new HashMap<String, VersionCounts>();
+		for (ScanCache.Entry entry : baselineEntries)
+			for (ContainerSummary summary : entry.summaries)
+				add(baselineContainers, summary.containerPath, summary.counts);
+
+		// Sorted by path, so that the changes of a folder are together
+		SortedMap<String, String[]> changes = new TreeMap<String, String[]>();
+		int noOfAdded = 0, noOfChanged = 0, noOfUnchanged = 0;
+		for (Entry<String, VersionCounts> container : containers.entrySet())
+		{
+			VersionCounts baselineCounts = baselineContainers.remove(container.getKey());
+			String countsStr = container.getValue().toString();
+			if (baselineCounts == null)
+			{
+				changes.put(container.getKey(), new String[] { "Added", countsStr });
+				noOfAdded++;
+			}
+			else if (!countsStr.equals(baselineCounts.toString()))
+			{
+				changes.put(container.getKey(), new String[] { "Changed", baselineCounts + " -> " + countsStr });
+				noOfChanged++;
+			}
+			else
+				noOfUnchanged++;
+		}
+		for (Entry<String, VersionCounts> container : baselineContainers.entrySet())
+			changes.put(container.getKey(), new String[] { "Removed", container.getValue().toString() });
+
+		for (Entry<String, String[]> change : changes.entrySet())
+			out.printf(CHANGE_FORMAT_STR, change.getValue()[0], change.getValue()[1], change.getKey());
+
+		if (!changes.isEmpty())
+			out.println();
+		out.printf("%d added, %d removed, %d changed, %d unchanged containers. Scanned %d of %d files (%d ms)%n",
+				noOfAdded, baselineContainers.size(), noOfChanged, noOfUnchanged,
+				scanner.noOfFilesScanned() - scanner.noOfFilesFromCache(), scanner.noOfFilesScanned(), elapsedMillis);
+
+		if (noOfFailures != 0)
+			return INCOMPLETE;
+		return changes.isEmpty() ? NO_CHANGES : CHANGED;
+	}
+
+	/** Containers of the class files of a folder are added up */
+	private static void add(Map<String, VersionCounts> containers, String containerPath, VersionCounts counts)
+	{
+		VersionCounts containerCounts = containers.get(containerPath);
+		if (containerCounts == null)
+			containers.put(containerPath, containerCounts = new VersionCounts());
+		for (Version version : counts.versions())
+			containerCounts.add(version, counts.count(version));
+	}
+}
@@ -0,0 +1,27 @@
+package raju.javautils.cvc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Watches folders for the files and folders which are created, modified or deleted. Used by the
+ * {@link Watcher}.
+ * <p>
+ * Note: Implementations need not be thread safe
+ */
+interface ChangeWatcher extends Closeable
+{
+	/** Watches the files and folders in the {@code dir}, but not the contents of its sub folders */
+	void register(File dir) throws IOException;
+
+	/**
+	 * Waits up to {@code timeoutMillis} for the changes
+	 *
+	 * @return paths of the files and folders created, modified or deleted. Empty if there are no
+	 *         changes. Path of a watched folder means that anything in it may have changed (e.g.
+	 *         when the events are lost)
+	 */
+	Set<File> poll(long timeoutMillis) throws IOException, InterruptedException;
+}
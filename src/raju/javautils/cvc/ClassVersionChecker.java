@@ -0,0 +1,59 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Embeddable API of the checker. Scans the folders and the files for the class versions and
+ * pushes them to a {@link ScanListener}. e.g.
+ *
+ * <pre>
+ * ClassVersionChecker checker = new ClassVersionChecker(new ScanConfig().withFileExtensions("jar", "war"));
+ * checker.scan(Arrays.asList(new File("lib"), new File("app.war")), listener);
+ * </pre>
+ *
+ * Note: Instances of this class are immutable and thread safe. A checker can run any no. of
+ * scans, including concurrently
+ */
+public final class ClassVersionChecker
+{
+	private final ScanConfig config;
+
+	public ClassVersionChecker(ScanConfig config)
+	{
+		if (config == null)
+			throw new NullPointerException("config");
+		this.config = config;
+	}
+
+	public ScanConfig getConfig()
+	{
+		return config;
+	}
+
+	/**
+	 * Scans the {@code paths} and returns once all of them are scanned, i.e. after the last
+	 * callback. If the calling thread is interrupted, returns early with the interrupt status set
+	 *
+	 * @param paths
+	 *          Folders (scanned recursively) and files with one of the configured extensions
+	 * @param listener
+	 *          Called on the calling thread with a parallelism of 1, on the scanning threads
+	 *          otherwise
+	 */
+	public void scan(Collection<File> paths, ScanListener listener)
+	{
+		if (listener == null)
+			throw new NullPointerException("listener");
+
+		new Scanner(new ArrayList<File>(paths), config.getFileExtensions(), config.getParallelism(),
+				config.isMappedArchives(), FolderWalker.ALL, config.isVirtualThreads(), listener).scan();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ClassVersionChecker [config=" + config + "]";
+	}
+}
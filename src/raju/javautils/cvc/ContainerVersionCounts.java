@@ -0,0 +1,212 @@
+package raju.javautils.cvc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * No. of classes by container and version, for the verbosity level 1 reports.
+ * <p>
+ * Container paths are interned to ids (in the order in which they are added) through an open
+ * addressing hash table. Counts are stored in one {@code int[]} column per version found, indexed
+ * by the container id. i.e. there are no objects per container, other than its path.
+ * <p>
+ * Optionally, the ids of the containers of each version are also kept, in the order in which the
+ * container got its first class of that version (for grouping by version)
+ */
+final class ContainerVersionCounts
+{
+	private final boolean trackContainersByVersion;
+
+	private final List<String> containerPaths = new ArrayList<String>();
+
+	/** Open addressing hash table of container id + 1. 0 is an empty slot */
+	private int[] idTable = new int[1024];
+
+	/** Column of each cached version (by {@link Version#ordinal}), -1 if not found yet */
+	private final int[] columnByOrdinal = new int[Version.NO_OF_CACHED_VERSIONS];
+	private final Map<Version, Integer> columnByUncachedVersion = new HashMap<Version, Integer>();
+
+	private final List<Version> columnVersions = new ArrayList<Version>();
+	private final List<int[]> columns = new ArrayList<int[]>();
+
+	/** Container ids of each column, null unless trackContainersByVersion */
+	private final List<int[]> containerIdsByColumn;
+	private int[] noOfContainerIdsByColumn = new int[16];
+
+	/** Ids of the containers whose counts are estimated from a sample */
+	private final BitSet sampledContainerIds = new BitSet();
+
+	ContainerVersionCounts(boolean trackContainersByVersion)
+	{
+		this.trackContainersByVersion = trackContainersByVersion;
+		this.containerIdsByColumn = trackContainersByVersion ? new ArrayList<int[]>() : null;
+		Arrays.fill(columnByOrdinal, -1);
+	}
+
+	void add(String containerPath, Version version, int noOfClasses)
+	{
+		int containerId = containerId(containerPath);
+		int column = column(version);
+
+		int[] counts = columns.get(column);
+		if (counts.length <= containerId)
+			columns.set(column, counts = grow(counts, containerId));
+
+		if (counts[containerId] == 0 && trackContainersByVersion)
+		{
+			int[] containerIds = containerIdsByColumn.get(column);
+			int noOfContainerIds = noOfContainerIdsByColumn[column]++;
+			if (containerIds.length == noOfContainerIds)
+				containerIdsByColumn.set(column, containerIds = grow(containerIds, noOfContainerIds));
+			containerIds[noOfContainerIds] = containerId;
+		}
+
+		counts[containerId] += noOfClasses;
+	}
+
+	/** Marks the counts of the container as estimated from a sample (--sample) */
+	void sampled(String containerPath)
+	{
+		sampledContainerIds.set(containerId(containerPath));
+	}
+
+	boolean isSampled(int containerId)
+	{
+		return sampledContainerIds.get(containerId);
+	}
+
+	boolean anySampled()
+	{
+		return !sampledContainerIds.isEmpty();
+	}
+
+	private int containerId(String containerPath)
+	{
+		int mask = idTable.length - 1;
+		for (int i = containerPath.hashCode() & mask;; i = (i + 1) & mask)
+		{
+			int id = idTable[i] - 1;
+			if (id == -1)
+			{
+				id = containerPaths.size();
+				containerPaths.add(containerPath);
+				idTable[i] = id + 1;
+
+				// Load factor 0.5
+				if (2 * containerPaths.size() > idTable.length)
+					rehash();
+				return id;
+			}
+			if (containerPaths.get(id).equals(containerPath))
+				return id;
+		}
+	}
+
+	private void rehash()
+	{
+		int[] table = new int[2 * idTable.length];
+		int mask = table.length - 1;
+		for (int id = 0; id < containerPaths.size(); id++)
+		{
+			int i = containerPaths.get(id).hashCode() & mask;
+			while (table[i] != 0)
+				i = (i + 1) & mask;
+			table[i] = id + 1;
+		}
+		idTable = table;
+	}
+
+	/** @return column of the {@code version}, -1 if it's not found yet */
+	private int existingColumn(Version version)
+	{
+		if (version.ordinal != -1)
+			return columnByOrdinal[version.ordinal];
+		Integer uncachedColumn = columnByUncachedVersion.get(version);
+		return uncachedColumn == null ? -1 : uncachedColumn;
+	}
+
+	/** @return column of the {@code version}, added if it's not found yet. Only for {@link #add(String, Version, int)} */
+	private int column(Version version)
+	{
+		int column = existingColumn(version);
+		if (column != -1)
+			return column;
+
+		column = columns.size();
+		columnVersions.add(version);
+		columns.add(new int[Math.max(16, containerPaths.size())]);
+		if (trackContainersByVersion)
+		{
+			containerIdsByColumn.add(new int[16]);
+			if (noOfContainerIdsByColumn.length == column)
+				noOfContainerIdsByColumn = grow(noOfContainerIdsByColumn, column);
+		}
+
+		if (version.ordinal != -1)
+			columnByOrdinal[version.ordinal] = column;
+		else
+			columnByUncachedVersion.put(version, column);
+		return column;
+	}
+
+	/** @return a copy with the length at least {@code minIndex + 1} */
+	private static int[] grow(int[] array, int minIndex)
+	{
+		int[] newArray = new int[Math.max(minIndex + 1, 2 * array.length)];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	boolean isEmpty()
+	{
+		return containerPaths.isEmpty();
+	}
+
+	/** Ids are from 0 to this - 1, in the order in which the containers are added */
+	int noOfContainers()
+	{
+		return containerPaths.size();
+	}
+
+	String containerPath(int containerId)
+	{
+		return containerPaths.get(containerId);
+	}
+
+	/** All the versions found, in ascending order */
+	Version[] versions()
+	{
+		Version[] versions = columnVersions.toArray(new Version[columnVersions.size()]);
+		Arrays.sort(versions);
+		return versions;
+	}
+
+	int count(int containerId, Version version)
+	{
+		int column = existingColumn(version);
+		if (column == -1)
+			return 0;
+		int[] counts = columns.get(column);
+		return containerId < counts.length ? counts[containerId] : 0;
+	}
+
+	/**
+	 * Ids of the containers with the classes of the {@code version}, in the order in which the
+	 * container got its first class of the {@code version}. Can be used only if
+	 * trackContainersByVersion
+	 */
+	int[] containerIds(Version version)
+	{
+		int column = existingColumn(version);
+		if (column == -1)
+			return new int[0];
+		int[] containerIds = containerIdsByColumn.get(column);
+		int[] copy = new int[noOfContainerIdsByColumn[column]];
+		System.arraycopy(containerIds, 0, copy, 0, copy.length);
+		return copy;
+	}
+}
@@ -0,0 +1,244 @@
+package raju.javautils.cvc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long running process which scans on behalf of the {@link DaemonClient}s. So the JVM startup and
+ * the JIT compilation are paid once, instead of on every scan. Container summaries (verbosity
+ * level 1) are cached in memory across the scans, by file extensions (-e), path, size and last
+ * modified time, up to {@link #MAX_CACHED_FILES} (least recently used are evicted).
+ * <p>
+ * Listens on the loopback interface only. Each connection is a scan, on its own thread. A TCP
+ * socket, as the Unix domain sockets are available only since Java 16 (this runs on Java 5+), and
+ * not on all the platforms. So the clients are authenticated by the {@link DaemonToken}, which only
+ * the user who started the daemon can read: the scans run with that user's file permissions.
+ * <p>
+ * Protocol (big endian, strings as in {@link DataOutputStream#writeUTF(String)}):
+ *
+ * <pre>
+ * Request:  byte[]  {@link DaemonToken}. Connection is closed after an error frame, if it doesn't match
+ *           String  Working folder of the client (relative paths are resolved against this)
+ *           int     No. of arguments, String arguments. {@link #STOP} stops the daemon
+ * Response: Frames. For each frame:
+ *           byte    {@link #STDOUT} or {@link #STDERR}, int length, byte[] output
+ *           or
+ *           byte    {@link #EXIT}, int exit code. Last frame
+ * </pre>
+ */
+final class Daemon
+{
+	static final byte STDOUT = 'o', STDERR = 'e', EXIT = 'x';
+
+	/** Sent as the only argument to stop the daemon */
+	static final String STOP = "--stop";
+
+	/** Exit code, if the client's token doesn't match */
+	static final int UNAUTHORIZED = -1;
+
+	/** Files whose container summaries are cached */
+	private static final int MAX_CACHED_FILES = 1 << 17;
+
+	/** For a client to send its token */
+	private static final int TOKEN_TIMEOUT_MILLIS = 10000;
+
+	private final int port;
+	private final ScanCache memoryCache = new ScanCache(MAX_CACHED_FILES);
+
+	private byte[] token;
+
+	private ServerSocket serverSocket;
+	private volatile boolean stopped;
+
+	Daemon(int port)
+	{
+		this.port = port;
+	}
+
+	/** Serves the clients until stopped by a client */
+	void serve() throws IOException
+	{
+		// null -> loopback address
+		serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+
+		// After the port is bound, i.e. the token file of another daemon of the port is stale
+		File tokenFile = DaemonToken.file(port);
+		try
+		{
+			token = DaemonToken.create(port);
+		}
+		catch (IOException e)
+		{
+			serverSocket.close();
+			tokenFile.delete();
+			throw e;
+		}
+		System.out.printf("Listening on %s:%d (token: %s)%n", serverSocket.getInetAddress().getHostAddress(), port,
+				tokenFile.getPath());
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try
+		{
+			while (!stopped)
+			{
+				final Socket socket;
+				try
+				{
+					socket = serverSocket.accept();
+				}
+				catch (SocketException e)
+				{
+					if (stopped)
+						break;
+					throw e;
+				}
+
+				executor.execute(new Runnable()
+				{
+					public void run()
+					{
+						handle(socket);
+					}
+				});
+			}
+		}
+		finally
+		{
+			// Scans in progress are completed
+			executor.shutdown();
+			serverSocket.close();
+			tokenFile.delete();
+		}
+		System.out.printf("Stopped%n");
+	}
+
+	private void handle(Socket socket)
+	{
+		try
+		{
+			try
+			{
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+				byte[] clientToken = new byte[token.length];
+				socket.setSoTimeout(TOKEN_TIMEOUT_MILLIS);
+				in.readFully(clientToken);
+				if (!DaemonToken.matches(token, clientToken))
+				{
+					PrintStream err = new PrintStream(new FrameOutputStream(dos, STDERR), true);
+					err.printf("ERROR: Invalid token. Only the user who started the daemon can use it%n");
+					dos.writeByte(EXIT);
+					dos.writeInt(UNAUTHORIZED);
+					dos.flush();
+
+					// Rest of the request is not read. Waits (up to the timeout) for the client to close, as
+					// closing with unread input resets the connection, possibly before the client reads the error
+					socket.shutdownOutput();
+					byte[] discarded = new byte[512];
+					while (in.read(discarded) != -1)
+					{
+						// Discarded
+					}
+					return;
+				}
+				socket.setSoTimeout(0);
+
+				File workingDir = new File(in.readUTF());
+				int noOfArgs = in.readInt();
+				List<String> args = new ArrayList<String>(noOfArgs);
+				for (int i = 0; i < noOfArgs; i++)
+					args.add(in.readUTF());
+
+				int exitCode = 0;
+				if (args.equals(Collections.singletonList(STOP)))
+				{
+					stopped = true;
+					serverSocket.close();
+				}
+				else
+				{
+					PrintStream out = new PrintStream(new FrameOutputStream(dos, STDOUT), true);
+					PrintStream err = new PrintStream(new FrameOutputStream(dos, STDERR), true);
+
+					Main main = new Main(out, err, workingDir, memoryCache);
+					main.start(args);
+					main.awaitCompletion();
+					exitCode = main.exitCode();
+
+					out.flush();
+					err.flush();
+				}
+
+				synchronized (dos)
+				{
+					dos.writeByte(EXIT);
+					dos.writeInt(exitCode);
+					dos.flush();
+				}
+			}
+			finally
+			{
+				socket.close();
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.printf("Client error: %s%n", e.getMessage());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Writes each write as a frame of the {@code type} */
+	private static final class FrameOutputStream extends OutputStream
+	{
+		private final DataOutputStream dos;
+		private final byte type;
+
+		FrameOutputStream(DataOutputStream dos, byte type)
+		{
+			this.dos = dos;
+			this.type = type;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return;
+
+			// Frames of stdout and stderr can be written from different threads
+			synchronized (dos)
+			{
+				dos.writeByte(type);
+				dos.writeInt(len);
+				dos.write(b, off, len);
+				dos.flush();
+			}
+		}
+	}
+}
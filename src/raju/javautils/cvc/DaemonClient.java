@@ -0,0 +1,90 @@
+package raju.javautils.cvc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+
+/** Forwards the arguments to a {@link Daemon} and prints its output. See {@link Daemon} for the protocol */
+final class DaemonClient
+{
+	private final int port;
+
+	DaemonClient(int port)
+	{
+		this.port = port;
+	}
+
+	/** @return exit code of the scan, -1 if the daemon can't be reached or its token can't be read */
+	int run(List<String> args) throws IOException
+	{
+		if (!DaemonToken.file(port).exists())
+			return noDaemon();
+
+		byte[] token;
+		try
+		{
+			token = DaemonToken.read(port);
+		}
+		catch (IOException e)
+		{
+			System.err.printf("ERROR: Unable to read the token of the daemon: %s. It's readable only by the user who"
+					+ " started the daemon%n", e.getMessage());
+			return -1;
+		}
+
+		Socket socket;
+		try
+		{
+			// null -> loopback address
+			socket = new Socket(InetAddress.getByName(null), port);
+		}
+		catch (ConnectException e)
+		{
+			return noDaemon();
+		}
+
+		try
+		{
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			dos.write(token);
+			dos.writeUTF(new File("").getAbsolutePath());
+			dos.writeInt(args.size());
+			for (String arg : args)
+				dos.writeUTF(arg);
+			dos.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			byte[] buffer = new byte[8192];
+			for (byte type; (type = in.readByte()) != Daemon.EXIT;)
+			{
+				PrintStream ps = type == Daemon.STDERR ? System.err : System.out;
+				int len = in.readInt();
+				if (buffer.length < len)
+					buffer = new byte[len];
+				in.readFully(buffer, 0, len);
+				ps.write(buffer, 0, len);
+				ps.flush();
+			}
+			return in.readInt();
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+
+	private int noDaemon()
+	{
+		System.err.printf("ERROR: No daemon is listening on the port %d. It can be started with: --daemon %d%n", port,
+				port);
+		return -1;
+	}
+}
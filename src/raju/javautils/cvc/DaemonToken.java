@@ -0,0 +1,86 @@
+package raju.javautils.cvc;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Random secret of a {@link Daemon}, which its clients send before the request. It's written to a
+ * file readable only by the user who started the daemon ({@code ~/.cvc-daemon-<port>}), so only
+ * that user's clients can scan through the daemon or stop it. Created for every start of the daemon
+ * and deleted when it stops
+ */
+final class DaemonToken
+{
+	private static final int TOKEN_LENGTH = 32;
+
+	private DaemonToken()
+	{
+	}
+
+	static File file(int port)
+	{
+		return new File(System.getProperty("user.home"), ".cvc-daemon-" + port);
+	}
+
+	/**
+	 * Creates a new token and writes it to the {@link #file(int)}
+	 *
+	 * @throws IOException
+	 *           also if the file can't be made private (e.g. before Java 7)
+	 */
+	static byte[] create(int port) throws IOException
+	{
+		byte[] token = new byte[TOKEN_LENGTH];
+		new SecureRandom().nextBytes(token);
+		newSecretFileWriter().write(file(port), token);
+		return token;
+	}
+
+	/** Reads the token of the daemon listening on the {@code port} */
+	static byte[] read(int port) throws IOException
+	{
+		File file = file(port);
+		if (file.length() != TOKEN_LENGTH)
+			throw new IOException("Invalid token file: " + file.getPath());
+
+		byte[] token = new byte[TOKEN_LENGTH];
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			dis.readFully(token);
+		}
+		finally
+		{
+			dis.close();
+		}
+		return token;
+	}
+
+	/** Compares in a constant time (Java 6u17+), so that the time taken doesn't reveal the matching bytes */
+	static boolean matches(byte[] token, byte[] clientToken)
+	{
+		return MessageDigest.isEqual(token, clientToken);
+	}
+
+	/** {@link NioSecretFileWriter} requires Java 7+ (src-nio), so it's loaded by name */
+	private static SecretFileWriter newSecretFileWriter() throws IOException
+	{
+		try
+		{
+			return (SecretFileWriter) Class.forName("raju.javautils.cvc.NioSecretFileWriter").newInstance();
+		}
+		catch (Exception e)
+		{
+			// Not in this build
+		}
+		catch (LinkageError e)
+		{
+			// Running on Java 5 or 6
+		}
+		throw new IOException("Daemon requires Java 7 or later, to keep its token file private");
+	}
+}
@@ -0,0 +1,30 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+
+/**
+ * Lists the files and the sub folders of a folder, as they are read. Used by the
+ * {@link FolderWalker}.
+ * <p>
+ * Note: Implementations should be thread safe
+ */
+interface FolderLister
+{
+	interface Visitor
+	{
+		/**
+		 * @param folder
+		 *          false for a file
+		 * @return false to stop the listing
+		 */
+		boolean visit(File child, boolean folder);
+	}
+
+	/**
+	 * Passes the files and the sub folders of the {@code folder} to the {@code visitor}, in the
+	 * order of the file system
+	 *
+	 * @return false if the {@code folder} can't be read
+	 */
+	boolean list(File folder, Visitor visitor);
+}
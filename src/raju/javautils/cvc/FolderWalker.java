@@ -0,0 +1,188 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Lists the input folders (recursively, driven by the {@link Scanner}) through a
+ * {@link FolderLister}, pruning the files and the sub trees which are excluded (--exclude) or are
+ * deeper than the max. depth (--max-depth). Pruned folders are never listed.
+ * <p>
+ * Exclude globs are matched against the path relative to the input folder, with / as the
+ * separator. A glob without a / is matched against the name only (at any depth). {@code *} and
+ * {@code ?} don't match a /, {@code **} does. e.g. {@code .git}, {@code node_modules},
+ * {@code target/test-classes}, {@code **}{@code /test-classes}, {@code *-sources.jar}
+ * <p>
+ * Note: Instances of this class are immutable and thread safe
+ */
+final class FolderWalker
+{
+	/** Nothing is excluded */
+	static final FolderWalker ALL = new FolderWalker(Collections.<String> emptyList(), Integer.MAX_VALUE);
+
+	/** A folder to list */
+	static final class Folder
+	{
+		final File file;
+
+		/** Relative to the input folder. Empty for the input folder. Null if not needed (nothing is excluded) */
+		final String relativePath;
+
+		/** 0 for the input folder, 1 for its sub folders, .. */
+		final int depth;
+
+		private Folder(File file, String relativePath, int depth)
+		{
+			this.file = file;
+			this.relativePath = relativePath;
+			this.depth = depth;
+		}
+	}
+
+	interface Visitor
+	{
+		/** @return false to stop the listing */
+		boolean file(File file);
+
+		/** @return false to stop the listing */
+		boolean folder(Folder folder);
+	}
+
+	private final FolderLister lister;
+
+	/** Null if there are no such globs */
+	private final Pattern excludedNames, excludedPaths;
+
+	private final int maxDepth;
+
+	/**
+	 * @param maxDepth
+	 *          Files up to this depth are scanned, i.e. 1 for the files directly in the input
+	 *          folders. {@link Integer#MAX_VALUE} for no limit
+	 * @throws IllegalArgumentException
+	 *           if {@code maxDepth} is less than 1
+	 */
+	FolderWalker(Collection<String> excludeGlobs, int maxDepth)
+	{
+		this(excludeGlobs, maxDepth, newFolderLister());
+	}
+
+	FolderWalker(Collection<String> excludeGlobs, int maxDepth, FolderLister lister)
+	{
+		if (maxDepth < 1)
+			throw new IllegalArgumentException("maxDepth should be at least 1: " + maxDepth);
+
+		List<String> nameGlobs = new ArrayList<String>(), pathGlobs = new ArrayList<String>();
+		for (String glob : excludeGlobs)
+			(glob.indexOf('/') == -1 ? nameGlobs : pathGlobs).add(glob);
+
+		this.lister = lister;
+		this.excludedNames = pattern(nameGlobs);
+		this.excludedPaths = pattern(pathGlobs);
+		this.maxDepth = maxDepth;
+	}
+
+	/** @return the input folder, to {@link #list} */
+	Folder root(File inputFolder)
+	{
+		return new Folder(inputFolder, excludedPaths == null ? null : "", 0);
+	}
+
+	/**
+	 * Passes the files and the sub folders of the {@code folder} which are not pruned to the
+	 * {@code visitor}, as they are listed
+	 *
+	 * @return false if the {@code folder} can't be read
+	 */
+	boolean list(final Folder folder, final Visitor visitor)
+	{
+		if (folder.depth >= maxDepth)
+			return true;
+
+		return lister.list(folder.file, new FolderLister.Visitor()
+		{
+			public boolean visit(File child, boolean isFolder)
+			{
+				String name = child.getName();
+				if (excludedNames != null && excludedNames.matcher(name).matches())
+					return true;
+
+				String relativePath = null;
+				if (excludedPaths != null)
+				{
+					relativePath = folder.depth == 0 ? name : folder.relativePath + '/' + name;
+					if (excludedPaths.matcher(relativePath).matches())
+						return true;
+				}
+
+				if (!isFolder)
+					return visitor.file(child);
+
+				// No files to scan below the max. depth
+				return folder.depth + 1 == maxDepth || visitor.folder(new Folder(child, relativePath, folder.depth + 1));
+			}
+		});
+	}
+
+	/** @return null if there are no {@code globs} */
+	private static Pattern pattern(List<String> globs)
+	{
+		if (globs.isEmpty())
+			return null;
+
+		StringBuilder regex = new StringBuilder();
+		for (String glob : globs)
+		{
+			if (regex.length() != 0)
+				regex.append('|');
+			regex.append("(?:");
+			for (int i = 0; i < glob.length(); i++)
+			{
+				char c = glob.charAt(i);
+				if (c == '*' && glob.startsWith("**/", i))
+				{
+					regex.append("(?:.*/)?"); // Zero or more folders
+					i += 2;
+				}
+				else if (c == '*' && glob.startsWith("**", i))
+				{
+					regex.append(".*");
+					i++;
+				}
+				else if (c == '*')
+					regex.append("[^/]*");
+				else if (c == '?')
+					regex.append("[^/]");
+				else
+					regex.append(Pattern.quote(String.valueOf(c)));
+			}
+			regex.append(')');
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * {@link NioFolderLister} requires Java 7+ (src-nio), so it's loaded by name. Falls back to the
+	 * {@link IoFolderLister}
+	 */
+	private static FolderLister newFolderLister()
+	{
+		try
+		{
+			return (FolderLister) Class.forName("raju.javautils.cvc.NioFolderLister").newInstance();
+		}
+		catch (Exception e)
+		{
+			// Not in this build
+		}
+		catch (LinkageError e)
+		{
+			// Running on Java 5 or 6
+		}
+		return new IoFolderLister();
+	}
+}
@@ -0,0 +1,26 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+
+/**
+ * {@link FolderLister} using {@link File#list()}. One stat per child ({@link File#isDirectory()}),
+ * but the names of all the children are read before the first is visited. Used when
+ * {@code java.nio.file} is not available (before Java 7)
+ */
+final class IoFolderLister implements FolderLister
+{
+	public boolean list(File folder, Visitor visitor)
+	{
+		String[] names = folder.list();
+		if (names == null)
+			return false;
+
+		for (String name : names)
+		{
+			File child = new File(folder, name);
+			if (!visitor.visit(child, child.isDirectory()))
+				break;
+		}
+		return true;
+	}
+}
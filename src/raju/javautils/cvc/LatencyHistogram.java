@@ -0,0 +1,82 @@
+package raju.javautils.cvc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations (in nanoseconds) for the percentiles. Buckets are log-linear: 8 buckets
+ * for each power of 2. So a percentile is reported as the upper bound of its bucket, which is at
+ * most 12.5% more than the actual value.
+ * <p>
+ * Note: Instances of this class are thread safe
+ */
+final class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 3, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong(), max = new AtomicLong();
+
+	void record(long nanos)
+	{
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+
+		for (long currentMax; nanos > (currentMax = max.get());)
+			if (max.compareAndSet(currentMax, nanos))
+				break;
+	}
+
+	long count()
+	{
+		return count.get();
+	}
+
+	long max()
+	{
+		return max.get();
+	}
+
+	/**
+	 * @param percentile
+	 *          e.g. 99 for p99
+	 * @return 0 if nothing is recorded
+	 */
+	long percentile(double percentile)
+	{
+		long total = 0;
+		for (int i = 0; i < buckets.length(); i++)
+			total += buckets.get(i);
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++)
+			if ((seen += buckets.get(i)) >= rank)
+				return Math.min(upperBound(i), max());
+		return max();
+	}
+
+	/** Values below {@link #SUB_BUCKETS} have a bucket each */
+	private static int bucket(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/** Largest value in the bucket */
+	private static long upperBound(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1, subBucket = bucket % SUB_BUCKETS;
+		long lowerBound = (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
@@ -2,6 +2,9 @@ package raju.javautils.cvc;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -14,6 +17,34 @@ import java.util.concurrent.TimeUnit;
 
 public final class Main
 {
+	private final PrintStream out, err;
+
+	/** Folder against which the relative paths are resolved. Null for the current folder */
+	private final File baseDir;
+
+	/**
+	 * Used for the verbosity level 1 (its entries of the same file extensions), unless a cache file
+	 * is provided. May be null
+	 */
+	private final ScanCache memoryCache;
+
+	/** Inputs of up to this size in total (files only, e.g. a few jars) are tiny. See {@link #isTinyInput(List)} */
+	private static final long MAX_TINY_INPUT_SIZE = 32 << 20;
+
+	/** Writes the metrics (--metrics-interval). Terminated after the results are displayed. Null if not used */
+	private ScheduledExecutorService metricsExecutor;
+
+	/** Set by the --max-version check, --baseline and --merge. 0 otherwise */
+	private int exitCode;
+
+	Main(PrintStream out, PrintStream err, File baseDir, ScanCache memoryCache)
+	{
+		this.out = out;
+		this.err = err;
+		this.baseDir = baseDir;
+		this.memoryCache = memoryCache;
+	}
+
 	public static void main(String[] args)
 	{
 		try
@@ -27,12 +58,57 @@ public final class Main
 		}
 	}
 
-	private static Void main0(String[] args) throws IOException
+	private static void main0(String[] args) throws IOException
 	{
-		if (args.length == 0)
-			return printUsage(null /* No specific error message. Just print the usage */);
-
 		List<String> argsList = new ArrayList<String>(Arrays.asList(args));
+		Main main = new Main(System.out, System.err, null, null);
+
+		String daemonPortStr = argValue(argsList, "--daemon");
+		String connectPortStr = argValue(argsList, "--connect");
+		if (daemonPortStr == null && connectPortStr == null)
+		{
+			main.start(argsList);
+			if (main.exitCode() != 0)
+				System.exit(main.exitCode());
+			return;
+		}
+
+		String portStr = daemonPortStr != null ? daemonPortStr : connectPortStr;
+		int port;
+		try
+		{
+			port = Integer.parseInt(portStr);
+		}
+		catch (NumberFormatException e)
+		{
+			port = 0;
+		}
+		if (port < 1 || port > 0xFFFF)
+			main.printUsage("ERROR: Invalid port: " + portStr);
+		else if (daemonPortStr != null && connectPortStr != null)
+			main.printUsage("ERROR: --daemon and --connect can't be used together");
+		else if (daemonPortStr != null && !argsList.isEmpty())
+			main.printUsage("ERROR: Scan options are provided by the clients, not to --daemon");
+		else if (daemonPortStr != null)
+			new Daemon(port).serve();
+		else
+		{
+			int exitCode = new DaemonClient(port).run(argsList);
+			if (exitCode != 0)
+				System.exit(exitCode);
+		}
+	}
+
+	/**
+	 * Scans and prints the results on the calling thread, while the scan runs in the background
+	 * (unless the input is tiny). Output is printed as the scan progresses
+	 *
+	 * @see #awaitCompletion()
+	 */
+	Void start(List<String> argsList) throws IOException
+	{
+		if (argsList.isEmpty())
+			return printUsage(null /* No specific error message. Just print the usage */);
 
 		String extnsStr = (extnsStr = argValue(argsList, "-e")) == null ? "jar" : extnsStr;
 		String[] fileExtnsArr = extnsStr.split(",");
@@ -62,31 +138,438 @@ public final class Main
 			return printUsage("ERROR: -gv/-gc flags are applicable only for the verbocity level 1");
 		}
 
+		boolean streamClasses = false;
+		if (verbosity == 2)
+			streamClasses = argsList.remove("-s");
+		else if (argsList.contains("-s"))
+			return printUsage("ERROR: -s flag is applicable only for the verbocity level 2");
+
+		String exportFileStr = argValue(argsList, "--export");
+		if (exportFileStr != null && verbosity != 1)
+			return printUsage("ERROR: --export is applicable only for the verbocity level 1");
+
+		if (argsList.remove("--merge"))
+			return merge(argsList, groupByContainer, exportFileStr);
+
+		String parallelismStr = argValue(argsList, "-j");
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		if (parallelismStr != null)
+		{
+			try
+			{
+				parallelism = Integer.parseInt(parallelismStr);
+			}
+			catch (NumberFormatException e)
+			{
+				parallelism = 0;
+			}
+			if (parallelism < 1)
+				return printUsage("ERROR: Invalid value provided for parallelism(-j): " + parallelismStr);
+		}
+
+		String virtualThreadsStr = argValue(argsList, "--virtual-threads");
+		boolean virtualThreads = virtualThreadsStr != null;
+		if (virtualThreads)
+		{
+			try
+			{
+				parallelism = Integer.parseInt(virtualThreadsStr);
+			}
+			catch (NumberFormatException e)
+			{
+				parallelism = 0;
+			}
+			if (parallelism < 1)
+				return printUsage("ERROR: Invalid value provided for no. of files read at a time(--virtual-threads): "
+						+ virtualThreadsStr);
+			if (parallelismStr != null)
+				return printUsage("ERROR: -j and --virtual-threads can't be used together");
+			if (!Scanner.virtualThreadsAvailable())
+			{
+				err.printf("WARNING: Virtual threads require Java 21+. Using %d threads%n", parallelism);
+				virtualThreads = false;
+			}
+		}
+
+		String archiveReaderStr = (archiveReaderStr = argValue(argsList, "-z")) == null ? "zipfile" : archiveReaderStr;
+		if (!Arrays.asList("zipfile", "mmap").contains(archiveReaderStr))
+			return printUsage("ERROR: Invalid value provided for archive reader(-z): " + archiveReaderStr);
+
+		boolean mappedArchives = archiveReaderStr.equals("mmap");
+
+		String cacheFileStr = argValue(argsList, "--cache");
+		if (cacheFileStr != null && verbosity != 1)
+			return printUsage("ERROR: --cache is applicable only for the verbocity level 1");
+
+		String metricsFileStr = argValue(argsList, "--metrics");
+		String metricsIntervalStr = argValue(argsList, "--metrics-interval");
+		int metricsInterval = 0;
+		if (metricsIntervalStr != null)
+		{
+			try
+			{
+				metricsInterval = Integer.parseInt(metricsIntervalStr);
+			}
+			catch (NumberFormatException e)
+			{
+				metricsInterval = 0;
+			}
+			if (metricsInterval < 1)
+				return printUsage("ERROR: Invalid value provided for metrics interval(--metrics-interval): " + metricsIntervalStr);
+			if (metricsFileStr == null)
+				return printUsage("ERROR: --metrics-interval is applicable only with --metrics");
+		}
+
+		String jfrFileStr = argValue(argsList, "--jfr");
+
+		String maxVersionStr = argValue(argsList, "--max-version");
+		Version maxVersion = maxVersionStr == null ? null : Version.fromJavaVersion(maxVersionStr);
+		if (maxVersionStr != null && maxVersion == null)
+			return printUsage("ERROR: Invalid value provided for max version(--max-version): " + maxVersionStr);
+
+		String failOnStr = argValue(argsList, "--fail-on");
+		int failOn = 1;
+		if (failOnStr != null)
+		{
+			try
+			{
+				failOn = Integer.parseInt(failOnStr);
+			}
+			catch (NumberFormatException e)
+			{
+				failOn = 0;
+			}
+			if (failOn < 1)
+				return printUsage("ERROR: Invalid value provided for no. of violations(--fail-on): " + failOnStr);
+			if (maxVersion == null)
+				return printUsage("ERROR: --fail-on is applicable only with --max-version");
+		}
+
+		List<String> excludeGlobs = new ArrayList<String>();
+		String excludeGlobsStr = argValue(argsList, "--exclude");
+		if (excludeGlobsStr != null)
+			for (String excludeGlob : excludeGlobsStr.split(","))
+				if ((excludeGlob = excludeGlob.trim()).length() != 0)
+					excludeGlobs.add(excludeGlob);
+
+		String maxDepthStr = argValue(argsList, "--max-depth");
+		int maxDepth = Integer.MAX_VALUE;
+		if (maxDepthStr != null)
+		{
+			try
+			{
+				maxDepth = Integer.parseInt(maxDepthStr);
+			}
+			catch (NumberFormatException e)
+			{
+				maxDepth = 0;
+			}
+			if (maxDepth < 1)
+				return printUsage("ERROR: Invalid value provided for max. depth(--max-depth): " + maxDepthStr);
+		}
+
+		String sampleSizeStr = argValue(argsList, "--sample");
+		SampleSize sampleSize = sampleSizeStr == null ? null : SampleSize.parse(sampleSizeStr);
+		if (sampleSizeStr != null && sampleSize == null)
+			return printUsage("ERROR: Invalid value provided for sample size(--sample): " + sampleSizeStr);
+
+		String baselineFileStr = argValue(argsList, "--baseline");
+
+		boolean watch = argsList.remove("--watch");
+		boolean eta = argsList.remove("--eta");
+		if (watch && verbosity != 1)
+			return printUsage("ERROR: --watch is applicable only for the verbocity level 1");
+		if (watch && (metricsFileStr != null || jfrFileStr != null || excludeGlobsStr != null || maxDepthStr != null))
+			return printUsage("ERROR: --watch can't be used with --metrics, --jfr, --exclude or --max-depth");
+		if (maxVersion != null && (verbosity != 1 || cacheFileStr != null || metricsFileStr != null || jfrFileStr != null
+				|| watch))
+			return printUsage("ERROR: --max-version can't be used with -v 2, --cache, --metrics, --jfr or --watch");
+		if (exportFileStr != null && (watch || maxVersion != null))
+			return printUsage("ERROR: --export can't be used with --watch or --max-version");
+		if (baselineFileStr != null && (verbosity != 1 || cacheFileStr != null || metricsFileStr != null
+				|| jfrFileStr != null || watch || maxVersion != null || sampleSize != null || exportFileStr != null))
+			return printUsage("ERROR: --baseline can't be used with -v 2, --cache, --metrics, --jfr, --watch, --max-version,"
+					+ " --sample or --export");
+		if (sampleSize != null && (verbosity != 1 || cacheFileStr != null || watch || maxVersion != null))
+			return printUsage("ERROR: --sample can't be used with -v 2, --cache, --watch or --max-version");
+		if (eta && (watch || maxVersion != null || baselineFileStr != null))
+			return printUsage("ERROR: --eta can't be used with --watch, --max-version or --baseline");
+
+		// Relative input paths of a daemon's scan are shown as given, like a scan run directly. Except with
+		// --watch, which shows the absolute paths
+		boolean relativeInputs = baseDir != null && !watch;
 		List<File> inputPathsToScan = new ArrayList<File>();
 		for (String inputFileOrFolderStr : argsList)
-			inputPathsToScan.add(new File(inputFileOrFolderStr));
+			inputPathsToScan.add(relativeInputs ? Scanner.resolve(baseDir, inputFileOrFolderStr)
+					: file(inputFileOrFolderStr));
 
 		if (inputPathsToScan.isEmpty())
 			return printUsage("ERROR: No paths are provided");
 
-		final Scanner scanner = new Scanner(inputPathsToScan, fileExtns);
+		FolderWalker walker = excludeGlobs.isEmpty() && maxDepthStr == null ? FolderWalker.ALL
+				: new FolderWalker(excludeGlobs, maxDepth);
+
+		if (maxVersion != null)
+		{
+			exitCode = new VersionPolicy(maxVersion, failOn, out, err).check(inputPathsToScan, fileExtns, parallelism,
+					mappedArchives, virtualThreads, walker, baseDir);
+			return null;
+		}
+
+		if (baselineFileStr != null)
+		{
+			exitCode = new BaselineDiff(file(baselineFileStr), baselineFileStr, out, err).diff(inputPathsToScan, fileExtns,
+					parallelism, mappedArchives, virtualThreads, walker, baseDir);
+			return null;
+		}
+
+		Snapshot.Writer snapshotWriter = exportFileStr == null ? null : snapshotWriter(file(exportFileStr), hostName());
+		if (exportFileStr != null && snapshotWriter == null)
+			return null;
+
+		final ScanEvents events = jfrFileStr == null ? null : jfrScanEvents(file(jfrFileStr));
+		if (jfrFileStr != null && events == null)
+			return null;
+
+		// Sampled counts are not cached, as they are estimates
+		ScanCache cache = cacheFileStr != null ? new ScanCache(file(cacheFileStr), fileExtns)
+				: verbosity == 1 && sampleSize == null && memoryCache != null ? memoryCache.forScan(fileExtns, baseDir)
+						: null;
+
+		// Scanned on this thread before the results are consumed. So all the results are queued
+		boolean tinyInput = !watch && metricsInterval == 0 && isTinyInput(inputPathsToScan);
+		final Scanner scanner = new Scanner(inputPathsToScan, fileExtns, parallelism, mappedArchives, verbosity == 1,
+				cache, events, tinyInput ? Integer.MAX_VALUE : ResultPipeline.DEFAULT_MAX_QUEUED_BATCHES, sampleSize,
+				virtualThreads, walker);
+		if (relativeInputs)
+			scanner.relativeTo(baseDir);
+		if (watch)
+		{
+			try
+			{
+				new Watcher(scanner, inputPathsToScan, parallelism, out, err).run();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		}
+
+		final File metricsFile = metricsFileStr == null ? null : file(metricsFileStr);
 		FutureTask<Void> scanTask = new FutureTask<Void>(new Runnable()
 		{
 			public void run()
 			{
-				scanner.scan();
+				try
+				{
+					scanner.scan();
+				}
+				finally
+				{
+					if (events != null)
+						closeEvents(events);
+				}
+				if (metricsFile != null)
+					writeMetrics(scanner, metricsFile);
 			}
 		}, null);
 
-		ScheduledExecutorService se = Executors.newSingleThreadScheduledExecutor();
-		se.scheduleWithFixedDelay(new ProgressUpdater(verbosity, groupByContainer, scanner, scanTask, se), 100, 450,
-				TimeUnit.MILLISECONDS);
+		// Stops when the ProgressUpdater shuts down the executor
+		if (metricsInterval != 0)
+			(metricsExecutor = Executors.newSingleThreadScheduledExecutor()).scheduleAtFixedRate(new Runnable()
+			{
+				public void run()
+				{
+					writeMetrics(scanner, metricsFile);
+				}
+			}, metricsInterval, metricsInterval, TimeUnit.SECONDS);
+
+		// Progress of a daemon's scan is shown on the console of its client
+		boolean showProgress = !tinyInput && (out != System.out || isTerminal());
+		ProgressUpdater progressUpdater = new ProgressUpdater(verbosity, groupByContainer, streamClasses, snapshotWriter,
+				scanner, scanTask, metricsExecutor, showProgress, eta, out, err);
+
+		if (tinyInput)
+			scanTask.run();
+		else
+			new Thread(scanTask).start();
+		progressUpdater.run();
+
+		return null;
+	}
+
+	/** @return true if the inputs are only files (e.g. a few jars), of up to {@link #MAX_TINY_INPUT_SIZE} in total */
+	private static boolean isTinyInput(List<File> inputPaths)
+	{
+		long size = 0;
+		for (File inputPath : inputPaths)
+			if (!inputPath.isFile() || (size += inputPath.length()) > MAX_TINY_INPUT_SIZE)
+				return false;
+		return true;
+	}
+
+	/**
+	 * {@code System.console()} of Java 6+, called by reflection as the sources are compiled for Java
+	 * 1.5. Since Java 22 the console is available even when redirected, so {@code Console.isTerminal()}
+	 * is checked too
+	 *
+	 * @return true if the standard input and output are a terminal. False if it can't be known
+	 */
+	static boolean isTerminal()
+	{
+		try
+		{
+			Object console = System.class.getMethod("console").invoke(null);
+			if (console == null)
+				return false;
+			try
+			{
+				return (Boolean) console.getClass().getMethod("isTerminal").invoke(console);
+			}
+			catch (NoSuchMethodException e)
+			{
+				return true;
+			}
+		}
+		catch (Exception e)
+		{
+			return false;
+		}
+	}
+
+	/** Merges the snapshots (--merge) on the calling thread */
+	private Void merge(List<String> argsList, boolean groupByContainer, String exportFileStr) throws IOException
+	{
+		for (String arg : argsList)
+			if (arg.startsWith("-"))
+				return printUsage("ERROR: Only -gc, -gv and --export can be used with --merge: " + arg);
+
+		List<File> snapshotPaths = new ArrayList<File>();
+		for (String snapshotPathStr : argsList)
+			snapshotPaths.add(file(snapshotPathStr));
+
+		if (snapshotPaths.isEmpty())
+			return printUsage("ERROR: No snapshots are provided");
+
+		Snapshot.Writer snapshotWriter = exportFileStr == null ? null : snapshotWriter(file(exportFileStr), "");
+		if (exportFileStr != null && snapshotWriter == null)
+			return null;
+
+		exitCode = new SnapshotMerger(groupByContainer, out, err).merge(snapshotPaths, snapshotWriter);
+		return null;
+	}
+
+	/**
+	 * @param source
+	 *          Empty for the merged snapshots
+	 * @return null if the snapshot file can't be created. Error is printed
+	 */
+	private Snapshot.Writer snapshotWriter(File snapshotFile, String source)
+	{
+		try
+		{
+			return new Snapshot.Writer(snapshotFile, source, System.currentTimeMillis());
+		}
+		catch (IOException e)
+		{
+			err.printf("ERROR: Unable to create the snapshot file: %s%n", e.getMessage());
+			return null;
+		}
+	}
+
+	/** Source of the exported snapshots */
+	private static String hostName()
+	{
+		try
+		{
+			return InetAddress.getLocalHost().getHostName();
+		}
+		catch (IOException e)
+		{
+			return "unknown";
+		}
+	}
+
+	/** Waits until the metrics of the scan by {@link #start(List)} (if any) are written */
+	void awaitCompletion() throws InterruptedException
+	{
+		if (metricsExecutor != null)
+			metricsExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+	}
 
-		new Thread(scanTask).start();
+	/** Exit code of the scan started by {@link #start(List)}. Non zero if a --max-version check didn't pass */
+	int exitCode()
+	{
+		return exitCode;
+	}
 
+	/** @return {@code path} resolved against the {@link #baseDir}. i.e. same as its absolute path, if run directly */
+	private File file(String path)
+	{
+		File file = new File(path);
+		if (baseDir == null || file.isAbsolute())
+			return file;
+		return new File(baseDir, path);
+	}
+
+	/**
+	 * Starts a Java Flight Recorder recording, which is dumped to the {@code jfrFile} when closed.
+	 * The implementation is compiled only by JDK 11+ (src-jfr), so it's loaded by name
+	 *
+	 * @return null if JFR is not available. Error is printed
+	 */
+	private ScanEvents jfrScanEvents(File jfrFile)
+	{
+		try
+		{
+			return (ScanEvents) Class.forName("raju.javautils.cvc.JfrScanEvents").getDeclaredConstructor(File.class)
+					.newInstance(jfrFile);
+		}
+		catch (ClassNotFoundException e)
+		{
+			err.printf("ERROR: --jfr is not available in this build (requires a build with JDK 11+)%n");
+		}
+		catch (LinkageError e)
+		{
+			err.printf("ERROR: --jfr requires Java 11+%n");
+		}
+		catch (InvocationTargetException e)
+		{
+			err.printf("ERROR: Unable to start the JFR recording: %s%n", e.getCause());
+		}
+		catch (Exception e)
+		{
+			err.printf("ERROR: Unable to start the JFR recording: %s%n", e);
+		}
 		return null;
 	}
 
+	/** Stops the recording and dumps it */
+	private void closeEvents(ScanEvents events)
+	{
+		try
+		{
+			events.close();
+		}
+		catch (IOException e)
+		{
+			err.printf("Unable to write the JFR recording: %s%n", e.getMessage());
+		}
+	}
+
+	private void writeMetrics(Scanner scanner, File metricsFile)
+	{
+		try
+		{
+			scanner.writeMetrics(metricsFile);
+		}
+		catch (IOException e)
+		{
+			err.printf("Unable to write the metrics: %s%n", e.getMessage());
+		}
+	}
+
 	/**
 	 * If {@code propName} is found in {@code args}, its next value will be returned
 	 * and both the {@code propName} and it's value will be removed from the
@@ -110,20 +593,76 @@ public final class Main
 	 * @return null. Always. As a convenience to print the message and to return
 	 *         from the method from which this method is called
 	 */
-	private static Void printUsage(String optionalErrorMessage)
+	Void printUsage(String optionalErrorMessage)
 	{
 		if (optionalErrorMessage != null)
-			System.err.printf("%s%n%n", optionalErrorMessage);
+			err.printf("%s%n%n", optionalErrorMessage);
 
-		System.out.printf(
-				"Usage: java -jar java-class-version-checker-<version>.jar [-e] [-v] Path1 Path2 ..%n"
+		out.printf(
+				"Usage: java -jar java-class-version-checker-<version>.jar [-e] [-v] [-j] [--virtual-threads] [-z] [--exclude] [--max-depth] [--cache] [--metrics] [--jfr] [--watch] [--max-version] [--baseline] [--sample] [--export] [--eta] [--connect] Path1 Path2 ..%n"
 						+ "-e Comma separated list of file extensions. e.g. jar(default),war,class,.. %n"
 						+ "-v Verbosity. Valid values are 1(default) and 2%n"
 						+ "   1: Prints stats: version, no. of classes, jar file and other versions of class files%n"
 						+ "      found in the archive/folder%n"
 						+ "      -gc(default) Group by container e.g. folder, archive%n"
 						+ "      -gv Group by Java version%n"
-						+ "   2: Lists all the files with version in the output%n%n"
+						+ "   2: Lists all the files with version in the output%n"
+						+ "      Sorted by version. Classes are moved to temporary files when there are too many%n"
+						+ "      -s Stream. Lists the classes as they are found, without sorting%n"
+						+ "-j No. of threads used for scanning. Default: No. of available processors%n"
+						+ "   Output order is the same for any no. of threads%n"
+						+ "--virtual-threads No. of files and folders to read at a time. e.g. 256. Instead of -j%n"
+						+ "   Scans each file and folder on its own virtual thread (Java 21+), so that the reads%n"
+						+ "   overlap on the file systems with a high latency (e.g. NFS)%n"
+						+ "-z Archive reader. Valid values are zipfile(default) and mmap%n"
+						+ "   zipfile: java.util.zip.ZipFile%n"
+						+ "   mmap: Memory mapped reader, which reads only the class header from each entry%n"
+						+ "--exclude Comma separated list of globs of the files and folders not to scan, relative%n"
+						+ "   to the input folders. A glob without / matches the name at any depth. * and ? don't%n"
+						+ "   match /, ** does. e.g. .git,node_modules,target/test-classes,*-sources.jar%n"
+						+ "--max-depth Scans the files up to this depth in the input folders. 1: Only the files%n"
+						+ "   directly in the input folders%n"
+						+ "--cache File to cache the results (verbosity 1 only). Files not modified since the%n"
+						+ "   previous run (same size and last modified time) are not scanned again. A cache of%n"
+						+ "   other file extensions (-e) is not used%n"
+						+ "--metrics File to write the scan metrics (JSON) to, at the end of the scan. e.g. time%n"
+						+ "   spent on listing folders and opening archives, bytes read and inflated%n"
+						+ "   --metrics-interval Also write the metrics every these many seconds during the scan%n"
+						+ "--jfr File to write a Java Flight Recorder recording of the scan to (Java 11+), with%n"
+						+ "   an event per archive scanned, folder listed and failure%n"
+						+ "--watch Scans, then watches the paths and rescans only the files created or modified%n"
+						+ "   (verbosity 1 only). Prints the changes, classes newer than the running Java and%n"
+						+ "   the totals by version after each rescan%n"
+						+ "--max-version Java version. e.g. 1.8, 8, 11. Fails (exit code 1) if any class is newer, and%n"
+						+ "   stops the scan on the first such class. The classes are listed as in -v 2%n"
+						+ "   Exit code is 2 if none are newer but some files couldn't be read, 0 otherwise%n"
+						+ "   --fail-on No. of newer classes to find before stopping. Default: 1%n"
+						+ "--baseline File. Creates the baseline (verbosity 1 only) if the file doesn't exist. Otherwise%n"
+						+ "   prints only the containers added, removed or with different no. of classes by version%n"
+						+ "   since the baseline. Files with the same size and either the same last modified time%n"
+						+ "   or the same central directory CRC are not scanned. Exit code is 1 if there are%n"
+						+ "   changes, 2 if some files couldn't be read or the baseline is invalid or of other%n"
+						+ "   file extensions (-e), 0 otherwise%n"
+						+ "--sample No. of classes (e.g. 16) or percentage of the classes (e.g. 5%%) to read from each%n"
+						+ "   archive (verbosity 1 only). If all of them have the same version, all the classes of%n"
+						+ "   the archive are counted with that version (marked with ~), otherwise the archive is%n"
+						+ "   scanned fully. A few classes of another version can go unnoticed. Nested archives are%n"
+						+ "   sampled only with -z mmap%n"
+						+ "--export File to write the results (verbosity 1 only) to, as a compact snapshot. e.g. to%n"
+						+ "   combine the results of many hosts with --merge%n"
+						+ "--eta Also shows the MB/s and the estimated time to finish in the progress line. The size%n"
+						+ "   of the files to scan is totalled from the folder listings (archives are not opened),%n"
+						+ "   in parallel with the scan. Progress is shown only when the output is a terminal%n"
+						+ "--merge Combines the snapshots (Paths are snapshot files or folders of *.cvcs files) into%n"
+						+ "   one report, adding up the no. of classes of the same paths. Reads one snapshot at a%n"
+						+ "   time. Only -gc, -gv and --export (merged snapshot) can be used with it%n"
+						+ "--daemon Port. Runs in the background and scans for the clients (--connect), to avoid the%n"
+						+ "   JVM startup and the JIT warm up on every scan. Listens on the loopback interface only.%n"
+						+ "   Only the clients of the same user can use it: they send the token which the daemon%n"
+						+ "   writes to ~/.cvc-daemon-<Port>, readable only by the user (Java 7+)%n"
+						+ "   Results of the verbosity level 1 are cached in memory (like --cache), for up to 128K files%n"
+						+ "--connect Port. Runs the scan in the daemon. Rest of the options are sent to the daemon%n"
+						+ "   --connect Port --stop Stops the daemon%n%n"
 						+ "Path can be any folder or file which matches the provided extension(s)%n"
 						+ "e.g. 1. java -jar java-class-version-checker-<version>.jar Folder1WithJars Folder2WithJars%n"
 						+ "     2. java -jar java-class-version-checker-<version>.jar -e jar,war,ear xyz.war abc.ear Folder2%n"
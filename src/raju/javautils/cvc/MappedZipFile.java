@@ -0,0 +1,624 @@
+package raju.javautils.cvc;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a ZIP file directly from its central directory, using memory mapped buffers.
+ * <p>
+ * Unlike {@link java.util.zip.ZipFile}, no object is created per entry. Entries are visited
+ * with a cursor ({@link #next()}) and only the requested number of bytes of an entry are read
+ * (or inflated) by {@link #readEntryData(byte[], int)}.
+ * <p>
+ * Files larger than 2GB are mapped in overlapping segments, so that any header (or a small read)
+ * can be served from a single segment. ZIP64 archives are supported.
+ * <p>
+ * A nested archive (e.g. a jar in a war) is opened with {@link #openNested(String)}. A STORED nested
+ * archive is read in place, from the mapped buffers of the outer archive. Other nested archives
+ * are inflated once into a direct buffer, or into a temporary file when they are larger than
+ * {@link #MAX_NESTED_BUFFER_SIZE}.
+ * <p>
+ * Note: Instances of this class are not thread safe. {@link #duplicate()} reads the same archive on
+ * another thread. Mapped buffers are released only when they
+ * are garbage collected, as there is no API (in Java 1.5) to unmap them explicitly
+ */
+final class MappedZipFile implements Closeable
+{
+	private static final int SEGMENT_SIZE = 1 << 30;
+
+	/** Should be more than any header size (including the variable length fields) */
+	private static final int SEGMENT_OVERLAP = 1 << 18;
+
+	private static final int LOCSIG = 0x04034b50, CENSIG = 0x02014b50, ENDSIG = 0x06054b50;
+	private static final int ZIP64_ENDSIG = 0x06064b50, ZIP64_LOCSIG = 0x07064b50;
+	private static final int LOCHDR = 30, CENHDR = 46, ENDHDR = 22, ZIP64_LOCHDR = 20;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	static final int STORED = 0, DEFLATED = 8;
+
+	private static final int MAX_NESTED_BUFFER_SIZE = 16 << 20;
+
+	private final String path;
+	private final ByteBuffer[] segments;
+
+	/** Position of this archive in the {@link #segments}. Non zero only for a STORED nested archive */
+	private final long origin;
+	private final long length;
+
+	/** Null, unless the data is inflated into a temporary file (by {@link #openNested(String)}) */
+	private File tempFile;
+
+	/** Offset to add to all the offsets in the ZIP, when data is prepended to the ZIP (e.g. self-extracting) */
+	private final long base;
+	private final long cenStart, cenEnd;
+	private final long totalEntries;
+
+	/** Position of the next central directory header to be read by {@link #next()} */
+	private long cenPos;
+
+	// Current entry
+	private byte[] name = new byte[256];
+	private int nameLen;
+	private int method, flags;
+	private long crc, compressedSize, size, locOffset;
+
+	private Inflater inflater;
+	private final byte[] inflaterInput = new byte[512];
+
+	/** For the {@link ScanMetrics} */
+	private long bytesRead, bytesInflated;
+
+	MappedZipFile(File file) throws IOException
+	{
+		this(file.getPath(), map(file), 0, file.length());
+	}
+
+	private MappedZipFile(String path, ByteBuffer[] segments, long origin, long length) throws IOException
+	{
+		this.path = path;
+		this.segments = segments;
+		this.origin = origin;
+		this.length = length;
+
+		long endPos = findEndHeader();
+
+		long cenSize = u32(endPos + 12), cenOffset = u32(endPos + 16);
+		long entries = u16(endPos + 10);
+
+		long zip64LocPos = endPos - ZIP64_LOCHDR;
+		if (zip64LocPos >= 0 && i32(zip64LocPos) == ZIP64_LOCSIG)
+		{
+			long zip64EndPos = u64(zip64LocPos + 8);
+			if (zip64EndPos < 0 || zip64EndPos + 56 > length || i32(zip64EndPos) != ZIP64_ENDSIG)
+				throw new ZipException("invalid ZIP64 END header");
+
+			entries = u64(zip64EndPos + 32);
+			cenSize = u64(zip64EndPos + 40);
+			cenOffset = u64(zip64EndPos + 48);
+			base = 0;
+		}
+		else
+		{
+			base = endPos - cenSize - cenOffset;
+		}
+
+		cenStart = base + cenOffset;
+		cenEnd = cenStart + cenSize;
+		if (base < 0 || cenSize < 0 || cenOffset < 0 || cenEnd > length)
+			throw new ZipException("invalid END header (bad central directory offset)");
+
+		totalEntries = entries;
+		cenPos = cenStart;
+	}
+
+	private static ByteBuffer[] map(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+
+			ByteBuffer[] segments = new ByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+			for (int i = 0; i < segments.length; i++)
+			{
+				long start = (long) i * SEGMENT_SIZE;
+				long size = Math.min(length - start, SEGMENT_SIZE + SEGMENT_OVERLAP);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return segments;
+		}
+		finally
+		{
+			// Mapping remains valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/** Position of the END header. Searched backwards, as the ZIP file comment is of variable length */
+	private long findEndHeader() throws ZipException
+	{
+		if (length == 0)
+			throw new ZipException("zip file is empty");
+		if (length < ENDHDR)
+			throw new ZipException("zip END header not found");
+
+		long minPos = Math.max(0, length - ENDHDR - 0xFFFF);
+		for (long pos = length - ENDHDR; pos >= minPos; pos--)
+			if (i32(pos) == ENDSIG && pos + ENDHDR + u16(pos + 20) <= length)
+				return pos;
+
+		throw new ZipException("zip END header not found");
+	}
+
+	String getPath()
+	{
+		return path;
+	}
+
+	/** Size of the archive in bytes */
+	long length()
+	{
+		return length;
+	}
+
+	/** Total no. of entries, as recorded in the END header */
+	long size()
+	{
+		return totalEntries;
+	}
+
+	/**
+	 * Moves the cursor to the next entry in the central directory
+	 *
+	 * @return false if there are no more entries
+	 */
+	boolean next() throws ZipException
+	{
+		if (cenPos + CENHDR > cenEnd)
+			return false;
+
+		long pos = cenPos;
+		if (i32(pos) != CENSIG)
+			throw new ZipException("invalid CEN header (bad signature)");
+
+		flags = u16(pos + 8);
+		method = u16(pos + 10);
+		crc = u32(pos + 16);
+		compressedSize = u32(pos + 20);
+		size = u32(pos + 24);
+		nameLen = u16(pos + 28);
+		int extraLen = u16(pos + 30), commentLen = u16(pos + 32);
+		locOffset = u32(pos + 42);
+
+		if (name.length < nameLen)
+			name = new byte[Math.max(nameLen, 2 * name.length)];
+		get(pos + CENHDR, name, 0, nameLen);
+
+		if (compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC || locOffset == ZIP64_MAGIC)
+			readZip64Extra(pos + CENHDR + nameLen, extraLen);
+
+		cenPos = pos + CENHDR + nameLen + extraLen + commentLen;
+		if (cenPos > cenEnd)
+			throw new ZipException("invalid CEN header (bad header size)");
+		bytesRead += cenPos - pos;
+		return true;
+	}
+
+	/** Position of the cursor. i.e. of the entry to be read by the next {@link #next()} */
+	long position()
+	{
+		return cenPos;
+	}
+
+	/**
+	 * Moves the cursor back (or forward) to a {@link #position()} returned earlier, so the next
+	 * {@link #next()} reads the entry at that position again
+	 */
+	void seek(long position)
+	{
+		if (position < cenStart || position > cenEnd)
+			throw new IllegalArgumentException("Not a position of this central directory: " + position);
+		cenPos = position;
+	}
+
+	/** Only the fields which are set to {@link #ZIP64_MAGIC} in the CEN header are present, in this order */
+	private void readZip64Extra(long pos, int extraLen) throws ZipException
+	{
+		for (long end = pos + extraLen; pos + 4 <= end;)
+		{
+			int id = u16(pos), dataSize = u16(pos + 2);
+			pos += 4;
+			if (id == ZIP64_EXTRA_ID)
+			{
+				long fieldPos = pos;
+				if (size == ZIP64_MAGIC)
+				{
+					size = u64(fieldPos);
+					fieldPos += 8;
+				}
+				if (compressedSize == ZIP64_MAGIC)
+				{
+					compressedSize = u64(fieldPos);
+					fieldPos += 8;
+				}
+				if (locOffset == ZIP64_MAGIC)
+					locOffset = u64(fieldPos);
+				return;
+			}
+			pos += dataSize;
+		}
+	}
+
+	/**
+	 * Bytes of this archive read so far (central directory headers and the entry data), not
+	 * including the bytes read by the nested instances
+	 */
+	long bytesRead()
+	{
+		return bytesRead;
+	}
+
+	/** Uncompressed bytes produced by inflating the entry data so far */
+	long bytesInflated()
+	{
+		return bytesInflated;
+	}
+
+	/** CRC-32 of the central directory. A cheap fingerprint of the archive, as no entry is read */
+	int centralDirectoryCrc() throws ZipException
+	{
+		CRC32 crc = new CRC32();
+		byte[] buf = new byte[8192];
+		for (long pos = cenStart; pos < cenEnd;)
+		{
+			int n = (int) Math.min(buf.length, cenEnd - pos);
+			get(pos, buf, 0, n);
+			crc.update(buf, 0, n);
+			pos += n;
+		}
+		return (int) crc.getValue();
+	}
+
+	boolean isDirectory()
+	{
+		return nameLen > 0 && name[nameLen - 1] == '/';
+	}
+
+	/** Compares the raw (undecoded) name of the current entry with the ASCII {@code suffix} */
+	boolean nameEndsWith(String suffix)
+	{
+		int suffixLen = suffix.length();
+		if (nameLen < suffixLen)
+			return false;
+		for (int i = 0, offset = nameLen - suffixLen; i < suffixLen; i++)
+			if (name[offset + i] != suffix.charAt(i))
+				return false;
+		return true;
+	}
+
+	/** Name of the current entry. Creates a new String on every call */
+	String name() throws IOException
+	{
+		// java.util.zip.ZipFile too uses UTF-8 by default
+		return new String(name, 0, nameLen, "UTF-8");
+	}
+
+	int method()
+	{
+		return method;
+	}
+
+	long crc()
+	{
+		return crc;
+	}
+
+	long compressedSize()
+	{
+		return compressedSize;
+	}
+
+	long uncompressedSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Reads the first {@code len} bytes of the (uncompressed) data of the current entry. For a
+	 * DEFLATED entry only as much input as needed to produce {@code len} bytes is inflated
+	 *
+	 * @throws EOFException
+	 *           if the entry has less than {@code len} bytes
+	 */
+	void readEntryData(byte[] dst, int len) throws IOException
+	{
+		if ((flags & 1) != 0)
+			throw new ZipException("encrypted entry");
+
+		long dataPos = dataPos();
+
+		if (method == STORED)
+		{
+			if (compressedSize < len)
+				throw new EOFException();
+			get(dataPos, dst, 0, len);
+			bytesRead += len;
+		}
+		else if (method == DEFLATED)
+		{
+			Inflater inflater = inflater();
+			long remaining = compressedSize;
+			try
+			{
+				for (int written = 0; written < len;)
+				{
+					if (inflater.needsInput())
+					{
+						if (remaining == 0)
+							throw new EOFException();
+						int n = (int) Math.min(remaining, inflaterInput.length);
+						get(dataPos, inflaterInput, 0, n);
+						dataPos += n;
+						remaining -= n;
+						bytesRead += n;
+						inflater.setInput(inflaterInput, 0, n);
+					}
+
+					int n = inflater.inflate(dst, written, len - written);
+					if (n == 0 && (inflater.finished() || inflater.needsDictionary()))
+						throw new EOFException();
+					written += n;
+				}
+				bytesInflated += len;
+			}
+			catch (DataFormatException e)
+			{
+				throw new ZipException(e.getMessage() != null ? e.getMessage() : "invalid deflate data");
+			}
+		}
+		else
+		{
+			throw new ZipException("unsupported compression method: " + method);
+		}
+	}
+
+	/**
+	 * Opens the same archive, sharing the mapped (or inflated) data, but with its own cursor (at the
+	 * first entry), inflater and totals. e.g. to read a range of the entries on another thread.
+	 * The returned instance should be closed independently of this instance, before this instance
+	 */
+	MappedZipFile duplicate() throws IOException
+	{
+		ByteBuffer[] duplicates = new ByteBuffer[segments.length];
+		for (int i = 0; i < segments.length; i++)
+			duplicates[i] = segments[i].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		return new MappedZipFile(path, duplicates, origin, length);
+	}
+
+	/**
+	 * Opens the current entry as a ZIP file. The returned instance should be closed
+	 * independently of this instance
+	 *
+	 * @param nestedPath
+	 *          Path of the entry, used in the error messages
+	 */
+	MappedZipFile openNested(String nestedPath) throws IOException
+	{
+		if ((flags & 1) != 0)
+			throw new ZipException("encrypted entry");
+
+		long dataPos = dataPos();
+
+		if (method == STORED)
+			return new MappedZipFile(nestedPath, segments, origin + dataPos, compressedSize);
+
+		if (method != DEFLATED)
+			throw new ZipException("unsupported compression method: " + method);
+
+		// Closing the stream doesn't end the inflater, as it's not created by the stream
+		InputStream is = new InflaterInputStream(new SegmentInputStream(dataPos, compressedSize), inflater());
+		bytesRead += compressedSize;
+		bytesInflated += size;
+		try
+		{
+			if (size <= MAX_NESTED_BUFFER_SIZE)
+			{
+				ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+				byte[] buf = new byte[8192];
+				for (int n; buffer.hasRemaining() && (n = is.read(buf, 0, Math.min(buf.length, buffer.remaining()))) != -1;)
+					buffer.put(buf, 0, n);
+				buffer.flip();
+				return new MappedZipFile(nestedPath, new ByteBuffer[] { buffer.order(ByteOrder.LITTLE_ENDIAN) }, 0,
+						buffer.limit());
+			}
+
+			File tempFile = File.createTempFile("cvc-nested", ".zip");
+			try
+			{
+				OutputStream os = new FileOutputStream(tempFile);
+				try
+				{
+					byte[] buf = new byte[65536];
+					for (int n; (n = is.read(buf)) != -1;)
+						os.write(buf, 0, n);
+				}
+				finally
+				{
+					os.close();
+				}
+
+				MappedZipFile nested = new MappedZipFile(nestedPath, map(tempFile), 0, tempFile.length());
+				nested.tempFile = tempFile;
+				tempFile = null;
+				return nested;
+			}
+			finally
+			{
+				if (tempFile != null && !tempFile.delete())
+					tempFile.deleteOnExit();
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	/** @return the {@link #inflater}, reset. Created if not yet */
+	private Inflater inflater()
+	{
+		if (inflater == null)
+			inflater = new Inflater(true);
+		else
+			inflater.reset();
+		return inflater;
+	}
+
+	/** Position of the data of the current entry. The extra field length in the LOC header can differ from the CEN header */
+	private long dataPos() throws ZipException
+	{
+		long pos = base + locOffset;
+		if (pos < 0 || pos + LOCHDR > length || i32(pos) != LOCSIG)
+			throw new ZipException("invalid LOC header (bad signature)");
+
+		long dataPos = pos + LOCHDR + u16(pos + 26) + u16(pos + 28);
+		if (dataPos + compressedSize > length)
+			throw new ZipException("invalid LOC header (bad entry size)");
+		return dataPos;
+	}
+
+	private final class SegmentInputStream extends InputStream
+	{
+		private long pos;
+		private final long end;
+		private final byte[] single = new byte[1];
+
+		SegmentInputStream(long pos, long len)
+		{
+			this.pos = pos;
+			this.end = pos + len;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (pos >= end)
+				return -1;
+			get(pos++, single, 0, 1);
+			return single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+			if (pos >= end)
+				return -1;
+			int n = (int) Math.min(Math.min(len, end - pos), SEGMENT_OVERLAP);
+			get(pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n)
+		{
+			long skipped = Math.max(0, Math.min(n, end - pos));
+			pos += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available()
+		{
+			return (int) Math.min(Integer.MAX_VALUE, end - pos);
+		}
+	}
+
+	public void close()
+	{
+		// Mapped buffers can't be released explicitly
+		if (inflater != null)
+			inflater.end();
+		inflater = null;
+
+		// Deleting a mapped file fails on Windows
+		if (tempFile != null && !tempFile.delete())
+			tempFile.deleteOnExit();
+		tempFile = null;
+	}
+
+	/* Little endian accessors. Offsets are positions in this archive, i.e. relative to the origin */
+
+	private ByteBuffer segment(long pos)
+	{
+		return segments[(int) ((origin + pos) / SEGMENT_SIZE)];
+	}
+
+	/** Index of {@code pos} in its {@link #segment(long)} */
+	private int segmentIndex(long pos)
+	{
+		return (int) ((origin + pos) % SEGMENT_SIZE);
+	}
+
+	private int i32(long pos) throws ZipException
+	{
+		checkBounds(pos, 4);
+		return segment(pos).getInt(segmentIndex(pos));
+	}
+
+	private long u32(long pos) throws ZipException
+	{
+		return i32(pos) & 0xFFFFFFFFL;
+	}
+
+	private int u16(long pos) throws ZipException
+	{
+		checkBounds(pos, 2);
+		return segment(pos).getShort(segmentIndex(pos)) & 0xFFFF;
+	}
+
+	private long u64(long pos) throws ZipException
+	{
+		checkBounds(pos, 8);
+		return segment(pos).getLong(segmentIndex(pos));
+	}
+
+	/** Note: {@code len} should not be more than {@link #SEGMENT_OVERLAP} */
+	private void get(long pos, byte[] dst, int off, int len) throws ZipException
+	{
+		checkBounds(pos, len);
+		ByteBuffer segment = segment(pos);
+		segment.position(segmentIndex(pos));
+		segment.get(dst, off, len);
+	}
+
+	private void checkBounds(long pos, int len) throws ZipException
+	{
+		if (pos < 0 || pos + len > length)
+			throw new ZipException("invalid zip file (unexpected end of file)");
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MappedZipFile [path=" + path + "]";
+	}
+}
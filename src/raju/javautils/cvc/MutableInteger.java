@@ -9,6 +9,11 @@ final class MutableInteger
 		value++;
 	}
 
+	void add(int delta)
+	{
+		value += delta;
+	}
+
 	int intValue()
 	{
 		return value;
@@ -0,0 +1,150 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+
+/**
+ * Paths of the classes of the verbosity level 2 listing, as a tree of shared segments. Containers
+ * and the packages (folders) in them are nodes, interned by their parent and name. So a container
+ * path or a package is stored once, irrespective of its no. of classes, and a class is just its
+ * package node and its simple name (see {@link #packageNode(int, String)}). Full paths are built
+ * only when printed.
+ * <p>
+ * Nodes are ids (from 0) into the {@code int[]} of parents and the {@code String[]} of names,
+ * interned through an open addressing hash table. i.e. there are no objects per node, other than
+ * its name.
+ * <p>
+ * Note: Instances of this class are not thread safe
+ */
+final class PathTable
+{
+	/** Parent of the container nodes. Name of a container node is its whole path */
+	private static final int NO_PARENT = -1;
+
+	private int[] parents = new int[1024];
+	private String[] names = new String[1024];
+	private int noOfNodes;
+
+	/** Open addressing hash table of node + 1. 0 is an empty slot */
+	private int[] nodeTable = new int[2048];
+
+	/** Consecutive classes are mostly of the same container and package */
+	private String lastContainerPath;
+	private int lastContainerNode;
+	private String lastClassName;
+	private int lastClassContainerNode, lastPackageNode, lastPackageEnd;
+
+	/** @return node of the {@code containerPath} */
+	int containerNode(String containerPath)
+	{
+		if (containerPath != lastContainerPath && !containerPath.equals(lastContainerPath))
+		{
+			lastContainerNode = node(NO_PARENT, containerPath, 0, containerPath.length());
+			lastContainerPath = containerPath;
+		}
+		return lastContainerNode;
+	}
+
+	/**
+	 * @param className
+	 *          e.g. x/y/z/Xyz.class (with the platform separator)
+	 * @return node of the package of the {@code className} (e.g. x/y/z), the {@code containerNode}
+	 *         for a class without a package
+	 */
+	int packageNode(int containerNode, String className)
+	{
+		int packageEnd = className.lastIndexOf(File.separatorChar);
+		if (packageEnd == -1)
+			return containerNode;
+
+		if (lastClassName != null && containerNode == lastClassContainerNode && packageEnd == lastPackageEnd
+				&& className.regionMatches(0, lastClassName, 0, packageEnd))
+			return lastPackageNode;
+
+		int node = containerNode;
+		for (int start = 0, end; start <= packageEnd; start = end + 1)
+		{
+			end = className.indexOf(File.separatorChar, start);
+			node = node(node, className, start, end);
+		}
+
+		lastClassContainerNode = containerNode;
+		lastClassName = className;
+		lastPackageEnd = packageEnd;
+		lastPackageNode = node;
+		return node;
+	}
+
+	/** Appends the path of the {@code node}, e.g. containerPath/x/y/z */
+	void appendPath(int node, StringBuilder sb)
+	{
+		if (parents[node] != NO_PARENT)
+		{
+			appendPath(parents[node], sb);
+			sb.append(File.separatorChar);
+		}
+		sb.append(names[node]);
+	}
+
+	/** @return the node of {@code name.substring(start, end)} under the {@code parent}, added if not found */
+	private int node(int parent, String name, int start, int end)
+	{
+		int len = end - start;
+		int hash = hash(parent, name, start, end);
+
+		int mask = nodeTable.length - 1;
+		for (int i = hash & mask;; i = (i + 1) & mask)
+		{
+			int node = nodeTable[i] - 1;
+			if (node == -1)
+			{
+				node = noOfNodes++;
+				if (node == parents.length)
+				{
+					parents = grow(parents);
+					String[] newNames = new String[2 * names.length];
+					System.arraycopy(names, 0, newNames, 0, names.length);
+					names = newNames;
+				}
+				parents[node] = parent;
+				names[node] = start == 0 && end == name.length() ? name : name.substring(start, end);
+				nodeTable[i] = node + 1;
+
+				// Load factor 0.5
+				if (2 * noOfNodes > nodeTable.length)
+					rehash();
+				return node;
+			}
+			if (parents[node] == parent && names[node].length() == len && names[node].regionMatches(0, name, start, len))
+				return node;
+		}
+	}
+
+	private void rehash()
+	{
+		int[] table = new int[2 * nodeTable.length];
+		int mask = table.length - 1;
+		for (int node = 0; node < noOfNodes; node++)
+		{
+			int i = hash(parents[node], names[node], 0, names[node].length()) & mask;
+			while (table[i] != 0)
+				i = (i + 1) & mask;
+			table[i] = node + 1;
+		}
+		nodeTable = table;
+	}
+
+	private static int hash(int parent, String name, int start, int end)
+	{
+		int hash = parent;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + name.charAt(i);
+		return hash ^ (hash >>> 16);
+	}
+
+	private static int[] grow(int[] array)
+	{
+		int[] newArray = new int[2 * array.length];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+}
@@ -0,0 +1,85 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * {@link ChangeWatcher} which lists the watched folders on every poll and compares the size and
+ * the last modified time of their files with the previous listing. Used when
+ * {@code java.nio.file.WatchService} is not available (before Java 7).
+ * <p>
+ * Unlike the WatchService, the cost of a poll is proportional to the no. of files watched (but
+ * only the changed files are rescanned)
+ */
+final class PollingChangeWatcher implements ChangeWatcher
+{
+	/** Listing of each watched folder: size and last modified time (-1 for a folder) by name */
+	private final Map<File, Map<String, long[]>> listings = new LinkedHashMap<File, Map<String, long[]>>();
+
+	public void register(File dir)
+	{
+		if (!listings.containsKey(dir))
+			listings.put(dir, list(dir));
+	}
+
+	public Set<File> poll(long timeoutMillis) throws InterruptedException
+	{
+		Thread.sleep(timeoutMillis);
+
+		Set<File> changed = new LinkedHashSet<File>();
+		for (Iterator<Entry<File, Map<String, long[]>>> it = listings.entrySet().iterator(); it.hasNext();)
+		{
+			Entry<File, Map<String, long[]>> entry = it.next();
+			File dir = entry.getKey();
+			Map<String, long[]> previous = entry.getValue();
+
+			Map<String, long[]> current = list(dir);
+			if (current == null)
+			{
+				// Deleted
+				changed.add(dir);
+				it.remove();
+				continue;
+			}
+
+			for (Entry<String, long[]> file : current.entrySet())
+			{
+				long[] attributes = previous == null ? null : previous.get(file.getKey());
+				if (attributes == null || attributes[0] != file.getValue()[0] || attributes[1] != file.getValue()[1])
+					changed.add(new File(dir, file.getKey()));
+			}
+			if (previous != null)
+				for (String name : previous.keySet())
+					if (!current.containsKey(name))
+						changed.add(new File(dir, name));
+
+			entry.setValue(current);
+		}
+		return changed;
+	}
+
+	/** @return null if the {@code dir} can't be read */
+	private static Map<String, long[]> list(File dir)
+	{
+		File[] children = dir.listFiles();
+		if (children == null)
+			return null;
+
+		Map<String, long[]> listing = new HashMap<String, long[]>(2 * children.length);
+		for (File child : children)
+			listing.put(child.getName(),
+					child.isDirectory() ? new long[] { -1, -1 } : new long[] { child.length(), child.lastModified() });
+		return listing;
+	}
+
+	public void close()
+	{
+		listings.clear();
+	}
+}
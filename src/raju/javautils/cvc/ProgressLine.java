@@ -0,0 +1,218 @@
+package raju.javautils.cvc;
+
+import java.io.PrintStream;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress line of the Command line UI, e.g.
+ * {@code 01m:05s, 1,234 files, 56,789 classes, 870 classes/s, 12.3 MB/s, ETA 02m:10s}. The line
+ * is rendered into a reused buffer, without a {@link java.util.Formatter} or a String, so the
+ * periodic updates don't allocate. It's overwritten by the next update (ends with a carriage
+ * return), except the summary line.
+ * <p>
+ * Note: Instances of this class are not thread safe
+ */
+final class ProgressLine
+{
+	private static final boolean COUNTRY_IS_INDIA = Locale.getDefault().getCountry().equals("IN");
+	private static final int SECONDS_PER_MIN = 60, SECONDS_PER_HOUR = 3600;
+	private static final double BYTES_PER_MB = 1 << 20;
+
+	private final PrintStream out;
+	private final char groupingSeparator, decimalSeparator;
+
+	private char[] line = new char[128];
+	private int length;
+
+	/**
+	 * Copies of the {@link #line} by their length, created as needed. So that a line is printed
+	 * using {@link PrintStream#print(char[])} (encoded as the rest of the output), without a String
+	 */
+	private char[][] linesByLength = new char[128][];
+
+	/** Length of the line shown, to be cleared. 0 if none */
+	private int shownLength;
+
+	ProgressLine(PrintStream out)
+	{
+		this.out = out;
+
+		// Same as %,d. India uses the 12,34,567 format, which is not supported by the JDK
+		DecimalFormatSymbols symbols = new DecimalFormatSymbols();
+		groupingSeparator = COUNTRY_IS_INDIA ? ',' : symbols.getGroupingSeparator();
+		decimalSeparator = symbols.getDecimalSeparator();
+	}
+
+	/**
+	 * Shows the progress, overwriting the previous progress line (if not cleared)
+	 *
+	 * @param bytesPerSecond
+	 *          -1 if the bytes are not counted
+	 * @param etaSeconds
+	 *          -1 if not known
+	 */
+	void show(long elapsedNanos, int noOfFiles, int noOfClasses, double classesPerSecond, double bytesPerSecond,
+			long etaSeconds)
+	{
+		length = 0;
+		appendCounts(elapsedNanos, noOfFiles, noOfClasses);
+
+		append(", ");
+		appendCount(Math.round(classesPerSecond));
+		append(" classes/s");
+
+		if (bytesPerSecond >= 0)
+		{
+			long tenthsOfMbPerSecond = Math.round(10 * bytesPerSecond / BYTES_PER_MB);
+			append(", ");
+			appendCount(tenthsOfMbPerSecond / 10);
+			append(decimalSeparator);
+			append((char) ('0' + tenthsOfMbPerSecond % 10));
+			append(" MB/s");
+		}
+
+		if (etaSeconds >= 0)
+		{
+			append(", ETA ");
+			appendTime(etaSeconds);
+		}
+
+		// Remnants of a longer line are overwritten
+		int lineLength = length;
+		while (length < shownLength)
+			append(' ');
+		append('\r');
+		print();
+		shownLength = lineLength;
+	}
+
+	/** Clears the progress line, if shown */
+	void clear()
+	{
+		if (shownLength == 0)
+			return;
+
+		length = 0;
+		while (length < shownLength)
+			append(' ');
+		append('\r');
+		print();
+		shownLength = 0;
+	}
+
+	/**
+	 * Prints the elapsed time and the no. of files and classes, as the last line. Clears the
+	 * progress line first, if shown
+	 */
+	void summary(long elapsedNanos, int noOfFiles, int noOfClasses)
+	{
+		clear();
+		length = 0;
+		appendCounts(elapsedNanos, noOfFiles, noOfClasses);
+		print();
+	}
+
+	private void appendCounts(long elapsedNanos, int noOfFiles, int noOfClasses)
+	{
+		appendTime(TimeUnit.NANOSECONDS.toSeconds(elapsedNanos));
+		append(", ");
+		appendCount(noOfFiles);
+		append(noOfFiles != 1 ? " files" : " file");
+		append(", ");
+		appendCount(noOfClasses);
+		append(noOfClasses != 1 ? " classes" : " classe");
+	}
+
+	/** e.g. 05s, 01m:05s, 1h:01m:05s */
+	private void appendTime(long seconds)
+	{
+		boolean added = seconds >= SECONDS_PER_HOUR;
+		if (added)
+		{
+			appendCount(seconds / SECONDS_PER_HOUR);
+			append("h:");
+			seconds %= SECONDS_PER_HOUR;
+		}
+
+		if (added || seconds >= SECONDS_PER_MIN)
+		{
+			appendTwoDigits(seconds / SECONDS_PER_MIN);
+			append("m:");
+			seconds %= SECONDS_PER_MIN;
+		}
+
+		appendTwoDigits(seconds);
+		append('s');
+	}
+
+	private void appendTwoDigits(long value)
+	{
+		append((char) ('0' + value / 10));
+		append((char) ('0' + value % 10));
+	}
+
+	/** Non-negative {@code count}, with the grouping separators. Digits are written from the last one */
+	private void appendCount(long count)
+	{
+		int noOfDigits = 1;
+		for (long rest = count; rest >= 10; rest /= 10)
+			noOfDigits++;
+		// For India, a separator for every 2 digits, except for the last 3
+		int noOfSeparators = COUNTRY_IS_INDIA ? (noOfDigits - 2) / 2 : (noOfDigits - 1) / 3;
+
+		int end = length + noOfDigits + noOfSeparators;
+		ensureCapacity(end);
+		for (int i = end, digit = 1;; digit++)
+		{
+			line[--i] = (char) ('0' + count % 10);
+			if ((count /= 10) == 0)
+				break;
+			if (COUNTRY_IS_INDIA ? digit >= 3 && digit % 2 == 1 : digit % 3 == 0)
+				line[--i] = groupingSeparator;
+		}
+		length = end;
+	}
+
+	private void append(String s)
+	{
+		ensureCapacity(length + s.length());
+		s.getChars(0, s.length(), line, length);
+		length += s.length();
+	}
+
+	private void append(char c)
+	{
+		ensureCapacity(length + 1);
+		line[length++] = c;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= line.length)
+			return;
+		char[] newLine = new char[Math.max(capacity, 2 * line.length)];
+		System.arraycopy(line, 0, newLine, 0, length);
+		line = newLine;
+	}
+
+	/** Prints the {@link #line} and flushes, as a line ending with a carriage return is not flushed otherwise */
+	private void print()
+	{
+		if (length >= linesByLength.length)
+		{
+			char[][] newLinesByLength = new char[2 * length][];
+			System.arraycopy(linesByLength, 0, newLinesByLength, 0, linesByLength.length);
+			linesByLength = newLinesByLength;
+		}
+
+		char[] chars = linesByLength[length];
+		if (chars == null)
+			chars = linesByLength[length] = new char[length];
+		System.arraycopy(line, 0, chars, 0, length);
+
+		out.print(chars);
+		out.flush();
+	}
+}
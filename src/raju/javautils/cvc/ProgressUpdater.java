@@ -1,32 +1,37 @@
 package raju.javautils.cvc;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Formatter;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import raju.javautils.cvc.Result.ContainerSummary;
 import raju.javautils.cvc.Result.Success;
 
-/** Updates the progress in the Command line UI */
+/**
+ * Consumes the results of the {@link Scanner} as they are queued, and updates the progress (see
+ * {@link ProgressLine}) in the Command line UI every {@link #UPDATE_INTERVAL_NANOS}, unless the
+ * progress is not shown (e.g. when the output is not a terminal). Runs on the thread which started
+ * the scan, until the results are displayed
+ */
 final class ProgressUpdater implements Runnable
 {
-	private static final boolean COUNTRY_IS_INDIA = Locale.getDefault().getCountry().equals("IN");
-	private static final int SECONDS_PER_MIN = 60, SECONDS_PER_HOUR = 3600;
-
-	private static final String PROGRESS_LINE_CLEARN_STRING = "%48s\r";
 	private static final int MAX_SPACE_FOR_JAR_FILE_NAME = 35;
 	private static final int SPACE_FOR_VERSION = 8;
+	private static final String CLASS_FORMAT_STR = "%s %s" + File.separatorChar + "%s%n";
+
+	/** Marks the containers whose counts are estimated from a sample (--sample) */
+	private static final String SAMPLED_MARK = "~";
+
+	private static final long FIRST_UPDATE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long UPDATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(450);
+
+	/** Of the exponential smoothing of the rates. i.e. the rates shown are mostly of the last these many seconds */
+	private static final double RATE_TIME_CONSTANT_SECONDS = 5;
 
 	private final long startTime = System.nanoTime();
 
@@ -35,166 +40,218 @@ final class ProgressUpdater implements Runnable
 
 	private final Scanner scanner;
 	private final Future<Void> scanTask;
+
+	/** Shut down once the results are displayed. Null if there is nothing to stop */
 	private final ExecutorService es;
 
-	private final Map<String, Map<Version, MutableInteger>> noOfClassesByVersionByContainerPath;
-	private final Map<Version, Set<String>> containerPathsByVersion;
+	/** Print the progress every {@link #UPDATE_INTERVAL_NANOS}. Otherwise only once, after the results */
+	private final boolean showProgress;
+
+	private final PrintStream out, err;
+
+	/** Null unless verbosity 1 */
+	private final ContainerVersionCounts containerVersionCounts;
+
+	/** Exports the results (--export). Null if not exporting */
+	private Snapshot.Writer snapshotWriter;
+
+	/** Null unless verbosity 2 without streaming */
+	private final VersionSortedListing versionSortedListing;
 
-	private final Map<Version, List<Result.Success>> successByVersion;
+	/** Verbosity 2: print the classes as they are found, instead of sorting them by version */
+	private final boolean streamClasses;
+	private boolean classesStreamed;
 
-	ProgressUpdater(int verbosity, boolean groupByContainer,
-			Scanner scanner, Future<Void> scanTask, ExecutorService es)
+	private final ProgressLine progressLine;
+
+	/** Null unless the ETA is shown */
+	private final InputSizer inputSizer;
+
+	/** Total size of the files to scan. -1 until known */
+	private volatile long inputSize = -1;
+
+	/** Smoothed rates and the counts of the previous update */
+	private double classesPerSecond, bytesPerSecond;
+	private long lastRateTime = startTime, lastNoOfBytes;
+	private int lastNoOfClassFiles;
+
+	/**
+	 * @param snapshotWriter
+	 *          Verbosity 1 only. Finished after the results are displayed. May be null
+	 * @param es
+	 *          May be null
+	 * @param eta
+	 *          Show the MB/s and the ETA too (with {@code showProgress}). The size of the files to
+	 *          scan is totalled on another thread during the scan, from the folder listings.
+	 *          Should be constructed before the scan starts
+	 */
+	ProgressUpdater(int verbosity, boolean groupByContainer, boolean streamClasses, Snapshot.Writer snapshotWriter,
+			Scanner scanner, Future<Void> scanTask, ExecutorService es, boolean showProgress, boolean eta,
+			PrintStream out, PrintStream err)
 	{
 		this.verbosity = verbosity;
 		this.groupByContainer = groupByContainer;
+		this.streamClasses = streamClasses;
+		this.snapshotWriter = snapshotWriter;
 
 		this.scanner = scanner;
 		this.scanTask = scanTask;
 		this.es = es;
+		this.showProgress = showProgress;
 
-		noOfClassesByVersionByContainerPath = (verbosity == 1 && groupByContainer)
-				? new LinkedHashMap<String, Map<Version, MutableInteger>>() : null;
-		containerPathsByVersion = (verbosity == 1 && groupByContainer)
-				? null : new TreeMap<Version, Set<String>>();
-		successByVersion = verbosity == 2 ? new TreeMap<Version, List<Success>>() : null;
-	}
+		this.out = out;
+		this.err = err;
 
-	/* Called multiple times as a scheduled task */
-	public void run()
-	{
-		boolean done = scanTask.isDone();
-
-		processNewResults();
-
-		if (done)
+		progressLine = new ProgressLine(out);
+		if (showProgress && eta)
 		{
-			es.shutdown();
-			displayResults();
+			scanner.countBytes();
+			(inputSizer = new InputSizer()).start();
 		}
+		else
+			inputSizer = null;
 
-		int elapsedTimeInSeconds = (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime);
-		int noOfClassFilesScanned = scanner.noOfClassFilesScanned(); // This should be read before noOfFilesScanned
-		int noOfFilesScanned = scanner.noOfFilesScanned();
-		System.out.printf("%s, %s file%s, %s classe%s\r", getReadableTime(elapsedTimeInSeconds),
-				format(noOfFilesScanned), noOfFilesScanned != 1 ? "s" : "",
-				format(noOfClassFilesScanned), noOfClassFilesScanned != 1 ? "s" : "");
-
-		if (done)
-			System.out.printf("%nCompleted%n");
+		containerVersionCounts = verbosity == 1 ? new ContainerVersionCounts(!groupByContainer) : null;
+		versionSortedListing = (verbosity == 2 && !streamClasses) ? new VersionSortedListing(err) : null;
 	}
 
-	private static String getReadableTime(int elapsedTimeInSeconds)
+	public void run()
 	{
-		@SuppressWarnings("resource")
-		Formatter f = new Formatter();
-		boolean added = elapsedTimeInSeconds >= SECONDS_PER_HOUR;
+		ResultPipeline results = scanner.results();
+		try
+		{
+			long nextUpdateTime = startTime + FIRST_UPDATE_DELAY_NANOS;
+			for (List<Result> batch; (batch = results.poll(showProgress ? Math.max(0, nextUpdateTime - System.nanoTime())
+					: Long.MAX_VALUE)) != null;)
+			{
+				if (!batch.isEmpty())
+				{
+					progressLine.clear();
+					for (Result result : batch)
+						processResult(result);
+				}
 
-		if (added)
+				if (showProgress && System.nanoTime() - nextUpdateTime >= 0)
+				{
+					printProgress();
+					nextUpdateTime = System.nanoTime() + UPDATE_INTERVAL_NANOS;
+				}
+			}
+
+			shutdown();
+			progressLine.clear();
+			displayResults();
+			printSummary();
+			out.printf("%nCompleted%n");
+		}
+		catch (InterruptedException e)
 		{
-			int hours = (int) (elapsedTimeInSeconds / SECONDS_PER_HOUR);
-			elapsedTimeInSeconds %= SECONDS_PER_HOUR;
-			f.format("%dh:", hours);
+			Thread.currentThread().interrupt();
 		}
-
-		if (added || elapsedTimeInSeconds >= SECONDS_PER_MIN)
+		finally
 		{
-			int mins = (int) (elapsedTimeInSeconds / SECONDS_PER_MIN);
-			elapsedTimeInSeconds %= SECONDS_PER_MIN;
-			f.format("%02dm:", mins);
+			// So that the scan doesn't wait for this, if this is stopped early
+			results.abandon();
+			shutdown();
+			if (snapshotWriter != null)
+				snapshotWriter.abandon();
 		}
-
-		f.format("%02ds", elapsedTimeInSeconds);
-
-		return f.toString();
 	}
 
-	/**
-	 * Locale specific formatting for all the countries other than India.
-	 * <p>
-	 * For India: Formats number in -12,34,567 format (this is what is used in India, but unfortunately not supported)
-	 */
-	private static String format(int num)
+	private void shutdown()
 	{
-		if (!COUNTRY_IS_INDIA)
-			return String.format("%,d", num);
-
-		String numStr = Integer.toString(num);
-		int len = numStr.length();
+		if (es != null)
+			es.shutdown();
+		if (inputSizer != null)
+			inputSizer.interrupt();
+	}
 
-		/* For every 2 digits 1 comma, except for the last 3.
-		 * Using -2 instead of -3 to avoid round of issue */
-		StringBuilder sb = new StringBuilder(len + ((len - 2) / 2));
+	private void printProgress()
+	{
+		long now = System.nanoTime();
+		int noOfClassFilesScanned = scanner.noOfClassFilesScanned(); // This should be read before noOfFilesScanned
+		int noOfFilesScanned = scanner.noOfFilesScanned();
+		long noOfBytesScanned = scanner.noOfBytesScanned();
+
+		// Rates since the previous update, smoothed
+		double seconds = (now - lastRateTime) / 1e9;
+		double weight = lastRateTime == startTime ? 1 : 1 - Math.exp(-seconds / RATE_TIME_CONSTANT_SECONDS);
+		classesPerSecond += weight * ((noOfClassFilesScanned - lastNoOfClassFiles) / seconds - classesPerSecond);
+		bytesPerSecond += weight * ((noOfBytesScanned - lastNoOfBytes) / seconds - bytesPerSecond);
+		lastRateTime = now;
+		lastNoOfClassFiles = noOfClassFilesScanned;
+		lastNoOfBytes = noOfBytesScanned;
+
+		long etaSeconds = -1;
+		if (inputSize >= 0 && bytesPerSecond > 0)
+			etaSeconds = (long) Math.ceil(Math.max(0, inputSize - noOfBytesScanned) / bytesPerSecond);
+
+		progressLine.show(now - startTime, noOfFilesScanned, noOfClassFilesScanned, classesPerSecond,
+				inputSizer != null ? bytesPerSecond : -1, etaSeconds);
+	}
 
-		int startIndex, initAppend;
+	private void printSummary()
+	{
+		int noOfClassFilesScanned = scanner.noOfClassFilesScanned(); // This should be read before noOfFilesScanned
+		progressLine.summary(System.nanoTime() - startTime, scanner.noOfFilesScanned(), noOfClassFilesScanned);
+	}
 
-		if (num < 0)
+	/** Totals the size of the files to scan (for the ETA), in parallel with the scan */
+	private final class InputSizer extends Thread
+	{
+		InputSizer()
 		{
-			sb.append('-');
-			startIndex = 1;
-			initAppend = (len - 4) % 2;
+			super("cvc-input-size");
+			setDaemon(true);
 		}
-		else
+
+		@Override
+		public void run()
 		{
-			startIndex = 0;
-			initAppend = (len - 3) % 2;
+			inputSize = scanner.inputSize();
 		}
-
-		if (initAppend == 1)
-			sb.append(numStr.charAt(startIndex++)).append(',');
-
-		for (int end = len - 3; startIndex < end;)
-			sb.append(numStr, startIndex, startIndex += 2).append(',');
-		sb.append(numStr, startIndex, len);
-
-		return sb.toString();
 	}
 
-	private void processNewResults()
+	/** Prints the failure or adds the result to the report */
+	void processResult(Result result)
 	{
-		// Clean "Elapsed time, noOfFilesScanned and noOfClassesScanned"
-		System.out.printf(PROGRESS_LINE_CLEARN_STRING, "");
-
-		for (Result result : scanner.getNewResults())
+		if (result.isFailure())
 		{
-			if (!result.isSuccess())
-			{
-				System.err.println(result.getFailure().failureMessage);
-				continue;
-			}
-
-			Success success = result.getSuccess();
-
-			if (verbosity == 1)
+			String failureMessage = result.getFailure().failureMessage;
+			err.println(failureMessage);
+			if (snapshotWriter != null)
 			{
-				if (groupByContainer)
+				try
 				{
-					Map<Version, MutableInteger> noOfClassesByVersion = noOfClassesByVersionByContainerPath
-							.get(success.containerPath);
-					if (noOfClassesByVersion == null)
-						noOfClassesByVersionByContainerPath.put(success.containerPath,
-								noOfClassesByVersion = new TreeMap<Version, MutableInteger>());
-
-					MutableInteger noOfClasses = noOfClassesByVersion.get(success.version);
-					if (noOfClasses == null)
-						noOfClassesByVersion.put(success.version, noOfClasses = new MutableInteger());
-					noOfClasses.increment();
+					snapshotWriter.failure(failureMessage);
 				}
-				else
+				catch (IOException e)
 				{
-					Set<String> containerPaths = containerPathsByVersion.get(success.version);
-					if (containerPaths == null)
-						containerPathsByVersion.put(success.version, containerPaths = new LinkedHashSet<String>());
-					containerPaths.add(success.containerPath);
+					snapshotExportFailed(e);
 				}
 			}
-			else
-			{
-				List<Success> successList = successByVersion.get(success.version);
-				if (successList == null)
-					successByVersion.put(success.version, successList = new ArrayList<Result.Success>());
-				successList.add(success);
-			}
+			return;
+		}
+
+		if (result.isContainerSummary())
+		{
+			ContainerSummary summary = result.getContainerSummary();
+			for (Version version : summary.counts.versions())
+				containerVersionCounts.add(summary.containerPath, version, summary.counts.count(version));
+			if (summary.sampled)
+				containerVersionCounts.sampled(summary.containerPath);
+			return;
+		}
+
+		Success success = result.getSuccess();
+
+		if (streamClasses)
+		{
+			out.printf(CLASS_FORMAT_STR, versionStr(success.version), success.containerPath, success.className);
+			classesStreamed = true;
 		}
+		else
+			versionSortedListing.add(success);
 	}
 
 	private void displayResults()
@@ -205,114 +262,152 @@ final class ProgressUpdater implements Runnable
 		}
 		catch (Exception e)
 		{
-			System.err.printf("An error occured: %s%n%n", e.getMessage());
-			e.printStackTrace();
-			System.out.println();
+			err.printf("An error occured: %s%n%n", e.getMessage());
+			e.printStackTrace(err);
+			out.println();
 		}
 	}
 
-	private void displayResults0() throws InterruptedException, ExecutionException
+	private void displayResults0() throws InterruptedException, ExecutionException, IOException
 	{
 		if (verbosity == 1)
 		{
-			if ((groupByContainer && noOfClassesByVersionByContainerPath.isEmpty())
-					|| (!groupByContainer && containerPathsByVersion.isEmpty()))
-			{
-				System.out.println("No files/classes found");
-			}
-			else
-			{
-				int containerNameMaxLen = 0;
+			printContainerVersionCounts(containerVersionCounts, groupByContainer, out);
+			exportSnapshot();
+		}
+		else
+		{// verbocity == 2
+			if (streamClasses ? !classesStreamed : versionSortedListing.isEmpty())
+				out.println("No files/classes found");
+
+			if (!streamClasses)
+				versionSortedListing.print(out);
+		}
+
+		out.println();
+
+		scanTask.get(); // To check for exception (if any)
+	}
+
+	private void exportSnapshot()
+	{
+		if (snapshotWriter == null)
+			return;
+		try
+		{
+			snapshotWriter.finish(containerVersionCounts);
+		}
+		catch (IOException e)
+		{
+			snapshotExportFailed(e);
+		}
+	}
+
+	/** Prints the error and stops exporting */
+	private void snapshotExportFailed(IOException e)
+	{
+		err.printf("Unable to export the snapshot: %s%n", e.getMessage());
+		snapshotWriter.abandon();
+		snapshotWriter = null;
+	}
+
+	/** Verbosity level 1 report, grouped by container or by version */
+	static void printContainerVersionCounts(ContainerVersionCounts containerVersionCounts, boolean groupByContainer,
+			PrintStream out)
+	{
+		if (containerVersionCounts.isEmpty())
+		{
+			out.println("No files/classes found");
+		}
+		else
+		{
+			int containerNameMaxLen = 0;
+			Version[] versions = containerVersionCounts.versions();
 
-				if (groupByContainer)
+			if (groupByContainer)
+			{
+				boolean moreThanOneversionInContainer = false;
+				for (int containerId = 0; containerId < containerVersionCounts.noOfContainers(); containerId++)
 				{
-					boolean moreThanOneversionInContainer = false;
-					for (Entry<String, Map<Version, MutableInteger>> entry : noOfClassesByVersionByContainerPath.entrySet())
+					String containerName = containerName(containerVersionCounts.containerPath(containerId));
+					if (containerName.length() > containerNameMaxLen)
+						containerNameMaxLen = containerName.length();
+
+					if (!moreThanOneversionInContainer)
 					{
-						String containerPath = entry.getKey();
-						String containerName = containerName(containerPath);
-						if (containerName.length() > containerNameMaxLen)
-							containerNameMaxLen = containerName.length();
-
-						if (!moreThanOneversionInContainer)
-						{
-							Map<Version, MutableInteger> map = entry.getValue();
-							moreThanOneversionInContainer = map.size() > 1;
-						}
+						int noOfVersions = 0;
+						for (Version version : versions)
+							if (containerVersionCounts.count(containerId, version) != 0)
+								noOfVersions++;
+						moreThanOneversionInContainer = noOfVersions > 1;
 					}
+				}
 
-					String formatStr = "%-" + Math.min(MAX_SPACE_FOR_JAR_FILE_NAME, containerNameMaxLen) + "s %-"
-							+ (moreThanOneversionInContainer ? 2 * SPACE_FOR_VERSION : SPACE_FOR_VERSION) + "s %s%n";
+				String formatStr = "%-" + Math.min(MAX_SPACE_FOR_JAR_FILE_NAME, containerNameMaxLen) + "s %-"
+						+ (moreThanOneversionInContainer ? 2 * SPACE_FOR_VERSION : SPACE_FOR_VERSION) + "s %s%n";
 
-					StringBuilder versionInfo = new StringBuilder();
+				StringBuilder versionInfo = new StringBuilder();
 
-					for (Entry<String, Map<Version, MutableInteger>> entry : noOfClassesByVersionByContainerPath.entrySet())
-					{
-						String containerPath = entry.getKey();
-						String containerName = containerName(containerPath);
+				for (int containerId = 0; containerId < containerVersionCounts.noOfContainers(); containerId++)
+				{
+					String containerPath = containerVersionCounts.containerPath(containerId);
+					String containerName = containerName(containerPath);
 
-						versionInfo.setLength(0);
-						for (Entry<Version, MutableInteger> entry2 : entry.getValue().entrySet())
-						{
-							Version version = entry2.getKey();
-							versionInfo.append(versionStr(version)).append("(").append(entry2.getValue().intValue()).append("),");
-						}
+					versionInfo.setLength(0);
+					String sampledMark = containerVersionCounts.isSampled(containerId) ? SAMPLED_MARK : "";
+					for (Version version : versions)
+					{
+						int noOfClasses = containerVersionCounts.count(containerId, version);
+						if (noOfClasses != 0)
+							versionInfo.append(versionStr(version)).append("(").append(sampledMark).append(noOfClasses)
+									.append("),");
+					}
 
-						// Removing last comma(,)
-						if (versionInfo.length() > 0)
-							versionInfo.setLength(versionInfo.length() - 1);
+					// Removing last comma(,)
+					if (versionInfo.length() > 0)
+						versionInfo.setLength(versionInfo.length() - 1);
 
-						System.out.printf(formatStr, containerName, versionInfo, containerParent(containerPath));
-					}
+					out.printf(formatStr, containerName, versionInfo, containerParent(containerPath));
 				}
-				else
-				{ // groupByVersion
-					for (Set<String> containerPaths : containerPathsByVersion.values())
+			}
+			else
+			{ // groupByVersion
+				for (Version version : versions)
+				{
+					for (int containerId : containerVersionCounts.containerIds(version))
 					{
-						for (String containerPath : containerPaths)
-						{
-							int containerNameLen = containerPath.length() - (containerPath.lastIndexOf(File.separatorChar) + 1);
-							if (containerNameLen > containerNameMaxLen)
-								containerNameMaxLen = containerNameLen;
-						}
+						String containerPath = containerVersionCounts.containerPath(containerId);
+						int containerNameLen = containerPath.length() - (containerPath.lastIndexOf(File.separatorChar) + 1)
+								+ (containerVersionCounts.isSampled(containerId) ? SAMPLED_MARK.length() : 0);
+						if (containerNameLen > containerNameMaxLen)
+							containerNameMaxLen = containerNameLen;
 					}
+				}
 
-					String formatStr = "%3s %-" + Math.min(MAX_SPACE_FOR_JAR_FILE_NAME, containerNameMaxLen) + "s %s%n";
+				String formatStr = "%3s %-" + Math.min(MAX_SPACE_FOR_JAR_FILE_NAME, containerNameMaxLen) + "s %s%n";
 
-					for (Entry<Version, Set<String>> entry : containerPathsByVersion.entrySet())
+				for (Version version : versions)
+				{
+					String versionStr = versionStr(version);
+					for (int containerId : containerVersionCounts.containerIds(version))
 					{
-						String versionStr = versionStr(entry.getKey());
-						for (String containerPath : entry.getValue())
-							System.out.printf(formatStr, versionStr, containerName(containerPath), containerParent(containerPath));
+						String containerPath = containerVersionCounts.containerPath(containerId);
+						String containerName = containerName(containerPath);
+						if (containerVersionCounts.isSampled(containerId))
+							containerName = SAMPLED_MARK + containerName;
+						out.printf(formatStr, versionStr, containerName, containerParent(containerPath));
 					}
 				}
 			}
-		}
-		else
-		{// verbocity == 2
-			if (successByVersion.isEmpty())
-				System.out.println("No files/classes found");
 
-			String formatStr = "%s %s" + File.separatorChar + "%s%n";
-			for (Entry<Version, List<Success>> entry : successByVersion.entrySet())
-			{
-				Version version = entry.getKey();
-				List<Success> successes = entry.getValue();
-				for (Success success : successes)
-					System.out.printf(formatStr, versionStr(version), success.containerPath, success.className);
-			}
+			if (containerVersionCounts.anySampled())
+				out.printf("%n" + SAMPLED_MARK + " Estimated from a sample of the classes of the archive%n");
 		}
-
-		System.out.println();
-
-		scanTask.get(); // To check for exception (if any)
 	}
 
-	private static String versionStr(Version version)
+	static String versionStr(Version version)
 	{
-		return version.javaMajor == -1
-				? "Unknown. Class version: " + version.classMajor + "." + version.classMinor
-				: version.javaMajor + "." + version.javaMinor;
+		return version.getJavaVersion();
 	}
 
 	private static String containerName(String containerPath)
@@ -1,6 +1,6 @@
 package raju.javautils.cvc;
 
-/** Holds either {@link Success} or {@link Failure} */
+/** Holds either {@link Success}, {@link ContainerSummary} or {@link Failure} */
 final class Result
 {
 	static final class Success
@@ -21,6 +21,30 @@ final class Result
 		}
 	}
 
+	/** No. of classes by version in a container. Used instead of a {@link Success} per class */
+	static final class ContainerSummary
+	{
+		/** Can be archive(e.g. jar) or folder Path */
+		final String containerPath;
+
+		final VersionCounts counts;
+
+		/** true if the {@link #counts} are estimated from a sample of the classes (--sample) */
+		final boolean sampled;
+
+		ContainerSummary(String containerPath, VersionCounts counts)
+		{
+			this(containerPath, counts, false);
+		}
+
+		ContainerSummary(String containerPath, VersionCounts counts, boolean sampled)
+		{
+			this.containerPath = containerPath;
+			this.counts = counts;
+			this.sampled = sampled;
+		}
+	}
+
 	static final class Failure
 	{
 		final String failureMessage;
@@ -44,6 +68,11 @@ final class Result
 		this.o = success;
 	}
 
+	Result(ContainerSummary containerSummary)
+	{
+		this.o = containerSummary;
+	}
+
 	Result(Failure failure)
 	{
 		this.o = failure;
@@ -51,7 +80,19 @@ final class Result
 
 	static Result success(String containerPath, String className, Version version)
 	{
-		return new Result(new Success(className, containerPath, version));
+		return new Result(new Success(containerPath, className, version));
+	}
+
+	/** Note: {@code counts} can be updated until this result is published */
+	static Result containerSummary(String containerPath, VersionCounts counts)
+	{
+		return new Result(new ContainerSummary(containerPath, counts));
+	}
+
+	/** Note: {@code counts} can be updated until this result is published */
+	static Result containerSummary(String containerPath, VersionCounts counts, boolean sampled)
+	{
+		return new Result(new ContainerSummary(containerPath, counts, sampled));
 	}
 
 	static Result failure(String failureMessage)
@@ -71,11 +112,28 @@ final class Result
 		throw new IllegalArgumentException("Result is a Failure");
 	}
 
+	boolean isContainerSummary()
+	{
+		return o instanceof ContainerSummary;
+	}
+
+	boolean isFailure()
+	{
+		return o instanceof Failure;
+	}
+
+	ContainerSummary getContainerSummary()
+	{
+		if (isContainerSummary())
+			return (ContainerSummary) o;
+		throw new IllegalArgumentException("Result is not a ContainerSummary");
+	}
+
 	Failure getFailure()
 	{
-		if (isSuccess())
-			throw new IllegalArgumentException("Result is a Success");
-		return (Failure) o;
+		if (isFailure())
+			return (Failure) o;
+		throw new IllegalArgumentException("Result is not a Failure");
 	}
 
 	@Override
@@ -0,0 +1,249 @@
+package raju.javautils.cvc;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of results between the {@link Scanner} (producer) and its consumer (e.g. the
+ * {@link ProgressUpdater}). Results are queued in batches of up to {@link #BATCH_SIZE}. When
+ * {@code maxQueuedBatches} are queued, the producer waits for the consumer. So the memory used
+ * doesn't grow with the speed gap between them (e.g. a slow terminal).
+ * <p>
+ * A batch is queued when it is full, when the producer adds a result to a batch older than
+ * {@link #MAX_BATCH_DELAY_NANOS} and when the producer is done ({@link #close()}). A batch older
+ * than that is also taken by the consumer, when none is queued (e.g. the producer is busy with a
+ * large file), so that the results are not held back.
+ * <p>
+ * Note: Single producer, single consumer. i.e. {@link #add(Result)} and {@link #close()} should
+ * be called from one thread at a time (the {@link Scanner} hands it over to the scanning thread of
+ * the task being published, while it waits for the task), {@link #poll(long)} from another thread
+ */
+final class ResultPipeline extends AbstractCollection<Result>
+{
+	static final int BATCH_SIZE = 1024;
+
+	/** Max. no. of batches queued by default. i.e. 64K results */
+	static final int DEFAULT_MAX_QUEUED_BATCHES = 64;
+
+	private static final long MAX_BATCH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	/** Queued after the last batch */
+	private static final List<Result> END = Collections.unmodifiableList(new ArrayList<Result>(0));
+
+	private final BlockingQueue<List<Result>> batches;
+
+	private final ScanMetrics metrics;
+
+	/**
+	 * Guards the {@link #batch}, as a stale one is taken by the consumer. Held while queueing too,
+	 * so that the batches are queued in order
+	 */
+	private final Lock batchLock = new ReentrantLock();
+
+	/** Producer's batch, not queued yet */
+	private List<Result> batch = new ArrayList<Result>();
+	private long batchStartTime;
+
+	/** Set by the consumer, once it stops consuming. Results are dropped from then on */
+	private volatile boolean abandoned;
+
+	/** Consumer's */
+	private boolean ended;
+
+	/**
+	 * @param maxQueuedBatches
+	 *          {@link Integer#MAX_VALUE} for an unbounded queue
+	 */
+	ResultPipeline(int maxQueuedBatches, ScanMetrics metrics)
+	{
+		if (maxQueuedBatches < 1)
+			throw new IllegalArgumentException("maxQueuedBatches should be at least 1: " + maxQueuedBatches);
+
+		this.batches = new LinkedBlockingQueue<List<Result>>(maxQueuedBatches);
+		this.metrics = metrics;
+	}
+
+	/** Waits for the consumer, if the queue is full. Returns early if interrupted (interrupt status is set) */
+	@Override
+	public boolean add(Result result)
+	{
+		batchLock.lock();
+		try
+		{
+			if (batch.isEmpty())
+				batchStartTime = System.nanoTime();
+
+			batch.add(result);
+
+			if (batch.size() == BATCH_SIZE || System.nanoTime() - batchStartTime >= MAX_BATCH_DELAY_NANOS)
+				flush();
+		}
+		finally
+		{
+			batchLock.unlock();
+		}
+		return true;
+	}
+
+	/** Queues the results added so far */
+	void flush()
+	{
+		batchLock.lock();
+		try
+		{
+			if (batch.isEmpty())
+				return;
+
+			put(batch);
+			batch = new ArrayList<Result>();
+		}
+		finally
+		{
+			batchLock.unlock();
+		}
+	}
+
+	/** Queues the results added so far and marks the end. Called by the producer once it is done */
+	void close()
+	{
+		batchLock.lock();
+		try
+		{
+			flush();
+			put(END);
+		}
+		finally
+		{
+			batchLock.unlock();
+		}
+	}
+
+	private void put(List<Result> batch)
+	{
+		if (abandoned)
+			return;
+
+		if (!batches.offer(batch))
+		{
+			long startTime = System.nanoTime();
+			try
+			{
+				// Timed, to see if the consumer has abandoned
+				while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS))
+					if (abandoned)
+						break;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt(); // Scan is being cancelled. Results are not needed
+			}
+			metrics.resultQueueStalled(System.nanoTime() - startTime);
+		}
+		metrics.resultQueueDepth(batches.size());
+	}
+
+	/**
+	 * Waits up to {@code timeoutNanos} for the next batch. Takes the producer's batch, if it's older
+	 * than {@link #MAX_BATCH_DELAY_NANOS} while waiting
+	 *
+	 * @return empty list if there is no batch yet, null after the last batch
+	 */
+	List<Result> poll(long timeoutNanos) throws InterruptedException
+	{
+		if (ended)
+			return null;
+
+		// Waits in slices, as the timeout may be long (e.g. Long.MAX_VALUE)
+		long startTime = System.nanoTime();
+		List<Result> batch;
+		while ((batch = batches.poll(Math.min(timeoutNanos, MAX_BATCH_DELAY_NANOS), TimeUnit.NANOSECONDS)) == null)
+		{
+			List<Result> staleBatch = takeStaleBatch();
+			if (staleBatch != null)
+				return staleBatch;
+
+			long elapsedNanos = System.nanoTime() - startTime;
+			if (elapsedNanos >= timeoutNanos)
+				return Collections.emptyList();
+			timeoutNanos -= elapsedNanos;
+			startTime += elapsedNanos;
+		}
+
+		metrics.resultQueueDepth(batches.size());
+		if (batch == END)
+		{
+			ended = true;
+			return null;
+		}
+		return batch;
+	}
+
+	/**
+	 * @return the producer's batch, if it's older than {@link #MAX_BATCH_DELAY_NANOS} and none is
+	 *         queued. null if not, or if the producer is adding to it now
+	 */
+	private List<Result> takeStaleBatch()
+	{
+		if (!batchLock.tryLock())
+			return null;
+
+		try
+		{
+			if (batch.isEmpty() || System.nanoTime() - batchStartTime < MAX_BATCH_DELAY_NANOS || !batches.isEmpty())
+				return null;
+
+			List<Result> staleBatch = batch;
+			batch = new ArrayList<Result>();
+			return staleBatch;
+		}
+		finally
+		{
+			batchLock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the consumption. i.e. the producer drops the results from now on, instead of waiting
+	 * for the consumer. Called by the consumer
+	 */
+	void abandon()
+	{
+		abandoned = true;
+		batches.clear();
+	}
+
+	/** @return results of all the batches queued so far, without waiting. Called by the consumer */
+	List<Result> drain()
+	{
+		List<Result> results = new ArrayList<Result>();
+		for (List<Result> batch; !ended && (batch = batches.poll()) != null;)
+		{
+			if (batch == END)
+				ended = true;
+			else
+				results.addAll(batch);
+		}
+		return results;
+	}
+
+	/** Queued results are not accessible as a collection */
+	@Override
+	public Iterator<Result> iterator()
+	{
+		return Collections.<Result> emptyList().iterator();
+	}
+
+	@Override
+	public int size()
+	{
+		return 0;
+	}
+}
@@ -0,0 +1,53 @@
+package raju.javautils.cvc;
+
+/**
+ * No. of classes read from each archive, when the archives are sampled (--sample). Either a fixed
+ * no. of classes (e.g. 16) or a percentage of the classes of the archive (e.g. 5%)
+ */
+final class SampleSize
+{
+	/** One of these is 0 */
+	private final int noOfClasses, percent;
+
+	private SampleSize(int noOfClasses, int percent)
+	{
+		this.noOfClasses = noOfClasses;
+		this.percent = percent;
+	}
+
+	/**
+	 * @param str
+	 *          No. of classes (at least 1) or a percentage (1% to 100%)
+	 * @return null if the {@code str} is invalid
+	 */
+	static SampleSize parse(String str)
+	{
+		boolean percent = str.endsWith("%");
+		int n;
+		try
+		{
+			n = Integer.parseInt(percent ? str.substring(0, str.length() - 1) : str);
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+		if (n < 1 || (percent && n > 100))
+			return null;
+		return percent ? new SampleSize(0, n) : new SampleSize(n, 0);
+	}
+
+	/** @return sample size for an archive with {@code totalNoOfClasses}. At most {@code totalNoOfClasses} */
+	int of(int totalNoOfClasses)
+	{
+		// Percentage is rounded up, so that there is at least one class in the sample
+		int n = percent == 0 ? noOfClasses : (int) (((long) totalNoOfClasses * percent + 99) / 100);
+		return Math.min(n, totalNoOfClasses);
+	}
+
+	@Override
+	public String toString()
+	{
+		return percent == 0 ? String.valueOf(noOfClasses) : percent + "%";
+	}
+}
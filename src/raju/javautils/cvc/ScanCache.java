@@ -0,0 +1,560 @@
+package raju.javautils.cvc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import raju.javautils.cvc.Result.ContainerSummary;
+
+/**
+ * Container summaries of the files scanned in the previous run, by file path, size and last
+ * modified time. Used to skip the files which are not modified since the previous run. Summaries
+ * depend on the file extensions scanned (e.g. nested archives are opened only for those), so a
+ * cache of other file extensions is not used.
+ * <p>
+ * Cache file is read as is and the entries are looked up through an (open addressing) hash table
+ * stored in the file. i.e. Nothing is parsed while loading, irrespective of the no. of entries. It's
+ * read into the heap rather than memory mapped, as a mapped file can't be replaced (on Windows)
+ * until the mapping is garbage collected. Only the entries of the current run are written by
+ * {@link #save()}.
+ * <p>
+ * Cache file format (big endian):
+ *
+ * <pre>
+ * int   Magic (CVCC)
+ * int   Format version
+ * int   No. of entries
+ * int   Table size (power of 2)
+ * int   Table offset
+ * short File extensions length, byte[] file extensions (UTF-8, lower case, sorted and comma separated)
+ * Entries. For each file:
+ *   short   Path length, byte[] path (UTF-8)
+ *   long    Size
+ *   long    Last modified time
+ *   int     Fingerprint (CRC-32 of the central directory, 0 if not known)
+ *   short   No. of containers. For each container:
+ *     short   Container path suffix length (0xFFFF for the parent folder of a class file),
+ *             byte[] suffix (UTF-8). i.e. container path = path + suffix
+ *     short   No. of versions. For each version:
+ *       short   Class major, short class minor, int no. of classes
+ * Table. (Table size) x {int path hash, int entry offset}. Entry offset 0 means an empty slot
+ * </pre>
+ *
+ * An in memory cache (without a file) keeps the entries of all the scans, up to a max. no. of
+ * entries (least recently used are evicted), e.g. for the {@link Daemon}. Its entries are keyed by
+ * the file extensions and the folder of the relative paths too, see {@link #forScan(Set, File)}. A read only cache is only looked up, e.g.
+ * for a {@link BaselineDiff}.
+ * <p>
+ * Note: Instances of this class are thread safe
+ */
+final class ScanCache
+{
+	private static final int MAGIC = 0x43564343, FORMAT_VERSION = 2;
+
+	/** Fixed part of the header, i.e. up to the file extensions length */
+	private static final int HEADER_SIZE = 22, SLOT_SIZE = 8;
+	private static final int PARENT_FOLDER = 0xFFFF;
+
+	/** Null for an in memory cache */
+	private final File cacheFile;
+
+	/** Nothing is added or saved */
+	private final boolean readOnly;
+
+	/** See {@link #fileExtnsKey(Set)}. Empty for an in memory cache not specific to the file extensions */
+	private final String fileExtns;
+
+	/** Relative paths of an in memory cache are of this folder. Null for the current folder */
+	private final File baseDir;
+
+	/**
+	 * Null unless in memory cache. By the file extensions and the path, see {@link #memoryKey(String)}.
+	 * In the access order, i.e. least recently used first. Synchronized
+	 */
+	private final Map<String, Entry> memoryEntries;
+
+	/** Null if there is no (valid) cache file of the same file extensions */
+	private final ByteBuffer buffer;
+	private final int tableSize, tableOffset, entriesOffset;
+
+	/** File extensions of a valid cache file of other file extensions. Null otherwise */
+	private final String otherFileExtns;
+
+	/** Entries of the current run */
+	private final Queue<Entry> newEntries = new ConcurrentLinkedQueue<Entry>();
+
+	/** A scanned file */
+	static final class Entry
+	{
+		final String path;
+		final long size, lastModified;
+		final int fingerprint;
+		final List<ContainerSummary> summaries;
+
+		Entry(String path, long size, long lastModified, int fingerprint, List<ContainerSummary> summaries)
+		{
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.fingerprint = fingerprint;
+			this.summaries = summaries;
+		}
+	}
+
+	/**
+	 * A missing or invalid (e.g. older format) {@code cacheFile} is treated as an empty cache, as is
+	 * a cache file of other {@code fileExtns}
+	 */
+	ScanCache(File cacheFile, Set<String> fileExtns) throws IOException
+	{
+		this(cacheFile, fileExtns, false);
+	}
+
+	/**
+	 * @param readOnly
+	 *          The entries of the current run are not saved
+	 * @see #isLoaded()
+	 */
+	ScanCache(File cacheFile, Set<String> fileExtns, boolean readOnly) throws IOException
+	{
+		this.cacheFile = cacheFile;
+		this.readOnly = readOnly;
+		this.fileExtns = fileExtnsKey(fileExtns);
+		this.baseDir = null;
+		this.memoryEntries = null;
+
+		ByteBuffer buffer = null;
+		String otherFileExtns = null;
+		if (cacheFile.isFile() && cacheFile.length() >= HEADER_SIZE && cacheFile.length() <= Integer.MAX_VALUE)
+		{
+			RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+			try
+			{
+				byte[] bytes = new byte[(int) raf.length()];
+				raf.readFully(bytes);
+				buffer = ByteBuffer.wrap(bytes);
+			}
+			finally
+			{
+				raf.close();
+			}
+
+			int tableSize = buffer.getInt(12), tableOffset = buffer.getInt(16);
+			int entriesOffset = HEADER_SIZE + (buffer.getShort(20) & 0xFFFF);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || Integer.bitCount(tableSize) != 1
+					|| tableOffset < entriesOffset || (long) tableOffset + (long) tableSize * SLOT_SIZE > buffer.capacity())
+				buffer = null;
+			else if (!fileExtnsEqual(buffer, utf8(this.fileExtns)))
+			{
+				otherFileExtns = new String(buffer.array(), HEADER_SIZE, entriesOffset - HEADER_SIZE, "UTF-8");
+				buffer = null;
+			}
+		}
+
+		this.buffer = buffer;
+		this.otherFileExtns = otherFileExtns;
+		this.tableSize = buffer == null ? 0 : buffer.getInt(12);
+		this.tableOffset = buffer == null ? 0 : buffer.getInt(16);
+		this.entriesOffset = buffer == null ? 0 : HEADER_SIZE + (buffer.getShort(20) & 0xFFFF);
+	}
+
+	/**
+	 * In memory cache
+	 *
+	 * @param maxEntries
+	 *          Least recently used entries are evicted beyond this
+	 */
+	ScanCache(final int maxEntries)
+	{
+		this.cacheFile = null;
+		this.readOnly = false;
+		this.fileExtns = "";
+		this.baseDir = null;
+		this.memoryEntries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ScanCache.Entry> eldest)
+			{
+				return size() > maxEntries;
+			}
+		});
+		this.buffer = null;
+		this.tableSize = 0;
+		this.tableOffset = 0;
+		this.entriesOffset = 0;
+		this.otherFileExtns = null;
+	}
+
+	/** In memory cache of a scan, sharing the entries (and their max. no.) of the {@code cache} */
+	private ScanCache(ScanCache cache, Set<String> fileExtns, File baseDir)
+	{
+		this.cacheFile = null;
+		this.readOnly = false;
+		this.fileExtns = fileExtnsKey(fileExtns);
+		this.baseDir = baseDir;
+		this.memoryEntries = cache.memoryEntries;
+		this.buffer = null;
+		this.tableSize = 0;
+		this.tableOffset = 0;
+		this.entriesOffset = 0;
+		this.otherFileExtns = null;
+	}
+
+	/**
+	 * @param baseDir
+	 *          Folder of the relative paths scanned (e.g. working folder of a {@link DaemonClient}).
+	 *          Null for the current folder
+	 * @return in memory cache of the {@code fileExtns}, sharing the entries of this cache. i.e. Its
+	 *         entries are looked up only by the scans of the same file extensions, and its relative
+	 *         paths only by the scans of the same folder
+	 */
+	ScanCache forScan(Set<String> fileExtns, File baseDir)
+	{
+		if (memoryEntries == null)
+			throw new IllegalStateException("Not an in memory cache");
+		return new ScanCache(this, fileExtns, baseDir);
+	}
+
+	/** e.g. "class,jar,war", for the case insensitive set {WAR, jar, Class} */
+	static String fileExtnsKey(Set<String> fileExtns)
+	{
+		Set<String> sortedExtns = new TreeSet<String>();
+		for (String fileExtn : fileExtns)
+			sortedExtns.add(fileExtn.toLowerCase(Locale.ENGLISH));
+
+		StringBuilder sb = new StringBuilder();
+		for (String fileExtn : sortedExtns)
+			sb.append(sb.length() == 0 ? "" : ",").append(fileExtn);
+		return sb.toString();
+	}
+
+	/** Paths don't have a NUL char */
+	private String memoryKey(String path)
+	{
+		if (baseDir != null && !new File(path).isAbsolute())
+			path = new File(baseDir, path).getPath();
+		return fileExtns.length() == 0 ? path : fileExtns + '\0' + path;
+	}
+
+	/** @return false if the cache file is missing or invalid, or is of other file extensions */
+	boolean isLoaded()
+	{
+		return buffer != null;
+	}
+
+	/**
+	 * @return file extensions of the cache file (as in the {@link #fileExtnsKey(Set)}), if it's of
+	 *         other file extensions. Null otherwise
+	 */
+	String otherFileExtns()
+	{
+		return otherFileExtns;
+	}
+
+	/**
+	 * @return all the entries of the cache file, in no particular order
+	 * @throws IOException
+	 *           if the cache file is corrupt
+	 */
+	List<Entry> entries() throws IOException
+	{
+		List<Entry> entries = new ArrayList<Entry>();
+		for (int i = 0; buffer != null && i < tableSize; i++)
+		{
+			int offset = buffer.getInt(tableOffset + i * SLOT_SIZE + 4);
+			if (offset == 0)
+				continue;
+
+			byte[] pathBytes = new byte[unsignedShort(offset)];
+			for (int j = 0, pos = entryBytes(offset + 2, pathBytes.length); j < pathBytes.length; j++)
+				pathBytes[j] = buffer.get(pos + j);
+			entries.add(read(new String(pathBytes, "UTF-8"), offset + 2 + pathBytes.length));
+		}
+		return entries;
+	}
+
+	/**
+	 * @return null if the {@code path} is not found in the cache file
+	 * @throws IOException
+	 *           if the cache file is corrupt
+	 */
+	Entry lookup(String path) throws IOException
+	{
+		if (memoryEntries != null)
+			return memoryEntries.get(memoryKey(path));
+		if (buffer == null)
+			return null;
+
+		byte[] pathBytes = utf8(path);
+		int hash = path.hashCode();
+
+		// A valid table always has an empty slot, but a corrupt one may not
+		for (int i = hash & (tableSize - 1), probes = 0; probes < tableSize; i = (i + 1) & (tableSize - 1), probes++)
+		{
+			int slot = tableOffset + i * SLOT_SIZE;
+			int offset = buffer.getInt(slot + 4);
+			if (offset == 0)
+				return null;
+			if (buffer.getInt(slot) == hash && pathEquals(offset, pathBytes))
+				return read(path, offset + 2 + pathBytes.length);
+		}
+		return null;
+	}
+
+	private boolean pathEquals(int offset, byte[] pathBytes) throws IOException
+	{
+		if (unsignedShort(offset) != pathBytes.length)
+			return false;
+		return bytesEqual(buffer, entryBytes(offset + 2, pathBytes.length), pathBytes);
+	}
+
+	/** File extensions in the header of the {@code buffer} are the {@code fileExtnsBytes} */
+	private static boolean fileExtnsEqual(ByteBuffer buffer, byte[] fileExtnsBytes)
+	{
+		return (buffer.getShort(20) & 0xFFFF) == fileExtnsBytes.length && bytesEqual(buffer, HEADER_SIZE, fileExtnsBytes);
+	}
+
+	/** The {@code bytes} should be within the {@code buffer} */
+	private static boolean bytesEqual(ByteBuffer buffer, int pos, byte[] bytes)
+	{
+		for (int i = 0; i < bytes.length; i++)
+			if (buffer.get(pos + i) != bytes[i])
+				return false;
+		return true;
+	}
+
+	/** Reads the entry of the {@code path}. {@code pos} is the position after the path */
+	private Entry read(String path, int pos) throws IOException
+	{
+		entryBytes(pos, 22);
+		long size = buffer.getLong(pos), lastModified = buffer.getLong(pos + 8);
+		int fingerprint = buffer.getInt(pos + 16);
+		int noOfContainers = unsignedShort(pos + 20);
+		pos += 22;
+
+		List<ContainerSummary> summaries = new ArrayList<ContainerSummary>(noOfContainers);
+		for (int i = 0; i < noOfContainers; i++)
+		{
+			int suffixLen = unsignedShort(pos);
+			pos += 2;
+
+			String containerPath;
+			if (suffixLen == PARENT_FOLDER)
+				containerPath = new File(path).getParent();
+			else
+			{
+				byte[] suffix = new byte[suffixLen];
+				entryBytes(pos, suffixLen);
+				for (int j = 0; j < suffixLen; j++)
+					suffix[j] = buffer.get(pos + j);
+				pos += suffixLen;
+				containerPath = path + new String(suffix, "UTF-8");
+			}
+
+			VersionCounts counts = new VersionCounts();
+			int noOfVersions = unsignedShort(pos);
+			pos += 2;
+			entryBytes(pos, 8 * noOfVersions);
+			for (int j = 0; j < noOfVersions; j++, pos += 8)
+			{
+				int noOfClasses = buffer.getInt(pos + 4);
+				if (noOfClasses < 0)
+					throw corrupt();
+				counts.add(Version.fromClassVersion(buffer.getShort(pos) & 0xFFFF, buffer.getShort(pos + 2) & 0xFFFF),
+						noOfClasses);
+			}
+
+			summaries.add(new ContainerSummary(containerPath, counts));
+		}
+
+		return new Entry(path, size, lastModified, fingerprint, summaries);
+	}
+
+	private int unsignedShort(int pos) throws IOException
+	{
+		return buffer.getShort(entryBytes(pos, 2)) & 0xFFFF;
+	}
+
+	/**
+	 * Entries are between the header (including the file extensions) and the table
+	 *
+	 * @return {@code pos}
+	 * @throws IOException
+	 *           if the {@code length} bytes at the {@code pos} are not within the entries
+	 */
+	private int entryBytes(int pos, int length) throws IOException
+	{
+		if (pos < entriesOffset || (long) pos + length > tableOffset)
+			throw corrupt();
+		return pos;
+	}
+
+	private IOException corrupt()
+	{
+		return new IOException("Corrupt cache file: " + cacheFile.getPath());
+	}
+
+	/** Adds the entry to be saved. Can be called from multiple threads */
+	void put(Entry entry)
+	{
+		if (readOnly)
+			return;
+		if (memoryEntries != null)
+			memoryEntries.put(memoryKey(entry.path), entry);
+		else
+			newEntries.add(entry);
+	}
+
+	/**
+	 * Writes the entries of the current run to a temporary file, which then replaces the cache
+	 * file. Nothing to do for an in memory or a read only cache
+	 */
+	void save() throws IOException
+	{
+		if (memoryEntries != null || readOnly)
+			return;
+
+		List<Entry> entries = new ArrayList<Entry>(newEntries);
+
+		int tableSize = Integer.highestOneBit(Math.max(2 * entries.size(), 16) - 1) << 1;
+		int[] hashes = new int[tableSize], offsets = new int[tableSize];
+
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+		try
+		{
+			dos.writeInt(MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.writeInt(entries.size());
+			dos.writeInt(tableSize);
+			dos.writeInt(0); // Table offset. Updated after the entries are written
+			byte[] fileExtnsBytes = utf8(fileExtns);
+			if (fileExtnsBytes.length > 0xFFFF)
+				throw new IOException("File extensions are too long to be cached");
+			dos.writeShort(fileExtnsBytes.length);
+			dos.write(fileExtnsBytes);
+
+			for (Entry entry : entries)
+			{
+				int offset = dos.size();
+				if (!write(dos, entry))
+					continue;
+
+				int hash = entry.path.hashCode(), i = hash & (tableSize - 1);
+				while (offsets[i] != 0)
+					i = (i + 1) & (tableSize - 1);
+				hashes[i] = hash;
+				offsets[i] = offset;
+			}
+
+			int tableOffset = dos.size();
+			for (int i = 0; i < tableSize; i++)
+			{
+				dos.writeInt(hashes[i]);
+				dos.writeInt(offsets[i]);
+			}
+
+			// DataOutputStream.size() wraps around after 2GB
+			if (dos.size() < tableOffset)
+				throw new IOException("Cache file is larger than 2GB");
+
+			dos.close();
+			dos = null;
+
+			RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+			try
+			{
+				raf.seek(16);
+				raf.writeInt(tableOffset);
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		finally
+		{
+			if (dos != null)
+				dos.close();
+		}
+
+		TempFiles.replaceFile(tempFile, cacheFile, "cache file");
+	}
+
+	/** @return false if the entry can't be stored (e.g. a path longer than 65534 bytes) */
+	private static boolean write(DataOutputStream dos, Entry entry) throws IOException
+	{
+		byte[] pathBytes = utf8(entry.path);
+		String parentPath = new File(entry.path).getParent();
+
+		List<byte[]> suffixes = new ArrayList<byte[]>(entry.summaries.size());
+		for (ContainerSummary summary : entry.summaries)
+		{
+			String containerPath = summary.containerPath;
+			if (containerPath.equals(parentPath))
+				suffixes.add(null);
+			else if (containerPath.startsWith(entry.path))
+				suffixes.add(utf8(containerPath.substring(entry.path.length())));
+			else
+				return false;
+		}
+
+		if (pathBytes.length >= PARENT_FOLDER || entry.summaries.size() > 0xFFFF)
+			return false;
+		for (byte[] suffix : suffixes)
+			if (suffix != null && suffix.length >= PARENT_FOLDER)
+				return false;
+
+		dos.writeShort(pathBytes.length);
+		dos.write(pathBytes);
+		dos.writeLong(entry.size);
+		dos.writeLong(entry.lastModified);
+		dos.writeInt(entry.fingerprint);
+		dos.writeShort(entry.summaries.size());
+
+		int i = 0;
+		for (ContainerSummary summary : entry.summaries)
+		{
+			byte[] suffix = suffixes.get(i++);
+			if (suffix == null)
+				dos.writeShort(PARENT_FOLDER);
+			else
+			{
+				dos.writeShort(suffix.length);
+				dos.write(suffix);
+			}
+
+			List<Version> versions = summary.counts.versions();
+			dos.writeShort(versions.size());
+			for (Version version : versions)
+			{
+				dos.writeShort(version.classMajor);
+				dos.writeShort(version.classMinor);
+				dos.writeInt(summary.counts.count(version));
+			}
+		}
+		return true;
+	}
+
+	private static byte[] utf8(String s) throws UnsupportedEncodingException
+	{
+		return s.getBytes("UTF-8");
+	}
+}
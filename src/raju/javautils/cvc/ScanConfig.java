@@ -0,0 +1,125 @@
+package raju.javautils.cvc;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Options of a {@link ClassVersionChecker}. Immutable, so an instance can be shared by any no. of
+ * scans and threads. The {@code with..} methods return a copy with the option changed. e.g.
+ *
+ * <pre>
+ * ScanConfig config = new ScanConfig().withFileExtensions("jar", "war").withParallelism(4);
+ * </pre>
+ */
+public final class ScanConfig
+{
+	/** Case insensitive, unmodifiable */
+	private final Set<String> fileExtns;
+	private final int parallelism;
+	private final boolean mappedArchives;
+	private final boolean virtualThreads;
+
+	/** Scans the jar files, with a thread per available processor, using {@link java.util.zip.ZipFile} */
+	public ScanConfig()
+	{
+		this(fileExtns(new String[] { "jar" }), Runtime.getRuntime().availableProcessors(), false, false);
+	}
+
+	private ScanConfig(Set<String> fileExtns, int parallelism, boolean mappedArchives, boolean virtualThreads)
+	{
+		this.fileExtns = fileExtns;
+		this.parallelism = parallelism;
+		this.mappedArchives = mappedArchives;
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * @param fileExtns
+	 *          Without the dot. e.g. class, jar, war. Case insensitive. Except {@code class}, all
+	 *          the files (and the nested archives) with these extensions are read as zip files
+	 * @throws IllegalArgumentException
+	 *           if none or an invalid extension is provided
+	 */
+	public ScanConfig withFileExtensions(String... fileExtns)
+	{
+		return new ScanConfig(fileExtns(fileExtns), parallelism, mappedArchives, virtualThreads);
+	}
+
+	/**
+	 * @param parallelism
+	 *          No. of threads used for scanning. 1 scans on the calling thread. With the virtual
+	 *          threads, no. of files and folders read at a time
+	 * @throws IllegalArgumentException
+	 *           if {@code parallelism} is less than 1
+	 */
+	public ScanConfig withParallelism(int parallelism)
+	{
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism should be at least 1: " + parallelism);
+		return new ScanConfig(fileExtns, parallelism, mappedArchives, virtualThreads);
+	}
+
+	/**
+	 * @param mappedArchives
+	 *          true to read the archives with a memory mapped reader, which reads only the class
+	 *          header from each entry. false to use {@link java.util.zip.ZipFile}
+	 */
+	public ScanConfig withMappedArchives(boolean mappedArchives)
+	{
+		return new ScanConfig(fileExtns, parallelism, mappedArchives, virtualThreads);
+	}
+
+	/**
+	 * @param virtualThreads
+	 *          true to scan each file and folder on its own virtual thread (Java 21+), with up to
+	 *          the parallelism of them reading at a time. For the file systems with a high latency
+	 *          (e.g. NFS). Platform threads are used if virtual threads are not available
+	 */
+	public ScanConfig withVirtualThreads(boolean virtualThreads)
+	{
+		return new ScanConfig(fileExtns, parallelism, mappedArchives, virtualThreads);
+	}
+
+	/** Unmodifiable, case insensitive */
+	public Set<String> getFileExtensions()
+	{
+		return fileExtns;
+	}
+
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	public boolean isMappedArchives()
+	{
+		return mappedArchives;
+	}
+
+	public boolean isVirtualThreads()
+	{
+		return virtualThreads;
+	}
+
+	private static Set<String> fileExtns(String[] fileExtnsArr)
+	{
+		Set<String> fileExtns = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		for (String fileExtn : fileExtnsArr)
+		{
+			if (fileExtn == null || fileExtn.length() == 0 || fileExtn.indexOf('.') != -1)
+				throw new IllegalArgumentException("Invalid file extension: " + fileExtn);
+			fileExtns.add(fileExtn);
+		}
+		if (fileExtns.isEmpty())
+			throw new IllegalArgumentException("No file extensions are provided");
+		return Collections.unmodifiableSet(fileExtns);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ScanConfig [fileExtns=" + fileExtns + ", parallelism=" + parallelism + ", mappedArchives="
+				+ mappedArchives + ", virtualThreads=" + virtualThreads + "]";
+	}
+}
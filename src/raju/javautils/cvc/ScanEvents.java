@@ -0,0 +1,39 @@
+package raju.javautils.cvc;
+
+import java.io.Closeable;
+
+/**
+ * Receiver of the scan activity, for profiling. e.g. {@code JfrScanEvents} (Java 11+, in
+ * src-jfr) records these as Java Flight Recorder events.
+ * <p>
+ * Events are per archive, folder and failure, never per class.
+ * <p>
+ * Note: Implementations should be thread safe
+ */
+interface ScanEvents extends Closeable
+{
+	/**
+	 * Called when the scan of an archive (outer or nested) starts
+	 *
+	 * @return passed to {@link #archiveScanned}. e.g. an event which has begun
+	 */
+	Object archiveStarted();
+
+	/**
+	 * @param entries
+	 *          Entries visited, including the entries of the nested archives
+	 * @param bytes
+	 *          Bytes read, including the bytes of the nested archives
+	 * @param depth
+	 *          0 for an archive being scanned as a file, 1 for an archive nested in it, ..
+	 */
+	void archiveScanned(Object started, String path, long entries, long bytes, int depth);
+
+	/** @return passed to {@link #directoryListed} */
+	Object directoryListingStarted();
+
+	/** @param noOfChildren -1 if the directory can't be read */
+	void directoryListed(Object started, String path, int noOfChildren);
+
+	void failure(String failureMessage);
+}
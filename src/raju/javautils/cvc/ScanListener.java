@@ -0,0 +1,43 @@
+package raju.javautils.cvc;
+
+/**
+ * Receives the results of a {@link ClassVersionChecker#scan} as they are found, on the scanning
+ * threads. There is no queue in between, so a slow listener slows down the scan.
+ * <p>
+ * A container is an archive (outer or nested) or, for {@code .class} files, their folder.
+ * Callbacks of an archive are made on a single thread, nested archives are started and finished
+ * within their outer archive:
+ *
+ * <pre>
+ * containerStarted(app.war)
+ *   classVersion(app.war, ..)
+ *   containerStarted(app.war/WEB-INF/lib/x.jar)
+ *     classVersion(app.war/WEB-INF/lib/x.jar, ..) ..
+ *   containerFinished(app.war/WEB-INF/lib/x.jar)
+ * containerFinished(app.war)
+ * </pre>
+ *
+ * A folder is started and finished once for each of its {@code .class} files, i.e. around each
+ * class, not once for the folder. With a parallelism of more than 1, the {@code .class} files of a
+ * folder are scanned concurrently. So the callbacks of the same folder can overlap on different
+ * threads, e.g. {@code containerStarted(classes)} twice before a {@code containerFinished(classes)}.
+ * <p>
+ * Note: With a parallelism of more than 1, different files are scanned concurrently. So the
+ * implementations should be thread safe, and the order of the files is not defined.
+ * Exceptions thrown by the listener abort the scan
+ */
+public interface ScanListener
+{
+	void containerStarted(String containerPath);
+
+	/**
+	 * @param className
+	 *          Path of the class in the container. e.g. x/y/z/Xyz.class
+	 */
+	void classVersion(String containerPath, String className, Version version);
+
+	void containerFinished(String containerPath);
+
+	/** An input path or an entry which can't be read. The scan continues with the next one */
+	void failure(String failureMessage);
+}
@@ -0,0 +1,224 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where the time of a scan goes. Written as a JSON summary by {@link #write(File, int, int)}.
+ * <p>
+ * Most of the counters are updated once per file scanned (from the totals of the file), not per
+ * entry. Times are summed over all the scanning threads, so can be more than the elapsed time.
+ * <p>
+ * Bytes read are the bytes of the archives consumed by the scanner. With the mmap reader these
+ * are exact (central directory and the entry data read). With the zipfile reader these are
+ * estimates: the whole compressed entry for a DEFLATED class (as {@link java.util.zip.ZipFile}
+ * buffers it for inflating), the class header for a STORED class and the compressed size of a
+ * nested archive. Bytes inflated of the entries of a nested archive read as a stream include only
+ * the entries whose size is known before their data
+ * <p>
+ * Note: Instances of this class are thread safe
+ */
+final class ScanMetrics
+{
+	private volatile long startTime, endTime;
+
+	private final StripedCounter directoryWalkNanos = new StripedCounter();
+	private final StripedCounter archiveOpenNanos = new StripedCounter();
+	private final StripedCounter bytesRead = new StripedCounter();
+	private final StripedCounter bytesInflated = new StripedCounter();
+	private final StripedCounter entriesVisited = new StripedCounter();
+	private final StripedCounter entriesSkipped = new StripedCounter();
+	private final StripedCounter nestedArchives = new StripedCounter();
+	private final StripedCounter nestedArchivesReused = new StripedCounter();
+	private final StripedCounter filesFromCache = new StripedCounter();
+	private final StripedCounter archivesSampled = new StripedCounter();
+	private final StripedCounter samplesRejected = new StripedCounter();
+
+	private final AtomicInteger maxNestingDepth = new AtomicInteger();
+
+	/** Waits of the scanner for the consumer of the results, as the {@link ResultPipeline} was full */
+	private final StripedCounter resultQueueStalls = new StripedCounter();
+	private final StripedCounter resultQueueStallNanos = new StripedCounter();
+
+	/** No. of batches in the {@link ResultPipeline}. Current (i.e. as of the last put or take) and max */
+	private volatile int resultQueueDepth;
+	private final AtomicInteger maxResultQueueDepth = new AtomicInteger();
+
+	/** Time the scanning threads waited for their earlier results to be published (parallel scans) */
+	private final StripedCounter publishWaitNanos = new StripedCounter();
+
+	/** Scan time of each archive (outer or nested), including its nested archives */
+	private final LatencyHistogram archiveScanNanos = new LatencyHistogram();
+
+	/** Totals of a file being scanned, on the current thread. Added to the metrics after the file is scanned */
+	static final class FileTotals
+	{
+		long archiveOpenNanos, bytesRead, bytesInflated;
+		int entriesVisited, entriesSkipped, nestedArchives, nestedArchivesReused, maxNestingDepth;
+
+		/** Archives whose classes are estimated from a sample, archives scanned fully as their sample had more than one version */
+		int archivesSampled, samplesRejected;
+
+		/** Adds the totals of a range of the entries of an archive, scanned separately */
+		void add(FileTotals other)
+		{
+			archiveOpenNanos += other.archiveOpenNanos;
+			bytesRead += other.bytesRead;
+			bytesInflated += other.bytesInflated;
+			entriesVisited += other.entriesVisited;
+			entriesSkipped += other.entriesSkipped;
+			nestedArchives += other.nestedArchives;
+			nestedArchivesReused += other.nestedArchivesReused;
+			maxNestingDepth = Math.max(maxNestingDepth, other.maxNestingDepth);
+			archivesSampled += other.archivesSampled;
+			samplesRejected += other.samplesRejected;
+		}
+	}
+
+	void started()
+	{
+		startTime = System.nanoTime();
+	}
+
+	void finished()
+	{
+		endTime = System.nanoTime();
+	}
+
+	void directoryListed(long nanos)
+	{
+		directoryWalkNanos.add(nanos);
+	}
+
+	void archiveScanned(long nanos)
+	{
+		archiveScanNanos.record(nanos);
+	}
+
+	void fileFromCache()
+	{
+		filesFromCache.increment();
+	}
+
+	/** Files whose results are published from the cache, without scanning */
+	int filesFromCache()
+	{
+		return (int) filesFromCache.get();
+	}
+
+	void resultQueueStalled(long nanos)
+	{
+		resultQueueStalls.increment();
+		resultQueueStallNanos.add(nanos);
+	}
+
+	void resultQueueDepth(int depth)
+	{
+		resultQueueDepth = depth;
+		max(maxResultQueueDepth, depth);
+	}
+
+	void publishWaited(long nanos)
+	{
+		publishWaitNanos.add(nanos);
+	}
+
+	void add(FileTotals totals)
+	{
+		archiveOpenNanos.add(totals.archiveOpenNanos);
+		bytesRead.add(totals.bytesRead);
+		bytesInflated.add(totals.bytesInflated);
+		entriesVisited.add(totals.entriesVisited);
+		entriesSkipped.add(totals.entriesSkipped);
+		nestedArchives.add(totals.nestedArchives);
+		nestedArchivesReused.add(totals.nestedArchivesReused);
+		max(maxNestingDepth, totals.maxNestingDepth);
+		archivesSampled.add(totals.archivesSampled);
+		samplesRejected.add(totals.samplesRejected);
+	}
+
+	private static void max(AtomicInteger max, int value)
+	{
+		for (int current; value > (current = max.get());)
+			if (max.compareAndSet(current, value))
+				break;
+	}
+
+	/**
+	 * Writes the JSON summary to a temporary file, which then replaces the {@code file}. Can be
+	 * called while the scan is in progress ({@code "completed": false})
+	 */
+	synchronized void write(File file, int noOfFilesScanned, int noOfClassFilesScanned) throws IOException
+	{
+		File tempFile = new File(file.getPath() + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+		try
+		{
+			writer.write(toJson(noOfFilesScanned, noOfClassFilesScanned));
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		TempFiles.replaceFile(tempFile, file, "metrics file");
+	}
+
+	String toJson(int noOfFilesScanned, int noOfClassFilesScanned)
+	{
+		long endTime = this.endTime;
+		boolean completed = endTime != 0;
+		long elapsedNanos = (completed ? endTime : System.nanoTime()) - startTime;
+		double elapsedSeconds = elapsedNanos / 1e9;
+
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append("{\n");
+		field(sb, "completed", completed);
+		field(sb, "elapsedMillis", millis(elapsedNanos));
+		field(sb, "files", noOfFilesScanned);
+		field(sb, "filesFromCache", filesFromCache.get());
+		field(sb, "classes", noOfClassFilesScanned);
+		field(sb, "classesPerSecond", elapsedSeconds > 0 ? Math.round(noOfClassFilesScanned / elapsedSeconds) : 0);
+		field(sb, "directoryWalkMillis", millis(directoryWalkNanos.get()));
+		field(sb, "archiveOpenMillis", millis(archiveOpenNanos.get()));
+		field(sb, "bytesRead", bytesRead.get());
+		field(sb, "bytesInflated", bytesInflated.get());
+		field(sb, "entriesVisited", entriesVisited.get());
+		field(sb, "entriesSkipped", entriesSkipped.get());
+		field(sb, "nestedArchives", nestedArchives.get());
+		field(sb, "nestedArchivesReused", nestedArchivesReused.get());
+		field(sb, "maxNestingDepth", maxNestingDepth.get());
+		field(sb, "archivesSampled", archivesSampled.get());
+		field(sb, "samplesRejected", samplesRejected.get());
+		field(sb, "resultQueueDepth", resultQueueDepth);
+		field(sb, "maxResultQueueDepth", maxResultQueueDepth.get());
+		field(sb, "resultQueueStalls", resultQueueStalls.get());
+		field(sb, "resultQueueStallMillis", millis(resultQueueStallNanos.get()));
+		field(sb, "publishWaitMillis", millis(publishWaitNanos.get()));
+		sb.append("  \"archiveScanMillis\": {");
+		sb.append("\"count\": ").append(archiveScanNanos.count());
+		sb.append(", \"p50\": ").append(millis(archiveScanNanos.percentile(50)));
+		sb.append(", \"p90\": ").append(millis(archiveScanNanos.percentile(90)));
+		sb.append(", \"p99\": ").append(millis(archiveScanNanos.percentile(99)));
+		sb.append(", \"max\": ").append(millis(archiveScanNanos.max()));
+		sb.append("}\n}\n");
+		return sb.toString();
+	}
+
+	private static void field(StringBuilder sb, String name, Object value)
+	{
+		sb.append("  \"").append(name).append("\": ").append(value).append(",\n");
+	}
+
+	/** Milliseconds with 3 decimals. Locale independent, as required by JSON */
+	private static String millis(long nanos)
+	{
+		return String.format(Locale.US, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}
@@ -1,51 +1,271 @@
 package raju.javautils.cvc;
 
 import java.io.Closeable;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
+import raju.javautils.cvc.FolderWalker.Folder;
+import raju.javautils.cvc.Result.ContainerSummary;
+
 /**
  * Scans {@code .class} files for their Version in the folders and the archive files
  * <p>
+ * With a parallelism of more than 1, every folder and file is scanned as a separate task
+ * on a fixed thread pool. Results of the tasks are published in the same order as a serial
+ * scan would have produced them. The task whose results are to be published next adds them to
+ * the {@link ResultPipeline} as they are found. The other tasks buffer them (see
+ * {@link OrderedSink}), and wait while more than {@link #MAX_UNPUBLISHED_RESULTS} are buffered,
+ * before scanning and while scanning. So, along with the bounded {@link ResultPipeline}, the
+ * results held in memory don't grow with the speed gap between the scan and the consumer of the
+ * results, nor with the size of an archive.
+ * <p>
+ * With a {@link ScanListener}, results are pushed to the listener on the scanning threads
+ * instead, as they are found.
+ * <p>
+ * With virtual threads (Java 21+), every task runs on its own virtual thread, and the parallelism
+ * is the no. of tasks reading (listing a folder or scanning a file) at a time. Meant for the file
+ * systems with a high latency (e.g. NFS), where the threads mostly wait for the I/O: thousands of
+ * files can be waited for at a time, without as many platform threads.
+ * <p>
+ * A large archive (with mmap) is split into ranges of its entries, which are scanned as separate
+ * tasks, so that a single large archive (e.g. an ear of many wars) is scanned on all the threads.
+ * See {@link #scanMappedZipRanges(MappedZipFile, Container, boolean, long[])}
+ * <p>
  * Note: Instances of this class can't be reused. i.e.
  * {@linkplain Scanner#scan()} method can be called only once.
  */
 final class Scanner
 {
+	/** magic, minor version and major version */
+	private static final int CLASS_HEADER_LENGTH = 8;
+
+	/** Results of the tasks which are scanned but not yet published, before the tasks wait */
+	private static final int MAX_UNPUBLISHED_RESULTS = 1 << 16;
+
+	/** Results buffered by an {@link OrderedSink} between the updates of {@link #noOfUnpublishedResults} */
+	private static final int UNPUBLISHED_RESULTS_UPDATE_INTERVAL = 1024;
+
+	/** Archives whose entries weigh less than twice this are not split into ranges */
+	private static final long MIN_RANGE_WEIGHT = 4 << 20;
+
+	/** Weight of a class entry, in the bytes of a nested archive which take about as long to scan */
+	private static final long CLASS_ENTRY_WEIGHT = 1024;
+
+	/** Drops the results */
+	private static final Collection<Result> DISCARDED_RESULTS = new AbstractCollection<Result>()
+	{
+		@Override
+		public boolean add(Result result)
+		{
+			return true;
+		}
+
+		@Override
+		public Iterator<Result> iterator()
+		{
+			return Collections.<Result> emptyList().iterator();
+		}
+
+		@Override
+		public int size()
+		{
+			return 0;
+		}
+	};
+
+	/** Ranges of an archive per scanning thread, so that the threads finish at about the same time */
+	private static final int RANGES_PER_THREAD = 4;
+
+	/** Class header buffer of each scanning thread */
+	private static final ThreadLocal<byte[]> HEADER_BUFFER = new ThreadLocal<byte[]>()
+	{
+		@Override
+		protected byte[] initialValue()
+		{
+			return new byte[CLASS_HEADER_LENGTH];
+		}
+	};
+
 	private final Collection<File> inputPathsToScan;
 	private final Set<String> fileExtns;
 	private final FileFilter fileFilter;
+	private final FolderWalker walker;
+	private final int parallelism;
+	private final boolean mappedArchives;
+	private final boolean classCountsOnly;
+	private final boolean virtualThreads;
+
+	/** Null if the cache is not used */
+	private final ScanCache cache;
+
+	/** Null if the events are not recorded */
+	private final ScanEvents events;
+
+	/** Null unless the archives are sampled */
+	private final SampleSize sampleSize;
+
+	/** Null if the results are queued in the {@link #results} */
+	private final ScanListener listener;
+
+	/** Forwards the failures to the {@link #listener}. Null if there is no listener */
+	private final Collection<Result> listenerSink;
+
+	private final ResultPipeline results;
+
+	/** Guards {@link #noOfUnpublishedResults} and {@link #taskToPublish} */
+	private final Object publishLock = new Object();
 
-	private final Queue<Result> results = new ConcurrentLinkedQueue<Result>();
+	/** Results of the tasks scanned, but not yet published */
+	private int noOfUnpublishedResults;
+
+	/** Task whose results are to be published next. It never waits */
+	private ScanTask taskToPublish;
 
 	private boolean used;
 
-	private volatile int noOfFilesScanned, noOfClassFilesScanned;
+	/** Set by {@link #cancel()}. Checked before each file, folder and archive entry */
+	private volatile boolean cancelled;
+
+	/** Null when {@link #parallelism} is 1, unless {@link #virtualThreads} */
+	private ExecutorService executor;
+
+	/** Limits the tasks reading at a time to the {@link #parallelism}. Null unless {@link #virtualThreads} */
+	private final Semaphore ioPermits;
+
+	/**
+	 * Summaries of the nested archives scanned so far, to reuse for the identical nested archives
+	 * (e.g. same jar in multiple wars). Container paths are relative to the nested archive
+	 */
+	private final ConcurrentMap<NestedArchiveKey, List<ContainerSummary>> nestedArchiveSummaries =
+			new ConcurrentHashMap<NestedArchiveKey, List<ContainerSummary>>();
+
+	private final AtomicInteger noOfFilesScanned = new AtomicInteger(), noOfClassFilesScanned = new AtomicInteger();
+
+	/** Sizes of the files scanned. Counted only if {@link #countBytes} */
+	private final AtomicLong noOfBytesScanned = new AtomicLong();
+
+	/** Set by {@link #countBytes()}, before the scan */
+	private boolean countBytes;
+
+	/**
+	 * Prefix of the input paths resolved by {@link #resolve(File, String)}, which is removed from
+	 * the paths of the results. Set by {@link #relativeTo(File)}, before the scan. Null if none
+	 */
+	private String baseDirPrefix;
+
+	private final ScanMetrics metrics = new ScanMetrics();
 
 	/**
 	 * Note: {@code fileExtns} should not start with .(dot)
 	 * e.g. for valid extensions: jar, war, ear
+	 * 
+	 * @param parallelism
+	 *          No. of threads used for scanning. 1 scans everything on the calling thread
+	 * @param mappedArchives
+	 *          true to read the archives using {@link MappedZipFile}, false to use {@link ZipFile}
+	 * @param classCountsOnly
+	 *          true to publish only the no. of classes by version for each container (as
+	 *          {@link Result.ContainerSummary}), instead of a {@link Result.Success} for each class
+	 * @param cache
+	 *          May be null. Can be used only with {@code classCountsOnly}
+	 * @param events
+	 *          May be null
+	 */
+	Scanner(Collection<File> inputPathsToScan, Set<String> fileExtns, int parallelism, boolean mappedArchives,
+			boolean classCountsOnly, ScanCache cache, ScanEvents events)
+	{
+		this(inputPathsToScan, fileExtns, parallelism, mappedArchives, classCountsOnly, cache, events, Integer.MAX_VALUE,
+				null, false, FolderWalker.ALL);
+	}
+
+	/**
+	 * @param maxQueuedBatches
+	 *          Capacity of the {@link ResultPipeline}. The scan waits for the consumer of the
+	 *          {@link #results()} when it's full. {@link Integer#MAX_VALUE} for an unbounded queue
+	 * @param sampleSize
+	 *          May be null. If not, the version of the classes of each archive is estimated from a
+	 *          sample of its classes, when all the classes of the sample have the same version.
+	 *          Can be used only with {@code classCountsOnly} and without the {@code cache}
+	 * @param virtualThreads
+	 *          true to scan each folder and file on a virtual thread, with up to {@code parallelism}
+	 *          of them reading at a time. Falls back to {@code parallelism} platform threads if
+	 *          virtual threads are not available (see {@link #virtualThreadsAvailable()})
+	 * @param walker
+	 *          Lists the folders. {@link FolderWalker#ALL} to scan everything
+	 */
+	Scanner(Collection<File> inputPathsToScan, Set<String> fileExtns, int parallelism, boolean mappedArchives,
+			boolean classCountsOnly, ScanCache cache, ScanEvents events, int maxQueuedBatches, SampleSize sampleSize,
+			boolean virtualThreads, FolderWalker walker)
+	{
+		this(inputPathsToScan, fileExtns, parallelism, mappedArchives, classCountsOnly, cache, events, maxQueuedBatches,
+				sampleSize, virtualThreads, walker, null);
+	}
+
+	/**
+	 * Results are pushed to the {@code listener} instead of being queued
 	 */
-	Scanner(Collection<File> inputPathsToScan, final Set<String> fileExtns)
+	Scanner(Collection<File> inputPathsToScan, Set<String> fileExtns, int parallelism, boolean mappedArchives,
+			FolderWalker walker, boolean virtualThreads, ScanListener listener)
 	{
+		this(inputPathsToScan, fileExtns, parallelism, mappedArchives, false, null, null, Integer.MAX_VALUE, null,
+				virtualThreads, walker, listener);
+	}
+
+	private Scanner(Collection<File> inputPathsToScan, final Set<String> fileExtns, int parallelism,
+			boolean mappedArchives, boolean classCountsOnly, ScanCache cache, ScanEvents events, int maxQueuedBatches,
+			SampleSize sampleSize, boolean virtualThreads, FolderWalker walker, ScanListener listener)
+	{
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism should be at least 1: " + parallelism);
+		if (cache != null && !classCountsOnly)
+			throw new IllegalArgumentException("cache can be used only with classCountsOnly");
+		if (listener != null && classCountsOnly)
+			throw new IllegalArgumentException("listener can't be used with classCountsOnly");
+		if (sampleSize != null && (!classCountsOnly || cache != null))
+			throw new IllegalArgumentException("sampleSize can be used only with classCountsOnly and without the cache");
+
 		this.inputPathsToScan = inputPathsToScan;
 		this.fileExtns = fileExtns;
+		this.walker = walker;
+		this.parallelism = parallelism;
+		this.mappedArchives = mappedArchives;
+		this.classCountsOnly = classCountsOnly;
+		this.virtualThreads = virtualThreads;
+		this.ioPermits = virtualThreads ? new Semaphore(parallelism) : null;
+		this.cache = cache;
+		this.events = events;
+		this.sampleSize = sampleSize;
+		this.results = new ResultPipeline(maxQueuedBatches, metrics);
+		this.listener = listener;
+		this.listenerSink = listener == null ? null : new ListenerSink(listener);
 		this.fileFilter = new FileFilter()
 		{
 			public boolean accept(File file)
@@ -69,243 +289,1794 @@ final class Scanner
 			throw new IllegalStateException("Already used");
 		used = true;
 
-		for (File inputPath : inputPathsToScan)
+		metrics.started();
+		try
 		{
-			if (!inputPath.exists())
-				results.add(Result.failure("Unable to find file: " + inputPath.getPath()));
-			else if (fileFilter.accept(inputPath))
-				scanExistingFolderOrFile(inputPath);
-			else
-				results.add(Result.failure("Ignoring invalid input: " + inputPath.getPath()));
+			scan0();
+
+			if (cache != null && !Thread.currentThread().isInterrupted())
+			{
+				try
+				{
+					cache.save();
+				}
+				catch (IOException e)
+				{
+					sink().add(failure("Unable to save the cache: " + e.getMessage()));
+				}
+			}
 		}
+		finally
+		{
+			// Even on failure, so that the consumer doesn't wait forever
+			results.close();
+		}
+
+		metrics.finished();
 	}
 
-	int noOfFilesScanned()
+	/**
+	 * Scans a single file on the calling thread, independently of {@link #scan()}. e.g. to rescan
+	 * a modified file. Can be called from multiple threads and any no. of times
+	 *
+	 * @return results of the file
+	 */
+	List<Result> scanFile(File file)
 	{
-		return noOfFilesScanned;
+		List<Result> fileResults = new ArrayList<Result>();
+		scanExistingFile(file, fileResults);
+		return fileResults;
 	}
 
-	int noOfClassFilesScanned()
+	/** @return true for a folder or a file with one of the extensions to scan */
+	boolean accept(File file)
 	{
-		return noOfClassFilesScanned;
+		return fileFilter.accept(file);
 	}
 
-	private void scanExistingFolderOrFile(File input)
+	/**
+	 * Stops the scan as soon as possible. i.e. the files, folders and archive entries not yet
+	 * scanned are skipped. {@link #scan()} returns once the scanning threads stop. Can be called
+	 * from any thread, e.g. from a {@link ScanListener}
+	 */
+	void cancel()
 	{
-		if (input.isFile())
-			scanExistingFile(input);
-		else
-		{
-			File[] children = input.listFiles(fileFilter);
+		cancelled = true;
+	}
 
-			if (children != null)
-				for (File child : children)
-					scanExistingFolderOrFile(child);
-			else
-				results.add(Result.failure("Unable to read the directory: " + input.getPath()));
-		}
+	boolean isCancelled()
+	{
+		return cancelled;
 	}
 
-	private void scanExistingFile(File file)
+	/** Sink of the results which are not part of a {@link ScanTask} */
+	private Collection<Result> sink()
 	{
-		String filePath = file.getPath();
+		return listenerSink != null ? listenerSink : results;
+	}
 
-		String fileName = file.getName();
-		String fileExtn = fileExtn(fileName);
+	private void scan0()
+	{
+		if (parallelism == 1 && !virtualThreads)
+		{
+			for (File inputPath : inputPathsToScan)
+				if (!cancelled && isValidInput(inputPath, sink()))
+					scanExistingFolderOrFile(inputPath, sink());
+			return;
+		}
 
-		// Note: fileExtn is not null here, as the file is already passed through the filter
-		if (fileExtn.equals("class"))
+		executor = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(parallelism);
+		try
 		{
-			InputStream is = null;
-			try
+			List<ScanTask> tasks = new ArrayList<ScanTask>();
+			for (File inputPath : inputPathsToScan)
+				tasks.add(inputPath.exists() && fileFilter.accept(inputPath)
+						? submit(inputPath, inputPath.isFile() ? null : walker.root(inputPath)) : null);
+
+			int i = 0;
+			for (File inputPath : inputPathsToScan)
 			{
-				is = new FileInputStream(file);
-				findClassVersion(fileName, file.getParentFile().getPath(), is);
+				if (cancelled)
+					break;
+
+				ScanTask task = tasks.get(i++);
+				if (task == null)
+					isValidInput(inputPath, sink());
+				else
+					publish(task);
 			}
-			catch (IOException e)
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		// So that there are no callbacks after the scan
+		if (cancelled)
+		{
+			try
 			{
-				handleZipOrIoException(filePath, e);
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
 			}
-			finally
+			catch (InterruptedException e)
 			{
-				close(is);
+				Thread.currentThread().interrupt();
 			}
 		}
-		else
-		{// jar, war, ear, zip, etc..
-			ZipFile zipFile = null;
+	}
 
-			try
-			{
-				// 1. ZipFile -> Native implementation. ZipInputStream -> Java
-				// 2. ZipFile throws exception with corrupt/invalid Zip files, ZipInputStream won't
+	/** @return true if the running Java (21+) supports the virtual threads */
+	static boolean virtualThreadsAvailable()
+	{
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		if (executor == null)
+			return false;
+		executor.shutdown();
+		return true;
+	}
 
-				zipFile = new ZipFile(file);
+	/**
+	 * {@code Executors.newVirtualThreadPerTaskExecutor()} of Java 21+, called by reflection as the
+	 * sources are compiled for Java 1.5
+	 *
+	 * @return null if not available
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
 
-				Enumeration<? extends ZipEntry> entries = zipFile.entries();
-				while (entries.hasMoreElements())
-				{
-					ZipEntry zipEntry = entries.nextElement();
+	/** Adds a failure to the {@code sink} if the {@code inputPath} can't be scanned */
+	private boolean isValidInput(File inputPath, Collection<Result> sink)
+	{
+		if (!inputPath.exists())
+			sink.add(failure("Unable to find file: " + inputPath.getPath()));
+		else if (fileFilter.accept(inputPath))
+			return true;
+		else
+			sink.add(failure("Ignoring invalid input: " + inputPath.getPath()));
+		return false;
+	}
 
-					// WARN: Below code is somewhat similar to scanZipInputStream() but do not re factor
+	/**
+	 * Adds the results of the task and then the results of its child tasks (depth first) to
+	 * {@link #results}. i.e. in the same order as the serial scan
+	 */
+	private void publish(ScanTask task) throws InterruptedException, ExecutionException
+	{
+		if (cancelled)
+			return; // Tasks in progress are interrupted
 
-					if (zipEntry.isDirectory())
-						continue;
+		synchronized (publishLock)
+		{
+			taskToPublish = task;
+			publishLock.notifyAll();
+		}
+		task.outcome.results.forward(results);
 
-					String entryName = zipEntry.getName();
-					String zipEntryExtn = fileExtn(entryName);
+		// Scans it on this thread, if it's not yet picked up by a scanning thread (which may all be waiting)
+		task.future.run();
 
-					// fileExtns.contains(null) throws NullPointer (As we are using IgnnoreCase String comparator)
-					if (zipEntryExtn == null)
-						continue;
+		ScanOutcome outcome = task.future.get();
+		outcome.results.finish();
+		for (ScanTask child : outcome.children)
+			publish(child);
+	}
 
-					entryName = platformEntryName(entryName);
+	/** Waits while too many results are waiting to be published, unless the {@code task} is the next to publish */
+	private void awaitPublishing(ScanTask task) throws InterruptedException
+	{
+		synchronized (publishLock)
+		{
+			if (noOfUnpublishedResults < MAX_UNPUBLISHED_RESULTS || taskToPublish == task)
+				return;
 
-					InputStream is = null;
-					try
-					{
-						if (zipEntryExtn.equals("class"))
-						{
-							is = zipFile.getInputStream(zipEntry);
-							findClassVersion(entryName, filePath, is);
-						}
-						else if (fileExtns.contains(fileExtn(entryName)))
-						{
-							is = zipFile.getInputStream(zipEntry);
+			long startTime = System.nanoTime();
+			while (noOfUnpublishedResults >= MAX_UNPUBLISHED_RESULTS && taskToPublish != task)
+				publishLock.wait();
+			metrics.publishWaited(System.nanoTime() - startTime);
+		}
+	}
 
-							// ZipInputStream won't throw ZipException with invalid/corrupt Zip files.
-							ZipInputStream zis = new ZipInputStream(is);
+	/**
+	 * @param folder
+	 *          Null if the {@code input} is a file
+	 */
+	private ScanTask submit(File input, Folder folder)
+	{
+		ScanTask task = new ScanTask(input, folder);
+		executor.execute(task.future);
+		return task;
+	}
 
-							scanZipInputStream(filePath + File.separatorChar + entryName, zis);
-						}
-					}
-					finally
-					{
-						// We need to close this InputStream as ZipFile keeps
-						// all open streams as they are until we close the ZipFile
-						close(is);
-					}
-				}
-			}
-			catch (IOException e)
-			{
-				handleZipOrIoException(filePath, e);
-			}
-			finally
-			{
-				try
-				{
-					// Too bad, it doesn't implement Closeable
-					if (zipFile != null)
-						zipFile.close();
-				}
-				catch (IOException e)
-				{
-					results.add(Result.failure("Unable to close ZIP file: " + filePath));
-				}
-			}
-		}
+	/** Consumed by the {@link ProgressUpdater}. Not used with a {@link ScanListener} */
+	ResultPipeline results()
+	{
+		return results;
+	}
 
-		// FindBugs ignore warning note:
-		// Not a bug as only one thread updates this and other thread need
-		// not read the most recent value. i.e. 'current - 1' is okay.
-		noOfFilesScanned++;
+	int noOfFilesScanned()
+	{
+		return noOfFilesScanned.get();
 	}
 
-	private void handleZipOrIoException(String pathOfTheEntryWhichCausedException, IOException e)
+	int noOfClassFilesScanned()
 	{
-		String zipOrIo = (e instanceof ZipException) ? "ZIP" : "IO";
-		results.add(Result.failure(zipOrIo + " error: " + e.getMessage()
-				+ ", while reading: " + pathOfTheEntryWhichCausedException));
+		return noOfClassFilesScanned.get();
 	}
 
-	private void scanZipInputStream(String containerPath, ZipInputStream zipInputStream) throws IOException
+	/** 0 unless {@link #countBytes()}. Sizes of the files (not entries) scanned, as each file is finished */
+	long noOfBytesScanned()
 	{
-		for (ZipEntry zipEntry; (zipEntry = zipInputStream.getNextEntry()) != null;)
-		{
-			// WARN: Below code is somewhat similar to scanExistingFile() but do not re factor
+		return noOfBytesScanned.get();
+	}
 
-			if (zipEntry.isDirectory())
-				continue;
+	/**
+	 * Counts the {@link #noOfBytesScanned()}, i.e. an extra stat per file. Should be called before
+	 * the scan
+	 */
+	void countBytes()
+	{
+		countBytes = true;
+	}
 
-			String entryName = zipEntry.getName();
-			String zipEntryExtn = fileExtn(entryName);
+	/**
+	 * Resolves the {@code path} against the {@code baseDir} (e.g. working folder of a
+	 * {@link DaemonClient}), if it's relative. The resolved path is marked by a . for the
+	 * {@link #relativeTo(File)}, e.g. /home/user/./lib for lib
+	 */
+	static File resolve(File baseDir, String path)
+	{
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(new File(baseDir, "."), path);
+	}
 
-			// fileExtns.contains(null) throws NullPointer (As we are using IgnnoreCase String comparator)
-			if (zipEntryExtn == null)
-				continue;
+	/**
+	 * The paths resolved against the {@code baseDir} by {@link #resolve(File, String)} are shown as
+	 * they are given (i.e. relative) in the results, as if the {@code baseDir} were the current
+	 * folder. Absolute paths are not changed. Should be called before the scan
+	 */
+	void relativeTo(File baseDir)
+	{
+		baseDirPrefix = new File(baseDir, ".").getPath() + File.separator;
+	}
 
-			entryName = platformEntryName(entryName);
+	/** @return {@code path} to show in the results. See {@link #relativeTo(File)} */
+	private String displayPath(File file)
+	{
+		String path = file.getPath();
+		return baseDirPrefix != null && path.startsWith(baseDirPrefix) ? path.substring(baseDirPrefix.length()) : path;
+	}
 
-			if (zipEntryExtn.equals("class"))
-				findClassVersion(entryName, containerPath, zipInputStream);
-			else if (fileExtns.contains(zipEntryExtn))
+	/**
+	 * Total size of the files to scan, from the folder listings only, i.e. the archives are not
+	 * opened. For an ETA, so it's run on another thread, during the scan. Folders which can't be
+	 * read are skipped
+	 *
+	 * @return -1 if the scan is cancelled or the calling thread is interrupted
+	 */
+	long inputSize()
+	{
+		long[] size = new long[1];
+		for (File inputPath : inputPathsToScan)
+		{
+			if (stopInputSize())
+				return -1;
+			if (inputPath.isFile())
 			{
-				ZipInputStream zis = new ZipInputStream(zipInputStream);
-				scanZipInputStream(containerPath + File.separatorChar + entryName, zis);
+				if (fileFilter.accept(inputPath))
+					size[0] += inputPath.length();
 			}
+			else if (inputPath.isDirectory())
+				addInputSize(walker.root(inputPath), size);
 		}
+		return stopInputSize() ? -1 : size[0];
 	}
 
-	/**
-	 * File extension without dot. e.g. {@code class} for a {@code .class} file.
-	 * <p>
-	 * This method expects that there is at least one character before the dot(.)
-	 * and one character after the dot(.). Otherwise returns null
-	 */
-	private static String fileExtn(String fileName)
+	private void addInputSize(Folder folder, final long[] size)
 	{
-		int i = fileName.lastIndexOf('.') + 1;
-		return (i != 0 && i != fileName.length()) ? fileName.substring(i) : null;
+		walker.list(folder, new FolderWalker.Visitor()
+		{
+			public boolean file(File file)
+			{
+				String fileExtn = fileExtn(file.getName());
+				if (fileExtn != null && fileExtns.contains(fileExtn))
+					size[0] += file.length();
+				return !stopInputSize();
+			}
+
+			public boolean folder(Folder subFolder)
+			{
+				addInputSize(subFolder, size);
+				return !stopInputSize();
+			}
+		});
 	}
 
-	/**
-	 * Replaces separators in {@code zipEntryName} with platform specific
-	 * separator
-	 */
-	private static String platformEntryName(String zipEntryName)
+	private boolean stopInputSize()
 	{
-		return zipEntryName.replace('/', File.separatorChar);
+		return cancelled || Thread.currentThread().isInterrupted();
 	}
 
-	private void findClassVersion(String className, String containerPath, InputStream is) throws IOException
+	/** Included in the {@link #noOfFilesScanned()} */
+	int noOfFilesFromCache()
 	{
-		DataInputStream dataIS = new DataInputStream(is);
+		return metrics.filesFromCache();
+	}
 
-		dataIS.readInt();
+	/**
+	 * Writes the {@link ScanMetrics} summary (JSON) to the {@code file}. Can be called while the
+	 * scan is in progress
+	 */
+	void writeMetrics(File file) throws IOException
+	{
+		int noOfClassFilesScanned = noOfClassFilesScanned(); // This should be read before noOfFilesScanned
+		metrics.write(file, noOfFilesScanned(), noOfClassFilesScanned);
+	}
 
-		int classMinorVersion = dataIS.readShort();
-		int classMajorVersion = dataIS.readShort();
+	private void scanExistingFolderOrFile(File input, Collection<Result> sink)
+	{
+		if (input.isFile())
+			scanExistingFile(input, sink);
+		else
+			scanFolder(walker.root(input), sink);
+	}
 
-		Version classJavaVersion = Version.fromClassVersion(classMajorVersion, classMinorVersion);
-		results.add(Result.success(className, containerPath, classJavaVersion));
+	/** Scans the children of the {@code folder} as they are listed. i.e. depth first, in the order of the listing */
+	private void scanFolder(Folder folder, final Collection<Result> sink)
+	{
+		listChildren(folder, sink, new FolderWalker.Visitor()
+		{
+			public boolean file(File file)
+			{
+				if (!cancelled)
+					scanExistingFile(file, sink);
+				return !cancelled;
+			}
 
-		// FindBugs ignore warning note:
-		// Not a bug as only one thread updates this and other thread need
-		// not read the most recent value. i.e. 'current - 1' is okay.
-		noOfClassFilesScanned++;
+			public boolean folder(Folder subFolder)
+			{
+				if (!cancelled)
+					scanFolder(subFolder, sink);
+				return !cancelled;
+			}
+		});
 	}
 
-	List<Result> getNewResults()
+	/**
+	 * Passes the children of the {@code folder} which are folders or files with one of the
+	 * {@link #fileExtns} to the {@code visitor}. A failure is added to the {@code sink} if the
+	 * {@code folder} can't be read
+	 */
+	private void listChildren(Folder folder, Collection<Result> sink, FolderWalker.Visitor visitor)
 	{
-		if (results.isEmpty())
-			return Collections.emptyList();
-		List<Result> resultsList = new ArrayList<Result>();
-		for (Result result; (result = results.poll()) != null;)
-			resultsList.add(result);
-		return resultsList;
+		ListingVisitor listingVisitor = new ListingVisitor(visitor);
+
+		Object event = events == null ? null : events.directoryListingStarted();
+		long startTime = System.nanoTime();
+		boolean listed = walker.list(folder, listingVisitor);
+		metrics.directoryListed(System.nanoTime() - startTime - listingVisitor.visitorNanos);
+		if (events != null)
+			events.directoryListed(event, folder.file.getPath(), listed ? listingVisitor.noOfChildren : -1);
+
+		if (!listed)
+			sink.add(failure("Unable to read the directory: " + folder.file.getPath()));
 	}
 
-	void close(Closeable c)
+	/**
+	 * Filters the files by the extension. Counts the children visited and the time spent in the
+	 * visitor, which is not part of the listing time (e.g. when the children are scanned as they
+	 * are listed)
+	 */
+	private final class ListingVisitor implements FolderWalker.Visitor
 	{
-		try
+		private final FolderWalker.Visitor visitor;
+
+		int noOfChildren;
+		long visitorNanos;
+
+		ListingVisitor(FolderWalker.Visitor visitor)
 		{
-			if (c != null)
-				c.close();
+			this.visitor = visitor;
+		}
+
+		public boolean file(File file)
+		{
+			// fileExtns.contains(null) throws NullPointer (As we are using IgnnoreCase String comparator)
+			String fileExtn = fileExtn(file.getName());
+			if (fileExtn == null || !fileExtns.contains(fileExtn))
+				return true;
+
+			noOfChildren++;
+			long startTime = System.nanoTime();
+			boolean more = visitor.file(file);
+			visitorNanos += System.nanoTime() - startTime;
+			return more;
+		}
+
+		public boolean folder(Folder folder)
+		{
+			noOfChildren++;
+			long startTime = System.nanoTime();
+			boolean more = visitor.folder(folder);
+			visitorNanos += System.nanoTime() - startTime;
+			return more;
+		}
+	}
+
+	/** Failure result. Also recorded as an event */
+	private Result failure(String failureMessage)
+	{
+		// Paths in the messages of the exceptions too
+		if (baseDirPrefix != null)
+			failureMessage = failureMessage.replace(baseDirPrefix, "");
+		if (events != null)
+			events.failure(failureMessage);
+		return Result.failure(failureMessage);
+	}
+
+	/**
+	 * Results of scanning a file or listing a folder, along with the tasks of its children. Results
+	 * are empty when they are pushed to a {@link ScanListener}
+	 */
+	private final class ScanOutcome
+	{
+		final OrderedSink results = new OrderedSink();
+		final List<ScanTask> children = new ArrayList<ScanTask>();
+	}
+
+	private final class ScanTask implements Callable<ScanOutcome>
+	{
+		private final File input;
+
+		/** Null if the {@link #input} is a file */
+		private final Folder folder;
+
+		final FutureTask<ScanOutcome> future = new FutureTask<ScanOutcome>(this);
+
+		/** Its results are forwarded by the publisher, once it's the task to publish */
+		final ScanOutcome outcome = new ScanOutcome();
+
+		ScanTask(File input, Folder folder)
+		{
+			this.input = input;
+			this.folder = folder;
+		}
+
+		public ScanOutcome call() throws InterruptedException
+		{
+			awaitPublishing(this);
+
+			if (cancelled)
+				return outcome;
+
+			// After awaitPublishing, so that the waiting tasks don't hold the permits
+			if (ioPermits != null)
+				ioPermits.acquire();
+			try
+			{
+				Collection<Result> sink = listenerSink != null ? listenerSink : outcome.results;
+				if (folder == null)
+					scanExistingFile(input, sink);
+				else
+				{
+					final List<ScanTask> children = outcome.children;
+					listChildren(folder, sink, new FolderWalker.Visitor()
+					{
+						public boolean file(File file)
+						{
+							if (!cancelled)
+								children.add(submit(file, null));
+							return !cancelled;
+						}
+
+						public boolean folder(Folder subFolder)
+						{
+							if (!cancelled)
+								children.add(submit(subFolder.file, subFolder));
+							return !cancelled;
+						}
+					});
+				}
+			}
+			finally
+			{
+				if (ioPermits != null)
+					ioPermits.release();
+			}
+			return outcome;
+		}
+	}
+
+	private void scanExistingFile(File file, Collection<Result> sink)
+	{
+		if (cache == null)
+			scanExistingFile0(file, sink);
+		else
+			scanExistingFileWithCache(file, sink);
+
+		if (countBytes)
+			noOfBytesScanned.addAndGet(file.length());
+		noOfFilesScanned.incrementAndGet();
+	}
+
+	/**
+	 * Publishes the cached summaries of the file if it is not modified since the previous run.
+	 * i.e. if it has the same size and either the same last modified time or the same central
+	 * directory CRC (for archives). Otherwise the file is scanned and its summaries are cached,
+	 * unless there are any failures
+	 */
+	private void scanExistingFileWithCache(File file, Collection<Result> sink)
+	{
+		String filePath = displayPath(file);
+		long size = file.length(), lastModified = file.lastModified();
+		boolean archive = !fileExtn(file.getName()).equals("class");
+
+		int fingerprint = 0;
+		try
+		{
+			ScanCache.Entry entry = cache.lookup(filePath);
+			if (entry != null && entry.size == size)
+			{
+				boolean modified = entry.lastModified != lastModified;
+				if (modified && entry.fingerprint != 0 && archive)
+					modified = (fingerprint = fingerprint(file)) != entry.fingerprint;
+
+				if (!modified)
+				{
+					for (ContainerSummary summary : entry.summaries)
+					{
+						sink.add(new Result(summary));
+						noOfClassFilesScanned.addAndGet(summary.counts.total());
+					}
+					cache.put(new ScanCache.Entry(filePath, size, lastModified, entry.fingerprint, entry.summaries));
+					metrics.fileFromCache();
+					return;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// Scanning the file reports the error, if any
+		}
+
+		List<Result> fileResults = new ArrayList<Result>();
+		scanExistingFile0(file, fileResults);
+		sink.addAll(fileResults);
+
+		List<ContainerSummary> summaries = new ArrayList<ContainerSummary>(fileResults.size());
+		for (Result result : fileResults)
+		{
+			if (result.isFailure())
+				return;
+			summaries.add(result.getContainerSummary());
+		}
+
+		try
+		{
+			if (archive && fingerprint == 0)
+				fingerprint = fingerprint(file);
+			cache.put(new ScanCache.Entry(filePath, size, lastModified, fingerprint, summaries));
+		}
+		catch (IOException e)
+		{
+			// Not cached
+		}
+	}
+
+	/** @see MappedZipFile#centralDirectoryCrc() */
+	private static int fingerprint(File archive) throws IOException
+	{
+		MappedZipFile zipFile = new MappedZipFile(archive);
+		try
+		{
+			return zipFile.centralDirectoryCrc();
+		}
+		finally
+		{
+			zipFile.close();
+		}
+	}
+
+	private void scanExistingFile0(File file, Collection<Result> sink)
+	{
+		String filePath = displayPath(file);
+
+		String fileName = file.getName();
+		String fileExtn = fileExtn(fileName);
+
+		List<Result> summaries = classCountsOnly ? new ArrayList<Result>(1) : null;
+		FileScan fileScan = new FileScan(HEADER_BUFFER.get(), sink, summaries, listener != null);
+
+		// Note: fileExtn is not null here, as the file is already passed through the filter
+		if (fileExtn.equals("class"))
+		{
+			Container container = new Container(displayPath(file.getParentFile()), fileScan);
+
+			// RandomAccessFile, unlike FileInputStream, is not finalizable (before Java 9). So nothing is
+			// left for the GC to finalize per class
+			RandomAccessFile raf = null;
+			try
+			{
+				raf = new RandomAccessFile(file, "r");
+				raf.readFully(container.header, 0, CLASS_HEADER_LENGTH);
+				container.totals.bytesRead += CLASS_HEADER_LENGTH;
+				container.addClass(fileName);
+			}
+			catch (IOException e)
+			{
+				container.addFailure(filePath, e);
+			}
+			finally
+			{
+				close(raf, sink);
+			}
+			container.finish();
+		}
+		else
+		{// jar, war, ear, zip, etc..
+			Container container = new Container(filePath, fileScan);
+			ArchiveScan archiveScan = new ArchiveScan(container);
+			if (mappedArchives)
+				scanMappedZipFile(file, container);
+			else
+				scanZipFile(file, container);
+			archiveScan.end();
+		}
+
+		if (summaries != null)
+			sink.addAll(summaries);
+		metrics.add(fileScan.totals);
+	}
+
+	/** Scans a jar, war, ear, zip, etc.. using {@link ZipFile} */
+	private void scanZipFile(File file, Container container)
+	{
+		String filePath = displayPath(file);
+		Collection<Result> sink = container.sink;
+
+		ZipFile zipFile = null;
+
+		try
+		{
+			// 1. ZipFile -> Native implementation. ZipInputStream -> Java
+			// 2. ZipFile throws exception with corrupt/invalid Zip files, ZipInputStream won't
+
+			long openStartTime = System.nanoTime();
+			zipFile = new ZipFile(file);
+			container.totals.archiveOpenNanos += System.nanoTime() - openStartTime;
+
+			boolean sampled = sampleSize != null && sampleZipFile(zipFile, container);
+
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (!cancelled && entries.hasMoreElements())
+			{
+				ZipEntry zipEntry = entries.nextElement();
+				container.totals.entriesVisited++;
+
+				// WARN: Below code is somewhat similar to scanZipInputStream() but do not re factor
+
+				if (zipEntry.isDirectory())
+				{
+					container.totals.entriesSkipped++;
+					continue;
+				}
+
+				String entryName = zipEntry.getName();
+				String zipEntryExtn = fileExtn(entryName);
+
+				// fileExtns.contains(null) throws NullPointer (As we are using IgnnoreCase String comparator)
+				if (zipEntryExtn == null)
+				{
+					container.totals.entriesSkipped++;
+					continue;
+				}
+
+				InputStream is = null;
+				try
+				{
+					if (zipEntryExtn.equals("class"))
+					{
+						if (sampled)
+							continue;
+
+						readClassHeader(zipFile, zipEntry, container);
+						container.addClass(container.needsClassNames() ? platformEntryName(entryName) : null);
+					}
+					else if (fileExtns.contains(zipEntryExtn))
+					{
+						Container nestedContainer = container.nested(filePath + File.separatorChar + platformEntryName(entryName));
+						NestedArchiveKey key = nestedArchiveKey(zipEntry.getCrc(), zipEntry.getSize());
+						if (key != null && reuseNestedArchiveSummaries(key, nestedContainer))
+							continue;
+
+						int noOfSummaries = nestedContainer.noOfSummaries(), noOfFailures = nestedContainer.fileScan.noOfFailures;
+						ArchiveScan archiveScan = new ArchiveScan(nestedContainer);
+
+						is = zipFile.getInputStream(zipEntry);
+						container.totals.bytesRead += zipEntry.getCompressedSize();
+						if (zipEntry.getMethod() != ZipEntry.STORED)
+							container.totals.bytesInflated += zipEntry.getSize();
+
+						// ZipInputStream won't throw ZipException with invalid/corrupt Zip files.
+						ZipInputStream zis = new ZipInputStream(is);
+
+						scanZipInputStream(nestedContainer, zis);
+						archiveScan.end();
+
+						if (key != null)
+							recordNestedArchiveSummaries(key, nestedContainer, noOfSummaries, noOfFailures);
+					}
+					else
+						container.totals.entriesSkipped++;
+				}
+				finally
+				{
+					// We need to close this InputStream as ZipFile keeps
+					// all open streams as they are until we close the ZipFile
+					close(is, sink);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			container.addFailure(filePath, e);
+		}
+		finally
+		{
+			try
+			{
+				// Too bad, it doesn't implement Closeable
+				if (zipFile != null)
+					zipFile.close();
+			}
+			catch (IOException e)
+			{
+				sink.add(failure("Unable to close ZIP file: " + filePath));
+			}
+		}
+	}
+
+	/**
+	 * Reads the {@link #CLASS_HEADER_LENGTH} bytes of the class {@code zipEntry} into the header of
+	 * the {@code container}
+	 */
+	private void readClassHeader(ZipFile zipFile, ZipEntry zipEntry, Container container) throws IOException
+	{
+		InputStream is = zipFile.getInputStream(zipEntry);
+		try
+		{
+			readClassHeader(is, container.header);
+		}
+		finally
+		{
+			close(is, container.sink);
+		}
+
+		if (zipEntry.getMethod() == ZipEntry.STORED)
+			container.totals.bytesRead += CLASS_HEADER_LENGTH;
+		else
+		{
+			container.totals.bytesRead += zipEntry.getCompressedSize();
+			container.totals.bytesInflated += CLASS_HEADER_LENGTH;
+		}
+	}
+
+	/**
+	 * Samples the classes of the {@code zipFile}. See {@link #sample(Container, int, SampleReader)}
+	 *
+	 * @return true if the classes are added to the {@code container} from the sample
+	 */
+	private boolean sampleZipFile(final ZipFile zipFile, final Container container) throws IOException
+	{
+		final List<ZipEntry> classEntries = new ArrayList<ZipEntry>();
+		for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); !cancelled && entries.hasMoreElements();)
+		{
+			ZipEntry zipEntry = entries.nextElement();
+			if (!zipEntry.isDirectory() && "class".equals(fileExtn(zipEntry.getName())))
+				classEntries.add(zipEntry);
+		}
+
+		return sample(container, classEntries.size(), new SampleReader()
+		{
+			public void readClassHeader(int classIndex) throws IOException
+			{
+				Scanner.this.readClassHeader(zipFile, classEntries.get(classIndex), container);
+			}
+		});
+	}
+
+	/**
+	 * Scans a jar, war, ear, zip, etc.. using {@link MappedZipFile}. Only the first 8 bytes of
+	 * each {@code .class} entry are read (inflated)
+	 */
+	private void scanMappedZipFile(File file, Container container)
+	{
+		MappedZipFile zipFile = null;
+		try
+		{
+			long openStartTime = System.nanoTime();
+			zipFile = new MappedZipFile(file);
+			container.totals.archiveOpenNanos += System.nanoTime() - openStartTime;
+			scanMappedZipEntries(zipFile, container);
+		}
+		catch (IOException e)
+		{
+			container.addFailure(container.path, e);
+		}
+		finally
+		{
+			close(zipFile, container);
+		}
+	}
+
+	/**
+	 * Nested archives are opened with {@link MappedZipFile#openNested(String)}, i.e. read in place
+	 * (STORED) or inflated once, instead of streaming through all of their entries.
+	 * <p>
+	 * Errors in a nested archive are reported against the nested archive and the scan continues
+	 * with the next entry of the {@code zipFile}
+	 * <p>
+	 * Note: Nothing is allocated per class entry, when the class names are not needed
+	 */
+	private void scanMappedZipEntries(MappedZipFile zipFile, Container container) throws IOException
+	{
+		boolean sampled = sampleSize != null && sampleMappedZipEntries(zipFile, container);
+
+		long[] rangeStarts = rangeStarts(zipFile, sampled);
+		if (rangeStarts != null)
+		{
+			scanMappedZipRanges(zipFile, container, sampled, rangeStarts);
+			return;
+		}
+
+		while (!cancelled && zipFile.next())
+			scanMappedZipEntry(zipFile, container, sampled);
+	}
+
+	/**
+	 * Scans the current entry of the {@code zipFile}
+	 *
+	 * @param sampled
+	 *          true if the classes of the {@code zipFile} are already added from a sample
+	 */
+	private void scanMappedZipEntry(MappedZipFile zipFile, Container container, boolean sampled) throws IOException
+	{
+		container.totals.entriesVisited++;
+
+		if (zipFile.isDirectory())
+		{
+			container.totals.entriesSkipped++;
+			return;
+		}
+
+		if (zipFile.nameEndsWith(".class"))
+		{
+			if (sampled)
+				return;
+
+			zipFile.readEntryData(container.header, CLASS_HEADER_LENGTH);
+			container.addClass(container.needsClassNames() ? platformEntryName(zipFile.name()) : null);
+			return;
+		}
+
+		String entryName = zipFile.name();
+		String zipEntryExtn = fileExtn(entryName);
+
+		// fileExtns.contains(null) throws NullPointer (As we are using IgnnoreCase String comparator)
+		if (zipEntryExtn == null || !fileExtns.contains(zipEntryExtn))
+		{
+			container.totals.entriesSkipped++;
+			return;
+		}
+
+		Container nestedContainer = container.nested(container.path + File.separatorChar + platformEntryName(entryName));
+		NestedArchiveKey key = nestedArchiveKey(zipFile.crc(), zipFile.uncompressedSize());
+		if (key != null && reuseNestedArchiveSummaries(key, nestedContainer))
+			return;
+
+		int noOfSummaries = nestedContainer.noOfSummaries(), noOfFailures = nestedContainer.fileScan.noOfFailures;
+		ArchiveScan archiveScan = new ArchiveScan(nestedContainer);
+
+		MappedZipFile nestedZipFile = null;
+		try
+		{
+			nestedZipFile = zipFile.openNested(nestedContainer.path);
+			container.totals.archiveOpenNanos += System.nanoTime() - archiveScan.startTime;
+			scanMappedZipEntries(nestedZipFile, nestedContainer);
+		}
+		catch (IOException e)
+		{
+			container.addFailure(nestedContainer.path, e);
+		}
+		finally
+		{
+			close(nestedZipFile, container);
+		}
+		archiveScan.end();
+
+		if (key != null)
+			recordNestedArchiveSummaries(key, nestedContainer, noOfSummaries, noOfFailures);
+	}
+
+	/**
+	 * Splits the entries of a large archive into ranges of about equal work, from a first pass over
+	 * its central directory. A class weighs {@link #CLASS_ENTRY_WEIGHT} and a nested archive its
+	 * compressed size. The cursor of the {@code zipFile} is restored
+	 *
+	 * @return positions of the first entries of the ranges. Null if the archive is not split, e.g.
+	 *         when scanning on a single thread
+	 */
+	private long[] rangeStarts(MappedZipFile zipFile, boolean sampled)
+	{
+		// The listener gets the classes of a container in between its start and finish
+		if (executor == null || listener != null)
+			return null;
+
+		// Upper bound of the total weight, as the nested archives are within the length
+		if (zipFile.size() * CLASS_ENTRY_WEIGHT + zipFile.length() < 2 * MIN_RANGE_WEIGHT)
+			return null;
+
+		long start = zipFile.position();
+		try
+		{
+			long totalWeight = 0;
+			while (!cancelled && zipFile.next())
+				totalWeight += entryWeight(zipFile, sampled);
+			if (cancelled || totalWeight < 2 * MIN_RANGE_WEIGHT)
+				return null;
+
+			long rangeWeight = Math.max(totalWeight / (RANGES_PER_THREAD * parallelism), MIN_RANGE_WEIGHT);
+			List<Long> rangeStarts = new ArrayList<Long>();
+			zipFile.seek(start);
+			long weight = rangeWeight;
+			for (long position = start; zipFile.next(); position = zipFile.position())
+			{
+				if (weight >= rangeWeight)
+				{
+					rangeStarts.add(position);
+					weight = 0;
+				}
+				weight += entryWeight(zipFile, sampled);
+			}
+			if (rangeStarts.size() < 2)
+				return null;
+
+			long[] starts = new long[rangeStarts.size()];
+			for (int i = 0; i < starts.length; i++)
+				starts[i] = rangeStarts.get(i);
+			return starts;
+		}
+		catch (IOException e)
+		{
+			// Reported by the scan of the entries
+			return null;
+		}
+		finally
+		{
+			zipFile.seek(start);
+		}
+	}
+
+	private long entryWeight(MappedZipFile zipFile, boolean sampled) throws IOException
+	{
+		if (zipFile.isDirectory())
+			return 0;
+		if (zipFile.nameEndsWith(".class"))
+			return sampled ? 0 : CLASS_ENTRY_WEIGHT;
+
+		String zipEntryExtn = fileExtn(zipFile.name());
+		return zipEntryExtn != null && fileExtns.contains(zipEntryExtn) ? zipFile.compressedSize() : 0;
+	}
+
+	/**
+	 * Scans the ranges of the entries of the {@code zipFile} as separate tasks, each with its own
+	 * {@link MappedZipFile#duplicate()} and its own {@link FileScan}. This thread scans the ranges
+	 * which are not yet picked up by the scanning threads (which may all be busy), and then adds
+	 * their results to the {@code container} in the order of the ranges. So the results are the same
+	 * as a serial scan of the entries. e.g. the classes of the {@code container} found in all the
+	 * ranges are counted in a single summary, at the place of its first class.
+	 * <p>
+	 * An error which stops the scan of a range stops the scan of the archive, as in a serial scan.
+	 * i.e. the results of the later ranges are dropped
+	 */
+	private void scanMappedZipRanges(MappedZipFile zipFile, Container container, boolean sampled, long[] rangeStarts)
+			throws IOException
+	{
+		List<ArchiveRange> ranges = new ArrayList<ArchiveRange>(rangeStarts.length);
+		for (int i = 0; i < rangeStarts.length; i++)
+			ranges.add(new ArchiveRange(zipFile.duplicate(), container, sampled, rangeStarts[i],
+					i + 1 < rangeStarts.length ? rangeStarts[i + 1] : -1));
+
+		for (ArchiveRange range : ranges)
+		{
+			try
+			{
+				executor.execute(range.future);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// Scan is cancelled. Ranges are run below, and stop at the first entry
+			}
+		}
+
+		// In order, so that only the range whose results are added next adds them to the container
+		// directly, and the other ranges wait when they have too many results
+		int i = 0;
+		try
+		{
+			for (; i < ranges.size(); i++)
+			{
+				ArchiveRange range = ranges.get(i);
+				range.sink.forward(container.sink);
+
+				// Scans it on this thread, if it's not yet picked up by a scanning thread
+				range.future.run();
+				try
+				{
+					range.future.get();
+				}
+				catch (InterruptedException e)
+				{
+					// Only when the scan is cancelled
+					Thread.currentThread().interrupt();
+					return;
+				}
+				catch (ExecutionException e)
+				{
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new RuntimeException(cause);
+				}
+
+				range.addResultsTo(container);
+				if (range.exception != null)
+					throw range.exception;
+			}
+		}
+		finally
+		{
+			// So that the rest of the ranges don't wait to be forwarded
+			while (++i < ranges.size())
+				ranges.get(i).sink.forward(DISCARDED_RESULTS);
+		}
+	}
+
+	/** Entries of an archive from a position until the next range, scanned as a task */
+	private final class ArchiveRange implements Callable<Void>
+	{
+		private final MappedZipFile zipFile;
+		private final boolean sampled;
+		private final long start, end;
+
+		/** Container of the archive, for the results of this range */
+		private final Container container;
+
+		/** Of the {@link #container} */
+		final OrderedSink sink = new OrderedSink();
+
+		final FutureTask<Void> future = new FutureTask<Void>(this);
+
+		/** Error which stopped the scan of this range */
+		IOException exception;
+
+		/**
+		 * @param end
+		 *          Position of the first entry of the next range, -1 for the last range
+		 */
+		ArchiveRange(MappedZipFile zipFile, Container archiveContainer, boolean sampled, long start, long end)
+		{
+			this.zipFile = zipFile;
+			this.sampled = sampled;
+			this.start = start;
+			this.end = end;
+
+			List<Result> summaries = archiveContainer.needsClassNames() ? null : new ArrayList<Result>();
+			FileScan fileScan = new FileScan(new byte[CLASS_HEADER_LENGTH], sink, summaries, false);
+			this.container = new Container(archiveContainer.path, fileScan, archiveContainer.depth);
+		}
+
+		public Void call()
+		{
+			try
+			{
+				zipFile.seek(start);
+				while (!cancelled && (end == -1 || zipFile.position() < end) && zipFile.next())
+					scanMappedZipEntry(zipFile, container, sampled);
+			}
+			catch (IOException e)
+			{
+				exception = e;
+			}
+			finally
+			{
+				close(zipFile, container);
+			}
+			return null;
+		}
+
+		/**
+		 * Adds the rest of the results of this range to the {@code archiveContainer} (forwarded to its
+		 * sink), as if they were scanned in it
+		 */
+		void addResultsTo(Container archiveContainer)
+		{
+			FileScan rangeScan = container.fileScan;
+			sink.finish();
+			if (rangeScan.summaries != null)
+			{
+				for (Result result : rangeScan.summaries)
+				{
+					VersionCounts counts = container.counts;
+					if (counts == null || result.getContainerSummary().counts != counts)
+						archiveContainer.fileScan.summaries.add(result);
+					else if (archiveContainer.counts == null)
+					{
+						archiveContainer.fileScan.summaries.add(result);
+						archiveContainer.counts = counts;
+					}
+					else
+					{
+						for (Version version : counts.versions())
+							archiveContainer.counts.add(version, counts.count(version));
+					}
+				}
+			}
+			archiveContainer.fileScan.noOfFailures += rangeScan.noOfFailures;
+			archiveContainer.totals.add(rangeScan.totals);
+		}
+	}
+
+	/**
+	 * Samples the classes of the {@code zipFile}, from a first pass over its central directory
+	 * (nothing is read other than the central directory headers). See
+	 * {@link #sample(Container, int, SampleReader)}. The cursor of the {@code zipFile} is restored
+	 *
+	 * @return true if the classes are added to the {@code container} from the sample
+	 */
+	private boolean sampleMappedZipEntries(final MappedZipFile zipFile, final Container container) throws IOException
+	{
+		long start = zipFile.position();
+
+		long[] classPositions = new long[64];
+		int noOfClasses = 0;
+		for (long position = start; !cancelled && zipFile.next(); position = zipFile.position())
+		{
+			if (zipFile.isDirectory() || !zipFile.nameEndsWith(".class"))
+				continue;
+			if (noOfClasses == classPositions.length)
+			{
+				long[] newClassPositions = new long[2 * noOfClasses];
+				System.arraycopy(classPositions, 0, newClassPositions, 0, noOfClasses);
+				classPositions = newClassPositions;
+			}
+			classPositions[noOfClasses++] = position;
+		}
+
+		final long[] positions = classPositions;
+		try
+		{
+			return sample(container, noOfClasses, new SampleReader()
+			{
+				public void readClassHeader(int classIndex) throws IOException
+				{
+					zipFile.seek(positions[classIndex]);
+					zipFile.next();
+					zipFile.readEntryData(container.header, CLASS_HEADER_LENGTH);
+				}
+			});
+		}
+		finally
+		{
+			zipFile.seek(start);
+		}
+	}
+
+	/** Reads a class of the archive being sampled, by its index among the classes of the archive */
+	private interface SampleReader
+	{
+		/** Reads the class header into the header of the container */
+		void readClassHeader(int classIndex) throws IOException;
+	}
+
+	/**
+	 * Reads a sample of the {@code noOfClasses} classes of an archive. The classes of the sample are
+	 * evenly spaced (in the central directory order), so the same classes are sampled on every run.
+	 * If all of them have the same version, all the {@code noOfClasses} are added to the
+	 * {@code container} with that version, as a sampled summary.
+	 * <p>
+	 * Otherwise (or if the sample would be all the classes), nothing is added, and the archive should
+	 * be scanned fully
+	 *
+	 * @return true if the classes are added to the {@code container}
+	 */
+	private boolean sample(Container container, int noOfClasses, SampleReader reader) throws IOException
+	{
+		int noOfSamples = sampleSize.of(noOfClasses);
+		if (cancelled || noOfSamples == noOfClasses)
+			return false;
+
+		Version version = null;
+		for (int i = 0; i < noOfSamples; i++)
+		{
+			// Middle of the i-th of the noOfSamples equal parts
+			reader.readClassHeader((int) ((2L * i + 1) * noOfClasses / (2L * noOfSamples)));
+			Version sampleVersion = container.headerVersion();
+			if (version == null)
+				version = sampleVersion;
+			else if (!version.equals(sampleVersion))
+			{
+				container.totals.samplesRejected++;
+				return false;
+			}
+		}
+
+		container.totals.archivesSampled++;
+		container.addSampledClasses(version, noOfClasses);
+		return true;
+	}
+
+	private void handleZipOrIoException(String pathOfTheEntryWhichCausedException, IOException e,
+			Collection<Result> sink)
+	{
+		String zipOrIo = (e instanceof ZipException) ? "ZIP" : "IO";
+		sink.add(failure(zipOrIo + " error: " + e.getMessage()
+				+ ", while reading: " + pathOfTheEntryWhichCausedException));
+	}
+
+	private void scanZipInputStream(Container container, ZipInputStream zipInputStream) throws IOException
+	{
+		for (ZipEntry zipEntry; !cancelled && (zipEntry = zipInputStream.getNextEntry()) != null;)
+		{
+			// WARN: Below code is somewhat similar to scanExistingFile() but do not re factor
+
+			container.totals.entriesVisited++;
+
+			// All the data of an entry is inflated, as the stream reads past the entry (unread data is skipped by reading)
+			if (zipEntry.getMethod() == ZipEntry.DEFLATED && zipEntry.getSize() != -1)
+				container.totals.bytesInflated += zipEntry.getSize();
+
+			if (zipEntry.isDirectory())
+			{
+				container.totals.entriesSkipped++;
+				continue;
+			}
+
+			String entryName = zipEntry.getName();
+			String zipEntryExtn = fileExtn(entryName);
+
+			// fileExtns.contains(null) throws NullPointer (As we are using IgnnoreCase String comparator)
+			if (zipEntryExtn == null)
+			{
+				container.totals.entriesSkipped++;
+				continue;
+			}
+
+			if (zipEntryExtn.equals("class"))
+			{
+				readClassHeader(zipInputStream, container.header);
+				container.addClass(container.needsClassNames() ? platformEntryName(entryName) : null);
+			}
+			else if (fileExtns.contains(zipEntryExtn))
+			{
+				Container nestedContainer = container.nested(container.path + File.separatorChar + platformEntryName(entryName));
+
+				// CRC and size are not known here, if they are stored after the data (in a data descriptor)
+				NestedArchiveKey key = nestedArchiveKey(zipEntry.getCrc(), zipEntry.getSize());
+				if (key != null && reuseNestedArchiveSummaries(key, nestedContainer))
+					continue;
+
+				int noOfSummaries = nestedContainer.noOfSummaries(), noOfFailures = nestedContainer.fileScan.noOfFailures;
+				ArchiveScan archiveScan = new ArchiveScan(nestedContainer);
+
+				ZipInputStream zis = new ZipInputStream(zipInputStream);
+				scanZipInputStream(nestedContainer, zis);
+				archiveScan.end();
+
+				if (key != null)
+					recordNestedArchiveSummaries(key, nestedContainer, noOfSummaries, noOfFailures);
+			}
+			else
+				container.totals.entriesSkipped++;
+		}
+	}
+
+	/**
+	 * Content of a nested archive, identified by its CRC-32 and (uncompressed) size as recorded in
+	 * the outer archive
+	 */
+	private static final class NestedArchiveKey
+	{
+		private final long crc, size;
+
+		NestedArchiveKey(long crc, long size)
+		{
+			this.crc = crc;
+			this.size = size;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (int) (crc ^ (crc >>> 32)) * 31 + (int) (size ^ (size >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof NestedArchiveKey))
+				return false;
+			NestedArchiveKey other = (NestedArchiveKey) obj;
+			return crc == other.crc && size == other.size;
+		}
+	}
+
+	/**
+	 * @return null if identical nested archives can't be detected. i.e. if the class names are
+	 *         needed or if the {@code crc} or {@code size} is not known (-1)
+	 */
+	private NestedArchiveKey nestedArchiveKey(long crc, long size)
+	{
+		return (!classCountsOnly || crc == -1 || size == -1) ? null : new NestedArchiveKey(crc, size);
+	}
+
+	/**
+	 * Publishes the summaries of an identical nested archive, which is already scanned in this run,
+	 * for the {@code nestedContainer}
+	 *
+	 * @return false if no identical nested archive is scanned yet
+	 */
+	private boolean reuseNestedArchiveSummaries(NestedArchiveKey key, Container nestedContainer)
+	{
+		List<ContainerSummary> relativeSummaries = nestedArchiveSummaries.get(key);
+		if (relativeSummaries == null)
+			return false;
+
+		nestedContainer.totals.nestedArchivesReused++;
+		nestedContainer.totals.entriesSkipped++;
+		nestedContainer.finish();
+
+		for (ContainerSummary relativeSummary : relativeSummaries)
+		{
+			nestedContainer.fileScan.summaries.add(
+					Result.containerSummary(nestedContainer.path + relativeSummary.containerPath, relativeSummary.counts,
+							relativeSummary.sampled));
+			noOfClassFilesScanned.addAndGet(relativeSummary.counts.total());
+		}
+		return true;
+	}
+
+	/**
+	 * Records the summaries added since {@code noOfSummaries}, i.e. the summaries of the nested
+	 * archive and the archives nested in it, unless there were any failures while scanning them
+	 */
+	private void recordNestedArchiveSummaries(NestedArchiveKey key, Container nestedContainer, int noOfSummaries,
+			int noOfFailures)
+	{
+		FileScan fileScan = nestedContainer.fileScan;
+		if (fileScan.noOfFailures != noOfFailures)
+			return;
+
+		List<ContainerSummary> relativeSummaries = new ArrayList<ContainerSummary>();
+		for (Result result : fileScan.summaries.subList(noOfSummaries, fileScan.summaries.size()))
+		{
+			ContainerSummary summary = result.getContainerSummary();
+			relativeSummaries.add(new ContainerSummary(summary.containerPath.substring(nestedContainer.path.length()),
+					summary.counts, summary.sampled));
+		}
+		nestedArchiveSummaries.putIfAbsent(key, relativeSummaries);
+	}
+
+	/**
+	 * File extension without dot. e.g. {@code class} for a {@code .class} file.
+	 * <p>
+	 * This method expects that there is at least one character before the dot(.)
+	 * and one character after the dot(.). Otherwise returns null
+	 */
+	private static String fileExtn(String fileName)
+	{
+		int i = fileName.lastIndexOf('.') + 1;
+		return (i != 0 && i != fileName.length()) ? fileName.substring(i) : null;
+	}
+
+	/**
+	 * Replaces separators in {@code zipEntryName} with platform specific
+	 * separator
+	 */
+	private static String platformEntryName(String zipEntryName)
+	{
+		return zipEntryName.replace('/', File.separatorChar);
+	}
+
+	/** Reads the first {@link #CLASS_HEADER_LENGTH} bytes of the class file into the {@code header} */
+	private static void readClassHeader(InputStream is, byte[] header) throws IOException
+	{
+		for (int read = 0, n; read < CLASS_HEADER_LENGTH; read += n)
+			if ((n = is.read(header, read, CLASS_HEADER_LENGTH - read)) == -1)
+				throw new EOFException();
+	}
+
+	/** State shared by all the {@link Container}s of a file being scanned */
+	private static final class FileScan
+	{
+		/** Header of the current class. Same buffer is used for all the files scanned on a thread */
+		final byte[] header;
+
+		final Collection<Result> sink;
+
+		/** Null unless classCountsOnly */
+		final List<Result> summaries;
+
+		/** Containers started and not yet finished, outermost first. Null unless there is a listener */
+		final List<Container> openContainers;
+
+		int noOfFailures;
+
+		final ScanMetrics.FileTotals totals = new ScanMetrics.FileTotals();
+
+		FileScan(byte[] header, Collection<Result> sink, List<Result> summaries, boolean listener)
+		{
+			this.header = header;
+			this.sink = sink;
+			this.summaries = summaries;
+			this.openContainers = listener ? new ArrayList<Container>() : null;
+		}
+	}
+
+	/** Scan of an archive (outer or nested), for the {@link ScanMetrics} and the {@link ScanEvents} */
+	private final class ArchiveScan
+	{
+		final Container container;
+		final long startTime = System.nanoTime();
+
+		/** Totals of the file, when the scan started */
+		private final int entriesVisited;
+		private final long bytesRead;
+
+		private final Object event;
+
+		ArchiveScan(Container container)
+		{
+			this.container = container;
+			this.entriesVisited = container.totals.entriesVisited;
+			this.bytesRead = container.totals.bytesRead;
+			this.event = events == null ? null : events.archiveStarted();
+		}
+
+		void end()
+		{
+			metrics.archiveScanned(System.nanoTime() - startTime);
+			if (events != null)
+				events.archiveScanned(event, container.path, container.totals.entriesVisited - entriesVisited,
+						container.totals.bytesRead - bytesRead, container.depth);
+			container.finish();
+		}
+	}
+
+	/**
+	 * A folder or an archive whose classes are being scanned, on the current thread.
+	 * <p>
+	 * When {@link Scanner#classCountsOnly}, classes are counted by version in a
+	 * {@link Result.ContainerSummary} instead of creating a {@link Result} per class. The summaries
+	 * of all the containers found in a file are published (in the order in which the containers
+	 * were found) after the file is scanned
+	 */
+	private final class Container
+	{
+		final String path;
+
+		final FileScan fileScan;
+
+		/** Same as in the {@link #fileScan} */
+		final byte[] header;
+		final Collection<Result> sink;
+		final ScanMetrics.FileTotals totals;
+
+		/** 0 for the file scanned, 1 for an archive nested in it, .. */
+		final int depth;
+
+		/** Created on the first class */
+		private VersionCounts counts;
+
+		Container(String path, FileScan fileScan)
+		{
+			this(path, fileScan, 0);
+		}
+
+		private Container(String path, FileScan fileScan, int depth)
+		{
+			this.path = path;
+			this.fileScan = fileScan;
+			this.header = fileScan.header;
+			this.sink = fileScan.sink;
+			this.totals = fileScan.totals;
+			this.depth = depth;
+
+			if (listener != null)
+			{
+				fileScan.openContainers.add(this);
+				listener.containerStarted(path);
+			}
+		}
+
+		/**
+		 * Finishes this container and the containers nested in it which are not finished yet (e.g.
+		 * when an error stopped their scan). Can be called more than once
+		 */
+		void finish()
+		{
+			if (listener == null)
+				return;
+
+			List<Container> openContainers = fileScan.openContainers;
+			int index = openContainers.lastIndexOf(this);
+			if (index == -1)
+				return; // Already finished
+
+			while (openContainers.size() > index)
+				listener.containerFinished(openContainers.remove(openContainers.size() - 1).path);
+		}
+
+		Container nested(String nestedPath)
+		{
+			totals.nestedArchives++;
+			totals.maxNestingDepth = Math.max(totals.maxNestingDepth, depth + 1);
+			return new Container(nestedPath, fileScan, depth + 1);
+		}
+
+		/** No. of summaries of the file scan so far. Used only when classCountsOnly */
+		int noOfSummaries()
+		{
+			return fileScan.summaries == null ? 0 : fileScan.summaries.size();
+		}
+
+		boolean needsClassNames()
+		{
+			return fileScan.summaries == null;
+		}
+
+		/**
+		 * Adds the class whose {@link #header} is just read
+		 *
+		 * @param className
+		 *          Not used (can be null) unless {@link #needsClassNames()}
+		 */
+		void addClass(String className)
+		{
+			Version classJavaVersion = headerVersion();
+
+			if (listener != null)
+				listener.classVersion(path, className, classJavaVersion);
+			else if (fileScan.summaries == null)
+				sink.add(Result.success(path, className, classJavaVersion));
+			else
+			{
+				if (counts == null)
+					fileScan.summaries.add(Result.containerSummary(path, counts = new VersionCounts()));
+				counts.increment(classJavaVersion);
+			}
+
+			noOfClassFilesScanned.incrementAndGet();
+		}
+
+		/** Version of the class whose {@link #header} is just read */
+		Version headerVersion()
+		{
+			int classMinorVersion = ((header[4] & 0xFF) << 8) | (header[5] & 0xFF);
+			int classMajorVersion = ((header[6] & 0xFF) << 8) | (header[7] & 0xFF);
+
+			return Version.fromClassVersion(classMajorVersion, classMinorVersion);
+		}
+
+		/**
+		 * Adds the {@code noOfClasses} with the {@code version}, estimated from a sample. Can be used
+		 * only when classCountsOnly, and before any class is added
+		 */
+		void addSampledClasses(Version version, int noOfClasses)
+		{
+			fileScan.summaries.add(Result.containerSummary(path, counts = new VersionCounts(), true));
+			counts.add(version, noOfClasses);
+			noOfClassFilesScanned.addAndGet(noOfClasses);
+		}
+
+		void addFailure(String pathOfTheEntryWhichCausedException, IOException e)
+		{
+			fileScan.noOfFailures++;
+			handleZipOrIoException(pathOfTheEntryWhichCausedException, e, sink);
+		}
+	}
+
+	/** @return results queued so far, without waiting. Alternative to consuming the {@link #results()} */
+	List<Result> getNewResults()
+	{
+		return results.drain();
+	}
+
+	/** Closes the {@code zipFile} and adds its bytes read and inflated to the totals of the {@code container} */
+	private void close(MappedZipFile zipFile, Container container)
+	{
+		if (zipFile != null)
+		{
+			container.totals.bytesRead += zipFile.bytesRead();
+			container.totals.bytesInflated += zipFile.bytesInflated();
+		}
+		close(zipFile, container.sink);
+	}
+
+	private void close(Closeable c, Collection<Result> sink)
+	{
+		try
+		{
+			if (c != null)
+				c.close();
 		}
 		catch (IOException e)
 		{
-			results.add(Result.failure("Unable to close: " + c));
+			sink.add(failure("Unable to close: " + c));
+		}
+	}
+
+	/**
+	 * Results of a task (or of a range of an archive) which are to be added to a target, after the
+	 * results before them. They are buffered until the results before them are added, i.e. until
+	 * {@link #forward(Collection)}, and then added to the target as they are found. Buffered results
+	 * count towards the {@link #MAX_UNPUBLISHED_RESULTS}, beyond which the scanning thread waits,
+	 * unless forwarded.
+	 * <p>
+	 * Results are added by one thread at a time: the scanning thread, and then the forwarding thread
+	 * once the scan is done ({@link #finish()}). The forwarding thread doesn't use the target in
+	 * between, i.e. it's handed over to the scanning thread
+	 */
+	private final class OrderedSink extends AbstractCollection<Result>
+	{
+		private final List<Result> buffer = new ArrayList<Result>();
+
+		/** Results of the {@link #buffer} which are not yet added to the {@link #noOfUnpublishedResults} */
+		private int noOfUncounted;
+
+		/** Set (guarded by the publishLock) once the results before these are added to it */
+		private volatile Collection<Result> target;
+
+		@Override
+		public boolean add(Result result)
+		{
+			Collection<Result> target = this.target;
+			if (target != null)
+			{
+				if (!buffer.isEmpty())
+					flush(target);
+				return target.add(result);
+			}
+
+			buffer.add(result);
+			if (++noOfUncounted == UNPUBLISHED_RESULTS_UPDATE_INTERVAL)
+				countAndWait();
+			return true;
+		}
+
+		/** Waits while too many results are unpublished, until forwarded */
+		private void countAndWait()
+		{
+			synchronized (publishLock)
+			{
+				noOfUnpublishedResults += noOfUncounted;
+				noOfUncounted = 0;
+				if (noOfUnpublishedResults < MAX_UNPUBLISHED_RESULTS || target != null)
+					return;
+
+				long startTime = System.nanoTime();
+				try
+				{
+					while (noOfUnpublishedResults >= MAX_UNPUBLISHED_RESULTS && target == null && !cancelled)
+						publishLock.wait();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt(); // Scan is being cancelled
+				}
+				metrics.publishWaited(System.nanoTime() - startTime);
+			}
+		}
+
+		private void flush(Collection<Result> target)
+		{
+			synchronized (publishLock)
+			{
+				noOfUnpublishedResults -= buffer.size() - noOfUncounted;
+				publishLock.notifyAll();
+			}
+			noOfUncounted = 0;
+
+			target.addAll(buffer);
+			buffer.clear();
+		}
+
+		/** Results are added to the {@code target} from now on, after the results buffered so far */
+		void forward(Collection<Result> target)
+		{
+			synchronized (publishLock)
+			{
+				this.target = target;
+				publishLock.notifyAll();
+			}
+		}
+
+		/** Adds the buffered results to the target. Called by the forwarding thread, after the scan */
+		void finish()
+		{
+			if (!buffer.isEmpty())
+				flush(target);
+		}
+
+		@Override
+		public Iterator<Result> iterator()
+		{
+			return Collections.<Result> emptyList().iterator();
+		}
+
+		@Override
+		public int size()
+		{
+			return 0;
+		}
+	}
+
+	/** Pushes the failures to a {@link ScanListener}. Classes are pushed directly, not as results */
+	private static final class ListenerSink extends AbstractCollection<Result>
+	{
+		private final ScanListener listener;
+
+		ListenerSink(ScanListener listener)
+		{
+			this.listener = listener;
+		}
+
+		@Override
+		public boolean add(Result result)
+		{
+			if (result.isFailure())
+				listener.failure(result.getFailure().failureMessage);
+			else
+				listener.classVersion(result.getSuccess().containerPath, result.getSuccess().className,
+						result.getSuccess().version);
+			return true;
+		}
+
+		@Override
+		public Iterator<Result> iterator()
+		{
+			return Collections.<Result> emptyList().iterator();
+		}
+
+		@Override
+		public int size()
+		{
+			return 0;
 		}
 	}
-}
\ No newline at end of file
+}
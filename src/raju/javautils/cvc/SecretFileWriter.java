@@ -0,0 +1,18 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes a file which only its owner can read, e.g. the {@link DaemonToken}.
+ * <p>
+ * Note: Implementations should be thread safe
+ */
+interface SecretFileWriter
+{
+	/**
+	 * Replaces the {@code file} with a new file of the {@code content}, readable and writable only by
+	 * its owner (the current user) from the moment it's created
+	 */
+	void write(File file, byte[] content) throws IOException;
+}
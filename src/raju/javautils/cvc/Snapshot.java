@@ -0,0 +1,358 @@
+package raju.javautils.cvc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Results of a verbosity level 1 scan (--export), i.e. no. of classes by container and version
+ * and the failures, in a compact columnar file. Snapshots of many hosts are combined by the
+ * {@link SnapshotMerger} (--merge), which can export the merged results as a snapshot too.
+ * <p>
+ * Snapshot file format (big endian). A varint is an unsigned LEB128 int, a string is a varint
+ * length and the UTF-8 bytes:
+ *
+ * <pre>
+ * int     Magic (CVCS)
+ * int     Format version
+ * string  Source, i.e. host name of the scan. Empty if merged (failures are prefixed with their source)
+ * long    Created time (ms since the epoch)
+ * Failures, as they are found. For each: byte 1, string message. Then byte 0
+ * varint  No. of containers
+ * Container paths (front coded), in the order of their ids:
+ *   varint  Length (in chars) of the prefix shared with the previous path, string rest of the path
+ * varint  No. of sampled containers, varint ids (delta from the previous id)
+ * varint  No. of versions. For each version (column), in ascending order:
+ *   varint  Class major, varint class minor
+ *   varint  No. of containers with the classes of the version. For each, in ascending order of id:
+ *     varint  Container id (delta from the previous id), varint no. of classes
+ * </pre>
+ */
+final class Snapshot
+{
+	static final String FILE_EXTN = ".cvcs";
+
+	private static final int MAGIC = 0x43564353, FORMAT_VERSION = 1;
+
+	/** Paths and failure messages are far shorter. Longer ones are from a corrupt file */
+	private static final int MAX_STRING_LENGTH = 1 << 20;
+
+	final String source;
+	final long createdTime;
+	final List<String> failures;
+
+	private final String[] containerPaths;
+	private final BitSet sampledContainerIds;
+	private final Version[] versions;
+
+	/** By column */
+	private final int[][] containerIds, counts;
+
+	private Snapshot(String source, long createdTime, List<String> failures, String[] containerPaths,
+			BitSet sampledContainerIds, Version[] versions, int[][] containerIds, int[][] counts)
+	{
+		this.source = source;
+		this.createdTime = createdTime;
+		this.failures = failures;
+		this.containerPaths = containerPaths;
+		this.sampledContainerIds = sampledContainerIds;
+		this.versions = versions;
+		this.containerIds = containerIds;
+		this.counts = counts;
+	}
+
+	int noOfContainers()
+	{
+		return containerPaths.length;
+	}
+
+	/** Adds the no. of classes of each container and version to the {@code containerVersionCounts} */
+	void addTo(ContainerVersionCounts containerVersionCounts)
+	{
+		for (int column = 0; column < versions.length; column++)
+			for (int i = 0; i < containerIds[column].length; i++)
+				containerVersionCounts.add(containerPaths[containerIds[column][i]], versions[column], counts[column][i]);
+
+		for (int id = sampledContainerIds.nextSetBit(0); id != -1; id = sampledContainerIds.nextSetBit(id + 1))
+			containerVersionCounts.sampled(containerPaths[id]);
+	}
+
+	/**
+	 * Reads the whole snapshot, so that nothing is merged from a corrupt or a truncated file.
+	 * Memory is proportional to the size of this snapshot only
+	 */
+	static Snapshot read(File file) throws IOException
+	{
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		try
+		{
+			if (dis.readInt() != MAGIC)
+				throw new IOException("Not a snapshot file: " + file.getPath());
+			int formatVersion = dis.readInt();
+			if (formatVersion != FORMAT_VERSION)
+				throw new IOException("Unsupported snapshot format version " + formatVersion + ": " + file.getPath());
+
+			String source = readString(dis);
+			long createdTime = dis.readLong();
+
+			List<String> failures = new ArrayList<String>();
+			while (dis.readByte() != 0)
+				failures.add(readString(dis));
+
+			// Counts are checked before allocating for them. A path is at least 2 bytes and a version 3
+			String[] containerPaths = new String[readCount(dis, file.length() / 2, file)];
+			String previousPath = "";
+			for (int id = 0; id < containerPaths.length; id++)
+			{
+				int prefixLen = readVarInt(dis);
+				if (prefixLen > previousPath.length())
+					throw corrupt(file);
+				containerPaths[id] = previousPath = previousPath.substring(0, prefixLen) + readString(dis);
+			}
+
+			BitSet sampledContainerIds = new BitSet();
+			for (int i = readCount(dis, containerPaths.length, file), id = -1; i > 0; i--)
+				sampledContainerIds.set(id = containerId(dis, id, containerPaths.length, file));
+
+			int noOfVersions = readCount(dis, file.length() / 3, file);
+			Version[] versions = new Version[noOfVersions];
+			int[][] containerIds = new int[noOfVersions][], counts = new int[noOfVersions][];
+			for (int column = 0; column < noOfVersions; column++)
+			{
+				versions[column] = Version.fromClassVersion(readVarInt(dis), readVarInt(dis));
+				int noOfContainers = readCount(dis, containerPaths.length, file);
+				containerIds[column] = new int[noOfContainers];
+				counts[column] = new int[noOfContainers];
+				for (int i = 0, id = -1; i < noOfContainers; i++)
+				{
+					containerIds[column][i] = id = containerId(dis, id, containerPaths.length, file);
+					counts[column][i] = readVarInt(dis);
+				}
+			}
+
+			return new Snapshot(source, createdTime, failures, containerPaths, sampledContainerIds, versions, containerIds,
+					counts);
+		}
+		finally
+		{
+			dis.close();
+		}
+	}
+
+	/**
+	 * Reads an id delta. First id of a list is a delta from 0, the rest are greater than the previous id
+	 *
+	 * @param previousId
+	 *          -1 for the first id of a list
+	 */
+	private static int containerId(DataInputStream dis, int previousId, int noOfContainers, File file)
+			throws IOException
+	{
+		int id = Math.max(previousId, 0) + readVarInt(dis);
+		if (id <= previousId || id >= noOfContainers)
+			throw corrupt(file);
+		return id;
+	}
+
+	private static int readCount(DataInputStream dis, long maxCount, File file) throws IOException
+	{
+		int count = readVarInt(dis);
+		if (count > maxCount)
+			throw corrupt(file);
+		return count;
+	}
+
+	private static IOException corrupt(File file)
+	{
+		return new IOException("Corrupt snapshot file: " + file.getPath());
+	}
+
+	/**
+	 * Writes a snapshot. The failures are written as they are found, then the counts at the end.
+	 * So only the counts (by container) are kept in memory. The snapshot is written to a temporary
+	 * file, which replaces the snapshot file when finished
+	 * <p>
+	 * Note: Instances of this class are not thread safe
+	 */
+	static final class Writer
+	{
+		private final File file, tempFile;
+		private DataOutputStream dos;
+
+		/** Creates the (temporary) file and writes the header */
+		Writer(File file, String source, long createdTime) throws IOException
+		{
+			this.file = file;
+			this.tempFile = new File(file.getPath() + ".tmp");
+
+			dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+			boolean written = false;
+			try
+			{
+				dos.writeInt(MAGIC);
+				dos.writeInt(FORMAT_VERSION);
+				writeString(dos, source);
+				dos.writeLong(createdTime);
+				written = true;
+			}
+			finally
+			{
+				if (!written)
+					abandon();
+			}
+		}
+
+		void failure(String failureMessage) throws IOException
+		{
+			dos.writeByte(1);
+			writeString(dos, failureMessage);
+		}
+
+		/** Writes the counts and replaces the snapshot file */
+		void finish(ContainerVersionCounts containerVersionCounts) throws IOException
+		{
+			try
+			{
+				dos.writeByte(0); // End of the failures
+
+				int noOfContainers = containerVersionCounts.noOfContainers();
+				writeVarInt(dos, noOfContainers);
+				String previousPath = "";
+				for (int id = 0; id < noOfContainers; id++)
+				{
+					String path = containerVersionCounts.containerPath(id);
+					int prefixLen = sharedPrefixLength(previousPath, path);
+					writeVarInt(dos, prefixLen);
+					writeString(dos, path.substring(prefixLen));
+					previousPath = path;
+				}
+
+				int noOfSampled = 0;
+				for (int id = 0; id < noOfContainers; id++)
+					if (containerVersionCounts.isSampled(id))
+						noOfSampled++;
+				writeVarInt(dos, noOfSampled);
+				for (int id = 0, previousId = 0; id < noOfContainers; id++)
+					if (containerVersionCounts.isSampled(id))
+					{
+						writeVarInt(dos, id - previousId);
+						previousId = id;
+					}
+
+				Version[] versions = containerVersionCounts.versions();
+				writeVarInt(dos, versions.length);
+				for (Version version : versions)
+				{
+					writeVarInt(dos, version.classMajor);
+					writeVarInt(dos, version.classMinor);
+
+					int noOfContainersWithVersion = 0;
+					for (int id = 0; id < noOfContainers; id++)
+						if (containerVersionCounts.count(id, version) != 0)
+							noOfContainersWithVersion++;
+					writeVarInt(dos, noOfContainersWithVersion);
+					for (int id = 0, previousId = 0; id < noOfContainers; id++)
+					{
+						int noOfClasses = containerVersionCounts.count(id, version);
+						if (noOfClasses != 0)
+						{
+							writeVarInt(dos, id - previousId);
+							writeVarInt(dos, noOfClasses);
+							previousId = id;
+						}
+					}
+				}
+
+				dos.close();
+				dos = null;
+			}
+			finally
+			{
+				if (dos != null)
+					abandon();
+			}
+
+			TempFiles.replaceFile(tempFile, file, "snapshot file");
+		}
+
+		/** Closes and deletes the temporary file, if not finished */
+		void abandon()
+		{
+			if (dos == null)
+				return;
+			try
+			{
+				dos.close();
+			}
+			catch (IOException e)
+			{
+				// Nothing useful to do
+			}
+			dos = null;
+			tempFile.delete();
+		}
+	}
+
+	/** Doesn't split a surrogate pair */
+	private static int sharedPrefixLength(String s1, String s2)
+	{
+		int len = 0, maxLen = Math.min(s1.length(), s2.length());
+		while (len < maxLen && s1.charAt(len) == s2.charAt(len))
+			len++;
+		if (len > 0 && Character.isHighSurrogate(s2.charAt(len - 1)))
+			len--;
+		return len;
+	}
+
+	private static void writeVarInt(DataOutputStream dos, int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			dos.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		dos.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream dis) throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			int b = dis.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				if (value < 0)
+					break;
+				return value;
+			}
+		}
+		throw new IOException("Corrupt snapshot file. Invalid varint");
+	}
+
+	private static void writeString(DataOutputStream dos, String s) throws IOException
+	{
+		byte[] bytes = s.getBytes("UTF-8");
+		writeVarInt(dos, bytes.length);
+		dos.write(bytes);
+	}
+
+	private static String readString(DataInputStream dis) throws IOException
+	{
+		int len = readVarInt(dis);
+		if (len > MAX_STRING_LENGTH)
+			throw new IOException("Corrupt snapshot file. String of " + len + " bytes");
+		byte[] bytes = new byte[len];
+		dis.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
@@ -0,0 +1,115 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Combines the snapshots (--export) of many hosts into one report (--merge), in a single pass
+ * over the snapshots. Snapshots are read one at a time, so the memory is proportional to the no.
+ * of distinct containers (paths) across the snapshots, not to the no. of snapshots or classes.
+ * No. of classes of the same container path in different snapshots are added up.
+ * <p>
+ * Failures of the snapshots are printed (and exported) as they are read, prefixed with the source
+ * of the snapshot. Exit codes: {@link #MERGED}, {@link #INCOMPLETE}
+ */
+final class SnapshotMerger
+{
+	static final int MERGED = 0;
+
+	/** Some of the snapshots couldn't be read */
+	static final int INCOMPLETE = 2;
+
+	private static final FileFilter SNAPSHOT_FILES = new FileFilter()
+	{
+		public boolean accept(File file)
+		{
+			return file.getName().endsWith(Snapshot.FILE_EXTN) && file.isFile();
+		}
+	};
+
+	private final boolean groupByContainer;
+	private final PrintStream out, err;
+
+	SnapshotMerger(boolean groupByContainer, PrintStream out, PrintStream err)
+	{
+		this.groupByContainer = groupByContainer;
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * @param inputPaths
+	 *          Snapshot files and folders with the snapshot files (*.cvcs, not recursively)
+	 * @param writer
+	 *          To export the merged results. May be null
+	 * @return exit code
+	 */
+	int merge(Collection<File> inputPaths, Snapshot.Writer writer) throws IOException
+	{
+		long startTime = System.nanoTime();
+
+		ContainerVersionCounts containerVersionCounts = new ContainerVersionCounts(!groupByContainer);
+		int noOfSnapshots = 0, noOfUnreadable = 0, noOfFailures = 0;
+		try
+		{
+			for (File inputPath : inputPaths)
+			{
+				File[] snapshotFiles = inputPath.isDirectory() ? inputPath.listFiles(SNAPSHOT_FILES) : new File[] { inputPath };
+				if (snapshotFiles == null)
+				{
+					err.printf("Unable to list the folder: %s%n", inputPath.getPath());
+					noOfUnreadable++;
+					continue;
+				}
+				Arrays.sort(snapshotFiles);
+
+				for (File snapshotFile : snapshotFiles)
+				{
+					Snapshot snapshot;
+					try
+					{
+						snapshot = Snapshot.read(snapshotFile);
+					}
+					catch (IOException e)
+					{
+						err.printf("Unable to read the snapshot %s: %s%n", snapshotFile.getPath(), e.getMessage());
+						noOfUnreadable++;
+						continue;
+					}
+
+					for (String failureMessage : snapshot.failures)
+					{
+						// Failures of a merged snapshot are already prefixed
+						String sourceFailureMessage = snapshot.source.length() == 0 ? failureMessage
+								: snapshot.source + ": " + failureMessage;
+						err.println(sourceFailureMessage);
+						if (writer != null)
+							writer.failure(sourceFailureMessage);
+					}
+					noOfFailures += snapshot.failures.size();
+
+					snapshot.addTo(containerVersionCounts);
+					noOfSnapshots++;
+				}
+			}
+
+			if (writer != null)
+				writer.finish(containerVersionCounts);
+		}
+		finally
+		{
+			if (writer != null)
+				writer.abandon();
+		}
+
+		ProgressUpdater.printContainerVersionCounts(containerVersionCounts, groupByContainer, out);
+		out.printf("%nMerged %d snapshot%s: %d containers, %d failures%s (%d ms)%n", noOfSnapshots,
+				noOfSnapshots == 1 ? "" : "s", containerVersionCounts.noOfContainers(), noOfFailures,
+				noOfUnreadable == 0 ? "" : ", " + noOfUnreadable + " unreadable", (System.nanoTime() - startTime) / 1000000);
+		return noOfUnreadable == 0 ? MERGED : INCOMPLETE;
+	}
+}
@@ -0,0 +1,47 @@
+package raju.javautils.cvc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which can be updated from many threads with little contention. Each thread adds to one
+ * of the stripes (by its id), which are in separate cache lines. {@link #get()} sums the stripes.
+ * <p>
+ * Note: Instances of this class are thread safe
+ */
+final class StripedCounter
+{
+	/** Longs per stripe. i.e. 64 bytes, so that the stripes don't share a cache line */
+	private static final int PADDING = 8;
+
+	/** Power of 2, at least twice the no. of processors (max 64) */
+	private static final int NO_OF_STRIPES = Math.min(64,
+			Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+	private final AtomicLongArray stripes = new AtomicLongArray(NO_OF_STRIPES * PADDING);
+
+	void add(long delta)
+	{
+		stripes.addAndGet(stripe() * PADDING, delta);
+	}
+
+	void increment()
+	{
+		add(1);
+	}
+
+	/** Sum of all the stripes. Not a snapshot, if the counter is being updated */
+	long get()
+	{
+		long sum = 0;
+		for (int i = 0; i < NO_OF_STRIPES; i++)
+			sum += stripes.get(i * PADDING);
+		return sum;
+	}
+
+	private static int stripe()
+	{
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return (hash >>> 16) & (NO_OF_STRIPES - 1);
+	}
+}
@@ -0,0 +1,28 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Files (e.g. the cache, the snapshot and the metrics) are written to a temporary file, which then
+ * replaces the file. So a reader never sees a partially written file
+ */
+final class TempFiles
+{
+	private TempFiles()
+	{
+	}
+
+	/**
+	 * Renames the {@code tempFile} to the {@code file}, replacing it if it exists
+	 *
+	 * @param what
+	 *          Used in the error message, e.g. "cache file"
+	 */
+	static void replaceFile(File tempFile, File file, String what) throws IOException
+	{
+		// File.renameTo() doesn't replace an existing file on all the platforms
+		if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file)))
+			throw new IOException("Unable to replace the " + what + ": " + file.getPath());
+	}
+}
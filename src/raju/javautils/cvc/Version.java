@@ -1,23 +1,52 @@
 package raju.javautils.cvc;
 
-final class Version implements Comparable<Version>
+/** Class file version and the Java version it corresponds to. Instances are immutable */
+public final class Version implements Comparable<Version>
 {
-	private static final Version[] VERSIONS_CACHE = {
-			new Version(46, 0, 1, 2), new Version(47, 0, 1, 3),
-			new Version(48, 0, 1, 4), new Version(49, 0, 1, 5),
-			new Version(50, 0, 1, 6), new Version(51, 0, 1, 7),
-			new Version(52, 0, 1, 8), new Version(53, 0, 1, 9) };
+	/** Minor version of the classes which depend on the preview features (Java 12+) */
+	static final int PREVIEW_MINOR = 0xFFFF;
+
+	private static final int FIRST_CLASS_MAJOR = 45;
+
+	/** Class major version of Java 27 */
+	private static final int LAST_CACHED_CLASS_MAJOR = 71;
+
+	/**
+	 * Two versions for every class major version from 45 (1.0) to 71 (27), in ascending order. i.e.
+	 * {@code major.0} and {@code major.65535} (preview). For 45 these are 45.0 and 45.3 (1.0 and 1.1
+	 * compilers used 45.3)
+	 * <p>
+	 * Index of a version in this array is its {@link #ordinal}
+	 */
+	private static final Version[] VERSIONS_CACHE = new Version[2 * (LAST_CACHED_CLASS_MAJOR - FIRST_CLASS_MAJOR + 1)];
+
+	static
+	{
+		for (int classMajor = FIRST_CLASS_MAJOR, i = 0; classMajor <= LAST_CACHED_CLASS_MAJOR; classMajor++)
+		{
+			VERSIONS_CACHE[i] = create(classMajor, 0, i++);
+			VERSIONS_CACHE[i] = create(classMajor, classMajor == FIRST_CLASS_MAJOR ? 3 : PREVIEW_MINOR, i++);
+		}
+	}
+
+	/** No. of cached versions. i.e. {@link #ordinal} of the cached versions are from 0 to this - 1 */
+	static final int NO_OF_CACHED_VERSIONS = VERSIONS_CACHE.length;
 
 	final int classMajor, classMinor;
 	final int javaMajor, javaMinor;
 
-	private Version(int classMajor, int classMinor, int javaMajor, int javaMinor)
+	/** -1 if this version is not cached */
+	final int ordinal;
+
+	private Version(int classMajor, int classMinor, int javaMajor, int javaMinor, int ordinal)
 	{
 		this.classMajor = classMajor;
 		this.classMinor = classMinor;
 
 		this.javaMajor = javaMajor;
 		this.javaMinor = javaMinor;
+
+		this.ordinal = ordinal;
 	}
 
 	@Override
@@ -44,7 +73,87 @@ final class Version implements Comparable<Version>
 				: classMajor > o.classMajor ? 1 : classMinor < o.classMinor ? -1 : classMinor > o.classMinor ? 1 : 0;
 	}
 
-	static Version fromClassVersion(int classMajor, int classMinor)
+	/** e.g. 52 for Java 8 */
+	public int getClassMajor()
+	{
+		return classMajor;
+	}
+
+	public int getClassMinor()
+	{
+		return classMinor;
+	}
+
+	/** e.g. 1.4, 1.8, 11, 21-preview. For unknown versions: Unknown. Class version: 44.0 */
+	public String getJavaVersion()
+	{
+		if (javaMajor == -1)
+			return "Unknown. Class version: " + classMajor + "." + classMinor;
+
+		// 1.0 to 1.9, then 10, 11, ..
+		String javaVersion = javaMajor == 1 ? javaMajor + "." + javaMinor : Integer.toString(javaMajor);
+		return isPreview() ? javaVersion + "-preview" : javaVersion;
+	}
+
+	/** @return true if the class depends on the preview features of its Java version (Java 12+) */
+	public boolean isPreview()
+	{
+		return classMinor == PREVIEW_MINOR && classMajor >= 56;
+	}
+
+	/** @return the cached version with the given {@link #ordinal} */
+	static Version fromOrdinal(int ordinal)
+	{
+		return VERSIONS_CACHE[ordinal];
+	}
+
+	/**
+	 * @param javaVersion
+	 *          e.g. 1.4, 1.8, 8, 11
+	 * @return version of the classes compiled for the {@code javaVersion}, null if it's invalid
+	 */
+	static Version fromJavaVersion(String javaVersion)
+	{
+		boolean oldScheme = javaVersion.startsWith("1."); // 1.0 to 1.9
+		int javaMajor;
+		try
+		{
+			javaMajor = Integer.parseInt(oldScheme ? javaVersion.substring(2) : javaVersion);
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+
+		if (oldScheme && javaMajor >= 0 && javaMajor <= 9)
+			return fromClassVersion(Math.max(45, javaMajor + 44), 0);
+		if (!oldScheme && javaMajor >= 5 && javaMajor <= 0xFFFF - 44)
+			return fromClassVersion(javaMajor + 44, 0);
+		return null;
+	}
+
+	/**
+	 * Returns a cached instance (i.e. doesn't allocate) for the versions listed in {@link #VERSIONS_CACHE}
+	 *
+	 * @param classMajor
+	 *          Unsigned
+	 * @param classMinor
+	 *          Unsigned
+	 */
+	public static Version fromClassVersion(int classMajor, int classMinor)
+	{
+		if (classMajor >= FIRST_CLASS_MAJOR && classMajor <= LAST_CACHED_CLASS_MAJOR)
+		{
+			int index = 2 * (classMajor - FIRST_CLASS_MAJOR);
+			if (classMinor == 0)
+				return VERSIONS_CACHE[index];
+			if (classMinor == VERSIONS_CACHE[index + 1].classMinor)
+				return VERSIONS_CACHE[index + 1];
+		}
+		return create(classMajor, classMinor, -1);
+	}
+
+	private static Version create(int classMajor, int classMinor, int ordinal)
 	{
 		// 1.0 -> 45.0 - 45.3
 		// 1.1 -> 45.4 - 45.65535
@@ -56,16 +165,15 @@ final class Version implements Comparable<Version>
 		// 1.7 -> 51
 		// 1.8 -> 52
 		// 1.9 -> 53
+		// 10 -> 54, 11 -> 55, ..
 
+		if (classMajor >= 54)
+			return new Version(classMajor, classMinor, classMajor - 44, 0, ordinal);
 		if (classMajor >= 46)
-		{
-			if (classMinor <= 53)
-				return VERSIONS_CACHE[classMajor - 46];
-			return new Version(classMajor, classMinor, 1, classMajor - 44 /* WARN: May Break */ );
-		}
+			return new Version(classMajor, classMinor, 1, classMajor - 44, ordinal);
 		if (classMajor == 45)
-			return new Version(classMajor, classMinor, 1, (classMinor <= 3) ? 0 : 1);
-		return new Version(classMajor, classMinor, -1, -1);
+			return new Version(classMajor, classMinor, 1, (classMinor <= 3) ? 0 : 1, ordinal);
+		return new Version(classMajor, classMinor, -1, -1, ordinal);
 	}
 
 	@Override
@@ -74,4 +182,4 @@ final class Version implements Comparable<Version>
 		return "Version [classMajor=" + classMajor + ", classMinor=" + classMinor + ", javaMajor=" + javaMajor
 				+ ", javaMinor=" + javaMinor + "]";
 	}
-}
\ No newline at end of file
+}
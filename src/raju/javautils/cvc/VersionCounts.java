@@ -0,0 +1,98 @@
+package raju.javautils.cvc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * No. of classes by {@link Version}. Cached versions are counted in an {@code int[]} indexed by
+ * {@link Version#ordinal}, so counting them doesn't allocate
+ */
+final class VersionCounts
+{
+	private final int[] counts = new int[Version.NO_OF_CACHED_VERSIONS];
+
+	/** Null until a version which is not cached is found */
+	private Map<Version, MutableInteger> uncachedCounts;
+
+	void increment(Version version)
+	{
+		if (version.ordinal != -1)
+		{
+			counts[version.ordinal]++;
+			return;
+		}
+		uncachedCount(version).increment();
+	}
+
+	void add(Version version, int noOfClasses)
+	{
+		if (version.ordinal != -1)
+		{
+			counts[version.ordinal] += noOfClasses;
+			return;
+		}
+		uncachedCount(version).add(noOfClasses);
+	}
+
+	private MutableInteger uncachedCount(Version version)
+	{
+		if (uncachedCounts == null)
+			uncachedCounts = new TreeMap<Version, MutableInteger>();
+
+		MutableInteger count = uncachedCounts.get(version);
+		if (count == null)
+			uncachedCounts.put(version, count = new MutableInteger());
+		return count;
+	}
+
+	int count(Version version)
+	{
+		if (version.ordinal != -1)
+			return counts[version.ordinal];
+
+		MutableInteger count = uncachedCounts == null ? null : uncachedCounts.get(version);
+		return count == null ? 0 : count.intValue();
+	}
+
+	/** Total no. of classes of all the versions */
+	int total()
+	{
+		int total = 0;
+		for (int count : counts)
+			total += count;
+		if (uncachedCounts != null)
+			for (MutableInteger count : uncachedCounts.values())
+				total += count.intValue();
+		return total;
+	}
+
+	/** Versions with at least one class, in ascending order */
+	List<Version> versions()
+	{
+		List<Version> versions = new ArrayList<Version>();
+		for (int ordinal = 0; ordinal < counts.length; ordinal++)
+			if (counts[ordinal] != 0)
+				versions.add(Version.fromOrdinal(ordinal));
+
+		if (uncachedCounts != null)
+		{
+			versions.addAll(uncachedCounts.keySet());
+			Collections.sort(versions);
+		}
+		return versions;
+	}
+
+	/** e.g. 1.8(120),11(3) */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Version version : versions())
+			sb.append(sb.length() == 0 ? "" : ",").append(version.getJavaVersion()).append('(').append(count(version))
+					.append(')');
+		return sb.toString();
+	}
+}
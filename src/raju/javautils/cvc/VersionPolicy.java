@@ -0,0 +1,125 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Checks that no class is newer than a max. version (--max-version). The scan is cancelled as soon
+ * as {@code failOn} violating classes are found, so a failing check doesn't wait for the rest of
+ * the scan. A passing check scans everything.
+ * <p>
+ * Violations are printed as they are found, in the format of the verbosity level 2. Exit codes:
+ * {@link #PASSED}, {@link #FAILED}, {@link #INCOMPLETE}
+ */
+final class VersionPolicy implements ScanListener
+{
+	static final int PASSED = 0;
+
+	/** Classes newer than the max. version are found */
+	static final int FAILED = 1;
+
+	/** No violations found, but some of the files or entries couldn't be read */
+	static final int INCOMPLETE = 2;
+
+	private static final String VIOLATION_FORMAT_STR = "%s %s" + File.separatorChar + "%s%n";
+
+	private final Version maxVersion;
+	private final int failOn;
+	private final PrintStream out, err;
+
+	private Scanner scanner;
+
+	/** Guarded by this */
+	private int noOfViolations, noOfFailures;
+
+	/**
+	 * @param failOn
+	 *          No. of violations after which the scan is cancelled
+	 */
+	VersionPolicy(Version maxVersion, int failOn, PrintStream out, PrintStream err)
+	{
+		this.maxVersion = maxVersion;
+		this.failOn = failOn;
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Scans the {@code inputPaths} on the calling thread (and the scanning threads)
+	 *
+	 * @param baseDir
+	 *          Folder the relative {@code inputPaths} are resolved against, see
+	 *          {@link Scanner#relativeTo(File)}. Null for the current folder
+	 * @return exit code
+	 */
+	int check(Collection<File> inputPaths, Set<String> fileExtns, int parallelism, boolean mappedArchives,
+			boolean virtualThreads, FolderWalker walker, File baseDir)
+	{
+		long startTime = System.nanoTime();
+
+		scanner = new Scanner(inputPaths, fileExtns, parallelism, mappedArchives, walker, virtualThreads, this);
+		if (baseDir != null)
+			scanner.relativeTo(baseDir);
+		scanner.scan();
+
+		long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+		String maxVersionStr = maxVersion.getJavaVersion();
+		synchronized (this)
+		{
+			if (noOfViolations != 0)
+			{
+				out.printf("FAILED: Found %s newer than %s%s (%d ms)%n",
+						noOfViolations == 1 ? "a class" : noOfViolations + " classes", maxVersionStr,
+						scanner.isCancelled() ? ". Stopped the scan" : "", elapsedMillis);
+				return FAILED;
+			}
+
+			if (noOfFailures != 0)
+			{
+				out.printf("INCOMPLETE: No classes newer than %s, but %d failure%s (%d ms)%n", maxVersionStr, noOfFailures,
+						noOfFailures == 1 ? "" : "s", elapsedMillis);
+				return INCOMPLETE;
+			}
+
+			out.printf("PASSED: No classes newer than %s. %d files, %d classes (%d ms)%n", maxVersionStr,
+					scanner.noOfFilesScanned(), scanner.noOfClassFilesScanned(), elapsedMillis);
+			return PASSED;
+		}
+	}
+
+	public void containerStarted(String containerPath)
+	{
+	}
+
+	public void classVersion(String containerPath, String className, Version version)
+	{
+		if (version.classMajor <= maxVersion.classMajor)
+			return;
+
+		synchronized (this)
+		{
+			// Classes which are being scanned when the scan is cancelled are not reported
+			if (noOfViolations == failOn)
+				return;
+
+			out.printf(VIOLATION_FORMAT_STR, version.getJavaVersion(), containerPath, className);
+			if (++noOfViolations == failOn)
+				scanner.cancel();
+		}
+	}
+
+	public void containerFinished(String containerPath)
+	{
+	}
+
+	public void failure(String failureMessage)
+	{
+		synchronized (this)
+		{
+			noOfFailures++;
+			err.println(failureMessage);
+		}
+	}
+}
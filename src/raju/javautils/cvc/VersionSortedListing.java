@@ -0,0 +1,316 @@
+package raju.javautils.cvc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import raju.javautils.cvc.Result.Success;
+
+/**
+ * Classes (of the verbosity level 2) sorted by version. i.e. grouped by version, in the order in
+ * which they are added.
+ * <p>
+ * Up to {@link #MAX_CLASSES_IN_MEMORY} classes are kept in memory. After that, all the classes are
+ * moved to a temporary (spill) file per version and further classes are written to these files.
+ * So the memory used doesn't depend on the no. of classes.
+ * <p>
+ * Classes in memory are a {@link PathTable} package node and a simple name each. i.e. the
+ * container paths and the packages are shared, and the full paths are built only when printed
+ */
+final class VersionSortedListing
+{
+	private static final int MAX_CLASSES_IN_MEMORY = 100000;
+
+	private final Map<Version, ClassList> classesByVersion = new TreeMap<Version, ClassList>();
+	private int noOfClassesInMemory;
+
+	/** Paths of the classes in memory */
+	private PathTable pathTable = new PathTable();
+
+	/** Null until the classes are spilled */
+	private Map<Version, SpillFile> spillFilesByVersion;
+
+	/** If spilling fails, all the classes are kept in memory */
+	private boolean spillFailed;
+
+	/** For the spill file errors */
+	private final PrintStream err;
+
+	private static final class SpillFile
+	{
+		final File file;
+		final Writer writer;
+
+		SpillFile(File file) throws IOException
+		{
+			this.file = file;
+			this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		}
+	}
+
+	/**
+	 * Classes of a version, in the order in which they are added. Simple names (e.g. Xyz.class) are
+	 * copied to one {@code char[]}, so there is no object per class
+	 */
+	private static final class ClassList
+	{
+		int[] packageNodes = new int[16];
+
+		/** Simple name of a class ends here in the {@link #nameChars}, and the next one starts */
+		int[] nameEnds = new int[16];
+		char[] nameChars = new char[256];
+
+		int size;
+
+		void add(int packageNode, String className)
+		{
+			int start = className.lastIndexOf(File.separatorChar) + 1;
+			int nameStart = nameStart(size), nameEnd = nameStart + className.length() - start;
+
+			if (size == packageNodes.length)
+			{
+				packageNodes = grow(packageNodes, size);
+				nameEnds = grow(nameEnds, size);
+			}
+			if (nameEnd > nameChars.length)
+			{
+				char[] newNameChars = new char[Math.max(nameEnd, 2 * nameChars.length)];
+				System.arraycopy(nameChars, 0, newNameChars, 0, nameStart);
+				nameChars = newNameChars;
+			}
+
+			className.getChars(start, className.length(), nameChars, nameStart);
+			packageNodes[size] = packageNode;
+			nameEnds[size++] = nameEnd;
+		}
+
+		void appendSimpleName(int i, StringBuilder sb)
+		{
+			int nameStart = nameStart(i);
+			sb.append(nameChars, nameStart, nameEnds[i] - nameStart);
+		}
+
+		String simpleName(int i)
+		{
+			int nameStart = nameStart(i);
+			return new String(nameChars, nameStart, nameEnds[i] - nameStart);
+		}
+
+		private int nameStart(int i)
+		{
+			return i == 0 ? 0 : nameEnds[i - 1];
+		}
+
+		private static int[] grow(int[] array, int size)
+		{
+			int[] newArray = new int[2 * size];
+			System.arraycopy(array, 0, newArray, 0, size);
+			return newArray;
+		}
+	}
+
+	VersionSortedListing(PrintStream err)
+	{
+		this.err = err;
+	}
+
+	void add(Success success)
+	{
+		if (spillFilesByVersion == null && noOfClassesInMemory == MAX_CLASSES_IN_MEMORY && !spillFailed)
+			spill();
+
+		if (spillFilesByVersion != null)
+		{
+			try
+			{
+				write(success.version, success.containerPath, success.className);
+				return;
+			}
+			catch (IOException e)
+			{
+				err.printf("Unable to write to the spill file: %s. Keeping the classes in memory%n", e.getMessage());
+				spillFailed = true;
+				readSpillFiles();
+			}
+		}
+
+		add(success.version, success.containerPath, success.className);
+	}
+
+	private void add(Version version, String containerPath, String className)
+	{
+		ClassList classList = classesByVersion.get(version);
+		if (classList == null)
+			classesByVersion.put(version, classList = new ClassList());
+		classList.add(pathTable.packageNode(pathTable.containerNode(containerPath), className), className);
+		noOfClassesInMemory++;
+	}
+
+	boolean isEmpty()
+	{
+		return classesByVersion.isEmpty() && (spillFilesByVersion == null || spillFilesByVersion.isEmpty());
+	}
+
+	/** Moves all the classes in memory to the spill files */
+	private void spill()
+	{
+		spillFilesByVersion = new TreeMap<Version, SpillFile>();
+		try
+		{
+			StringBuilder sb = new StringBuilder();
+			for (Entry<Version, ClassList> entry : classesByVersion.entrySet())
+			{
+				ClassList classList = entry.getValue();
+				for (int i = 0; i < classList.size; i++)
+				{
+					sb.setLength(0);
+					pathTable.appendPath(classList.packageNodes[i], sb);
+					write(entry.getKey(), sb.toString(), classList.simpleName(i));
+				}
+			}
+
+			classesByVersion.clear();
+			noOfClassesInMemory = 0;
+			pathTable = new PathTable();
+		}
+		catch (IOException e)
+		{
+			err.printf("Unable to create the spill file: %s. Keeping the classes in memory%n", e.getMessage());
+			spillFailed = true;
+			deleteSpillFiles();
+		}
+	}
+
+	private void write(Version version, String containerPath, String className) throws IOException
+	{
+		SpillFile spillFile = spillFilesByVersion.get(version);
+		if (spillFile == null)
+			spillFilesByVersion.put(version, spillFile = new SpillFile(File.createTempFile("cvc-spill", ".txt")));
+
+		// One line per class. i.e. assumes that the paths don't have line breaks
+		spillFile.writer.write(containerPath);
+		spillFile.writer.write(File.separatorChar);
+		spillFile.writer.write(className);
+		spillFile.writer.write('\n');
+	}
+
+	/** Moves the classes from the spill files back to memory, after a write failure */
+	private void readSpillFiles()
+	{
+		try
+		{
+			for (Entry<Version, SpillFile> entry : spillFilesByVersion.entrySet())
+			{
+				entry.getValue().writer.close();
+
+				// All the classes of a version are either in memory or in a spill file
+				BufferedReader reader = reader(entry.getValue().file);
+				try
+				{
+					for (String line; (line = reader.readLine()) != null;)
+					{
+						// Printed as containerPath/className. So it doesn't matter if the split is not the original
+						int index = line.lastIndexOf(File.separatorChar);
+						add(entry.getKey(), line.substring(0, index), line.substring(index + 1));
+					}
+				}
+				finally
+				{
+					reader.close();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			err.printf("Unable to read the spill file: %s. Some classes may be missing%n", e.getMessage());
+		}
+		finally
+		{
+			deleteSpillFiles();
+		}
+	}
+
+	/**
+	 * Prints all the classes, one line per class: {@code version containerPath/className}. And
+	 * deletes the spill files
+	 */
+	void print(PrintStream out) throws IOException
+	{
+		if (spillFilesByVersion == null)
+		{
+			StringBuilder sb = new StringBuilder();
+			for (Entry<Version, ClassList> entry : classesByVersion.entrySet())
+			{
+				String versionStr = ProgressUpdater.versionStr(entry.getKey());
+				ClassList classList = entry.getValue();
+				for (int i = 0; i < classList.size; i++)
+				{
+					sb.setLength(0);
+					pathTable.appendPath(classList.packageNodes[i], sb);
+					classList.appendSimpleName(i, sb.append(File.separatorChar));
+					out.printf("%s %s%n", versionStr, sb);
+				}
+			}
+			return;
+		}
+
+		try
+		{
+			for (Entry<Version, SpillFile> entry : spillFilesByVersion.entrySet())
+			{
+				String versionStr = ProgressUpdater.versionStr(entry.getKey());
+
+				SpillFile spillFile = entry.getValue();
+				spillFile.writer.close();
+
+				BufferedReader reader = reader(spillFile.file);
+				try
+				{
+					for (String line; (line = reader.readLine()) != null;)
+						out.printf("%s %s%n", versionStr, line);
+				}
+				finally
+				{
+					reader.close();
+				}
+			}
+		}
+		finally
+		{
+			deleteSpillFiles();
+		}
+	}
+
+	private static BufferedReader reader(File file) throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+	}
+
+	private void deleteSpillFiles()
+	{
+		for (SpillFile spillFile : spillFilesByVersion.values())
+		{
+			try
+			{
+				spillFile.writer.close();
+			}
+			catch (IOException e)
+			{
+				// Deleted anyway
+			}
+			if (!spillFile.file.delete())
+				spillFile.file.deleteOnExit();
+		}
+		spillFilesByVersion = null;
+	}
+}
@@ -0,0 +1,432 @@
+package raju.javautils.cvc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import raju.javautils.cvc.Result.ContainerSummary;
+
+/**
+ * Scans the input paths once and then watches them for changes (--watch, verbosity level 1). Only
+ * the files created or modified since are rescanned, and the totals are updated by the
+ * difference. So the cost of a rescan is proportional to what changed, not to the size of the
+ * tree.
+ * <p>
+ * A burst of changes (e.g. a build writing many jars) is collected until there are no changes for
+ * {@link #QUIET_MILLIS}, and rescanned at once.
+ * <p>
+ * Prints the changed files, the containers with classes newer than the running Java, and the
+ * totals by version after each rescan.
+ */
+final class Watcher
+{
+	/** A burst of changes ends after this much quiet time, or after {@link #MAX_BURST_MILLIS} */
+	private static final long QUIET_MILLIS = 500, MAX_BURST_MILLIS = 5000;
+
+	private static final long POLL_MILLIS = 1000;
+
+	private static final String CHANGE_FORMAT_STR = "%-8s %-20s %s%n";
+
+	private final Scanner scanner;
+	private final Collection<File> inputPaths;
+	private final int parallelism;
+	private final PrintStream out, err;
+
+	/** Classes newer than this can't be loaded by the running Java */
+	private final int runtimeClassMajor;
+
+	/** Scanned files by path. Sorted, so that the files in a folder are a sub map */
+	private final SortedMap<String, FileState> files = new TreeMap<String, FileState>();
+
+	/** Paths of the folders being watched (recursively). Sorted, like the {@link #files} */
+	private final SortedSet<String> dirs = new TreeSet<String>();
+
+	/** Paths of the files provided as input. Their parent folders are watched only for them */
+	private final Set<String> inputFiles = new HashSet<String>();
+
+	/** No. of classes by version, of all the {@link #files} */
+	private final VersionCounts totals = new VersionCounts();
+
+	private ChangeWatcher changeWatcher;
+	private ExecutorService executor;
+
+	private static final class FileState
+	{
+		/** At the time of the scan. The file is rescanned if either of these changes */
+		final long size, lastModified;
+
+		List<ContainerSummary> summaries;
+
+		FileState(File file)
+		{
+			this.size = file.length();
+			this.lastModified = file.lastModified();
+		}
+	}
+
+	Watcher(Scanner scanner, Collection<File> inputPaths, int parallelism, PrintStream out, PrintStream err)
+	{
+		this.scanner = scanner;
+		this.inputPaths = inputPaths;
+		this.parallelism = parallelism;
+		this.out = out;
+		this.err = err;
+
+		String classVersion = System.getProperty("java.class.version"); // e.g. 52.0
+		this.runtimeClassMajor = Integer.parseInt(classVersion.substring(0, classVersion.indexOf('.')));
+	}
+
+	/** Watches until interrupted or the output can't be written (e.g. the daemon client is gone) */
+	void run() throws IOException, InterruptedException
+	{
+		changeWatcher = newChangeWatcher();
+		executor = Executors.newFixedThreadPool(parallelism);
+		try
+		{
+			long startTime = System.currentTimeMillis();
+
+			Set<File> toScan = new LinkedHashSet<File>();
+			for (File inputPath : inputPaths)
+			{
+				// Same as the paths of the changes
+				inputPath = inputPath.getAbsoluteFile();
+				if (inputPath.isDirectory())
+				{
+					walk(inputPath, toScan);
+				}
+				else if (inputPath.isFile())
+				{
+					inputFiles.add(inputPath.getPath());
+					changeWatcher.register(inputPath.getParentFile());
+					if (scanner.accept(inputPath))
+						toScan.add(inputPath);
+				}
+				else
+				{
+					err.printf("ERROR: Unable to find file: %s%n", inputPath);
+				}
+			}
+
+			scan(toScan, null);
+
+			out.printf("Scanned %d files in %d ms%n", files.size(), System.currentTimeMillis() - startTime);
+			for (FileState state : files.values())
+				printNewerVersions(state.summaries);
+			printTotals();
+			out.printf("Watching %d folders for changes. Ctrl+C to stop%n", dirs.size());
+
+			while (!out.checkError())
+			{
+				Set<File> changes = changeWatcher.poll(POLL_MILLIS);
+				if (changes.isEmpty())
+					continue;
+
+				long burstStartTime = System.currentTimeMillis();
+				for (Set<File> moreChanges; System.currentTimeMillis() - burstStartTime < MAX_BURST_MILLIS
+						&& !(moreChanges = changeWatcher.poll(QUIET_MILLIS)).isEmpty();)
+					changes.addAll(moreChanges);
+
+				update(changes);
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			changeWatcher.close();
+		}
+	}
+
+	/** Rescans the created and modified files and forgets the deleted ones */
+	private void update(Set<File> changes) throws InterruptedException
+	{
+		Set<File> toScan = new LinkedHashSet<File>();
+		Map<String, String> changed = new LinkedHashMap<String, String>();
+
+		for (File file : changes)
+		{
+			String path = file.getPath();
+			if (file.isDirectory())
+			{
+				if (dirs.contains(path))
+					reconcile(file, toScan, changed); // Events are lost
+				else if (dirs.contains(file.getParent()))
+					walk(file, toScan);
+			}
+			else if (file.isFile())
+			{
+				if ((dirs.contains(file.getParent()) || inputFiles.contains(path)) && scanner.accept(file)
+						&& isModified(file))
+					toScan.add(file);
+			}
+			else
+			{
+				remove(path, changed);
+			}
+		}
+
+		scan(toScan, changed);
+
+		if (changed.isEmpty())
+			return;
+
+		for (Entry<String, String> change : changed.entrySet())
+		{
+			FileState state = files.get(change.getKey());
+			String versionsStr = state == null ? "" : versionCountsStr(state.summaries);
+			out.printf(CHANGE_FORMAT_STR, change.getValue(), versionsStr, change.getKey());
+			if (state != null)
+				printNewerVersions(state.summaries);
+		}
+		printTotals();
+	}
+
+	/** Registers the {@code dir} and its sub folders, and collects their new and modified files */
+	private void walk(File dir, Set<File> toScan)
+	{
+		// Before listing, so that the files created in between are not missed
+		try
+		{
+			changeWatcher.register(dir);
+		}
+		catch (IOException e)
+		{
+			err.printf("ERROR: Unable to watch the folder: %s: %s%n", dir, e);
+			return;
+		}
+		dirs.add(dir.getPath());
+
+		File[] children = dir.listFiles();
+		if (children == null)
+		{
+			err.printf("ERROR: Unable to list the folder: %s%n", dir);
+			return;
+		}
+
+		for (File child : children)
+		{
+			if (child.isDirectory())
+				walk(child, toScan);
+			else if (scanner.accept(child) && isModified(child))
+				toScan.add(child);
+		}
+	}
+
+	/** Compares the files in a watched folder with the previous scan, without its sub folders */
+	private void reconcile(File dir, Set<File> toScan, Map<String, String> changed)
+	{
+		File[] children = dir.listFiles();
+		if (children == null)
+			return;
+
+		Set<String> childPaths = new HashSet<String>();
+		for (File child : children)
+		{
+			childPaths.add(child.getPath());
+			if (child.isDirectory())
+			{
+				if (!dirs.contains(child.getPath()))
+					walk(child, toScan);
+			}
+			else if (scanner.accept(child) && isModified(child))
+				toScan.add(child);
+		}
+
+		List<String> deleted = new ArrayList<String>();
+		for (String path : subMap(files, dir.getPath()).keySet())
+			if (new File(path).getParent().equals(dir.getPath()) && !childPaths.contains(path))
+				deleted.add(path);
+		for (String path : deleted)
+			remove(path, changed);
+	}
+
+	private boolean isModified(File file)
+	{
+		FileState state = files.get(file.getPath());
+		return state == null || state.size != file.length() || state.lastModified != file.lastModified();
+	}
+
+	/** Forgets the file, or the folder and everything in it */
+	private void remove(String path, Map<String, String> changed)
+	{
+		FileState state = files.remove(path);
+		if (state != null)
+		{
+			add(state.summaries, -1);
+			changed.put(path, "Deleted");
+		}
+
+		for (Iterator<Entry<String, FileState>> it = subMap(files, path).entrySet().iterator(); it.hasNext();)
+		{
+			Entry<String, FileState> entry = it.next();
+			add(entry.getValue().summaries, -1);
+			changed.put(entry.getKey(), "Deleted");
+			it.remove();
+		}
+
+		dirs.remove(path);
+		subMap(dirs, path).clear();
+	}
+
+	/**
+	 * Scans the files in parallel and replaces their previous results (if any)
+	 *
+	 * @param changed
+	 *          Created and modified files are added to this. May be null
+	 */
+	private void scan(Set<File> toScan, Map<String, String> changed) throws InterruptedException
+	{
+		Map<File, FileState> states = new LinkedHashMap<File, FileState>(2 * toScan.size());
+		List<Future<List<Result>>> futures = new ArrayList<Future<List<Result>>>(toScan.size());
+		for (final File file : toScan)
+		{
+			// Before the scan, so that a modification during the scan is seen as a change
+			states.put(file, new FileState(file));
+			futures.add(executor.submit(new Callable<List<Result>>()
+			{
+				public List<Result> call()
+				{
+					return scanner.scanFile(file);
+				}
+			}));
+		}
+
+		Iterator<Future<List<Result>>> futuresIt = futures.iterator();
+		for (Entry<File, FileState> entry : states.entrySet())
+		{
+			List<Result> results;
+			try
+			{
+				results = futuresIt.next().get();
+			}
+			catch (ExecutionException e)
+			{
+				err.printf("ERROR: Unable to scan the file: %s: %s%n", entry.getKey(), e.getCause());
+				continue;
+			}
+
+			FileState state = entry.getValue();
+			state.summaries = new ArrayList<ContainerSummary>();
+			for (Result result : results)
+			{
+				if (result.isFailure())
+					err.println(result.getFailure().failureMessage);
+				else if (result.isContainerSummary())
+					state.summaries.add(result.getContainerSummary());
+			}
+
+			String path = entry.getKey().getPath();
+			FileState previous = files.put(path, state);
+			if (previous != null)
+				add(previous.summaries, -1);
+			add(state.summaries, 1);
+
+			if (changed != null)
+				changed.put(path, previous == null ? "Created" : "Modified");
+		}
+	}
+
+	/** Adds ({@code sign} 1) or subtracts ({@code sign} -1) the counts to/from the {@link #totals} */
+	private void add(List<ContainerSummary> summaries, int sign)
+	{
+		for (ContainerSummary summary : summaries)
+			for (Version version : summary.counts.versions())
+				totals.add(version, sign * summary.counts.count(version));
+	}
+
+	private void printNewerVersions(List<ContainerSummary> summaries)
+	{
+		for (ContainerSummary summary : summaries)
+		{
+			StringBuilder sb = new StringBuilder();
+			for (Version version : summary.counts.versions())
+				if (version.classMajor > runtimeClassMajor)
+					sb.append(sb.length() == 0 ? "" : ",").append(ProgressUpdater.versionStr(version)).append('(')
+							.append(summary.counts.count(version)).append(')');
+			if (sb.length() != 0)
+				out.printf("WARNING: Newer than the running Java (%s): %s %s%n", System.getProperty("java.version"), sb,
+						summary.containerPath);
+		}
+	}
+
+	private void printTotals()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Version version : totals.versions())
+			if (totals.count(version) != 0)
+				sb.append(sb.length() == 0 ? "" : ", ").append(ProgressUpdater.versionStr(version)).append('(')
+						.append(totals.count(version)).append(')');
+		out.printf("%tT Totals: %s (%d files)%n", System.currentTimeMillis(), sb.length() == 0 ? "No classes" : sb,
+				files.size());
+	}
+
+	/** e.g. 1.8(120),11(3) */
+	private static String versionCountsStr(List<ContainerSummary> summaries)
+	{
+		VersionCounts counts = new VersionCounts();
+		for (ContainerSummary summary : summaries)
+			for (Version version : summary.counts.versions())
+				counts.add(version, summary.counts.count(version));
+		return counts.toString();
+	}
+
+	/** @return entries of the paths in the {@code dirPath} folder (recursively) */
+	private static <V> SortedMap<String, V> subMap(SortedMap<String, V> map, String dirPath)
+	{
+		return map.subMap(dirPath + File.separatorChar, dirPath + (char) (File.separatorChar + 1));
+	}
+
+	private static SortedSet<String> subMap(SortedSet<String> set, String dirPath)
+	{
+		return set.subSet(dirPath + File.separatorChar, dirPath + (char) (File.separatorChar + 1));
+	}
+
+	/**
+	 * {@link NioChangeWatcher} requires Java 7+ (src-nio), so it's loaded by name. Falls back to
+	 * the {@link PollingChangeWatcher}
+	 */
+	private ChangeWatcher newChangeWatcher()
+	{
+		try
+		{
+			return (ChangeWatcher) Class.forName("raju.javautils.cvc.NioChangeWatcher").getDeclaredConstructor()
+					.newInstance();
+		}
+		catch (ClassNotFoundException e)
+		{
+			// Not in this build
+		}
+		catch (LinkageError e)
+		{
+			// Running on Java 5 or 6
+		}
+		catch (InvocationTargetException e)
+		{
+			err.printf("WARNING: Unable to use the file system events, polling instead: %s%n", e.getCause());
+		}
+		catch (Exception e)
+		{
+			err.printf("WARNING: Unable to use the file system events, polling instead: %s%n", e);
+		}
+		return new PollingChangeWatcher();
+	}
+}
@@ -0,0 +1,51 @@
+package raju.javautils.cvc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ContainerVersionCountsTest
+{
+	private static final Version JAVA_8 = Version.fromClassVersion(52, 0), JAVA_11 = Version.fromClassVersion(55, 0);
+
+	/** An uncached version */
+	private static final Version FUTURE = Version.fromClassVersion(0xFFF0, 0);
+
+	@Test
+	public void countsByContainerAndVersion()
+	{
+		ContainerVersionCounts counts = new ContainerVersionCounts(true);
+		counts.add("a.jar", JAVA_11, 2);
+		counts.add("b.jar", JAVA_8, 3);
+		counts.add("a.jar", JAVA_8, 1);
+		counts.add("a.jar", JAVA_11, 4);
+
+		assertEquals(2, counts.noOfContainers());
+		assertArrayEquals(new Version[] { JAVA_8, JAVA_11 }, counts.versions());
+		assertEquals(1, counts.count(0, JAVA_8));
+		assertEquals(6, counts.count(0, JAVA_11));
+		assertEquals(3, counts.count(1, JAVA_8));
+		assertEquals(0, counts.count(1, JAVA_11));
+		assertArrayEquals(new int[] { 1, 0 }, counts.containerIds(JAVA_8));
+		assertArrayEquals(new int[] { 0 }, counts.containerIds(JAVA_11));
+	}
+
+	/** Versions not found are not added by the queries */
+	@Test
+	public void queriesDontAddVersions()
+	{
+		ContainerVersionCounts counts = new ContainerVersionCounts(true);
+		counts.add("a.jar", JAVA_8, 1);
+
+		assertEquals(0, counts.count(0, JAVA_11));
+		assertEquals(0, counts.count(0, FUTURE));
+		assertEquals(0, counts.containerIds(JAVA_11).length);
+		assertEquals(0, counts.containerIds(FUTURE).length);
+		assertArrayEquals(new Version[] { JAVA_8 }, counts.versions());
+
+		counts.add("a.jar", FUTURE, 2);
+		assertEquals(2, counts.count(0, FUTURE));
+		assertArrayEquals(new Version[] { JAVA_8, FUTURE }, counts.versions());
+	}
+}
@@ -0,0 +1,50 @@
+package raju.javautils.cvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ResultPipelineTest
+{
+	private static final Version JAVA_8 = Version.fromClassVersion(52, 0);
+
+	@Test(timeout = 10000)
+	public void batchesAreQueuedInOrder() throws InterruptedException
+	{
+		ResultPipeline results = new ResultPipeline(ResultPipeline.DEFAULT_MAX_QUEUED_BATCHES, new ScanMetrics());
+		for (int i = 0; i < ResultPipeline.BATCH_SIZE + 1; i++)
+			results.add(Result.success("a.jar", "A" + i, JAVA_8));
+		results.close();
+
+		List<Result> batch = results.poll(0);
+		assertEquals(ResultPipeline.BATCH_SIZE, batch.size());
+		assertEquals("A0", batch.get(0).getSuccess().className);
+		batch = results.poll(0);
+		assertEquals(1, batch.size());
+		assertEquals("A" + ResultPipeline.BATCH_SIZE, batch.get(0).getSuccess().className);
+		assertNull(results.poll(0));
+	}
+
+	/** A partial batch is not held back until the next result (e.g. the producer is busy with a large file) */
+	@Test(timeout = 10000)
+	public void staleBatchIsTakenByTheConsumer() throws InterruptedException
+	{
+		ResultPipeline results = new ResultPipeline(ResultPipeline.DEFAULT_MAX_QUEUED_BATCHES, new ScanMetrics());
+		results.add(Result.success("a.jar", "A", JAVA_8));
+
+		assertTrue(results.poll(0).isEmpty());
+		List<Result> batch = results.poll(Long.MAX_VALUE);
+		assertEquals(1, batch.size());
+		assertEquals("A", batch.get(0).getSuccess().className);
+
+		// Nothing more, until the producer is done
+		assertTrue(results.poll(TimeUnit.MILLISECONDS.toNanos(100)).isEmpty());
+		results.close();
+		assertNull(results.poll(Long.MAX_VALUE));
+	}
+}
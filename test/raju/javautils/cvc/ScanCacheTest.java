@@ -0,0 +1,370 @@
+package raju.javautils.cvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import raju.javautils.cvc.Result.ContainerSummary;
+
+public class ScanCacheTest
+{
+	private static final Version JAVA_8 = Version.fromClassVersion(52, 0), JAVA_11 = Version.fromClassVersion(55, 0);
+
+	private static final Set<String> JARS = fileExtns("jar");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws IOException
+	{
+		File cacheFile = savedCache();
+
+		ScanCache cache = new ScanCache(cacheFile, JARS);
+		assertTrue(cache.isLoaded());
+
+		ScanCache.Entry entry = cache.lookup(path("a.jar"));
+		assertEquals(10, entry.size);
+		assertEquals(20, entry.lastModified);
+		assertEquals(30, entry.fingerprint);
+		assertEquals(2, entry.summaries.size());
+		assertEquals(path("a.jar"), entry.summaries.get(0).containerPath);
+		assertEquals("[52.0=3, 55.0=4]", countsStr(entry.summaries.get(0).counts));
+		assertEquals(path("a.jar") + File.separator + "lib" + File.separator + "b.jar", entry.summaries.get(1).containerPath);
+		assertEquals("[55.0=5]", countsStr(entry.summaries.get(1).counts));
+
+		entry = cache.lookup(path("x" + File.separator + "A.class"));
+		assertEquals(path("x"), entry.summaries.get(0).containerPath);
+		assertEquals("[52.0=1]", countsStr(entry.summaries.get(0).counts));
+
+		assertNull(cache.lookup(path("missing.jar")));
+		assertEquals(2, cache.entries().size());
+	}
+
+	@Test
+	public void missingOrInvalidFileIsEmpty() throws IOException
+	{
+		File cacheFile = new File(tempFolder.getRoot(), "missing.cvcc");
+		assertFalse(new ScanCache(cacheFile, JARS).isLoaded());
+
+		write(cacheFile, new byte[100]);
+		ScanCache cache = new ScanCache(cacheFile, JARS);
+		assertFalse(cache.isLoaded());
+		assertNull(cache.lookup(path("a.jar")));
+		assertTrue(cache.entries().isEmpty());
+	}
+
+	@Test
+	public void truncatedFileIsEmpty() throws IOException
+	{
+		File cacheFile = savedCache();
+		truncate(cacheFile, cacheFile.length() - 1);
+		assertFalse(new ScanCache(cacheFile, JARS).isLoaded());
+
+		truncate(cacheFile, 10);
+		assertFalse(new ScanCache(cacheFile, JARS).isLoaded());
+	}
+
+	/** Nested archives are opened only for the file extensions. So a cache of other ones is not used */
+	@Test
+	public void cacheOfOtherFileExtnsIsEmpty() throws IOException
+	{
+		File cacheFile = savedCache();
+		assertTrue(new ScanCache(cacheFile, fileExtns("JAR")).isLoaded());
+		assertFalse(new ScanCache(cacheFile, fileExtns("jar", "war")).isLoaded());
+		assertFalse(new ScanCache(cacheFile, fileExtns("war")).isLoaded());
+		assertEquals("jar", new ScanCache(cacheFile, fileExtns("war")).otherFileExtns());
+		assertNull(new ScanCache(cacheFile, JARS).otherFileExtns());
+	}
+
+	/** A table without an empty slot is probed only once */
+	@Test(timeout = 10000)
+	public void fullTableIsNotProbedForever() throws IOException
+	{
+		File cacheFile = savedCache();
+		int tableOffset = tableOffset(cacheFile);
+		fill(cacheFile, tableOffset, (int) cacheFile.length() - tableOffset, (byte) 0x7F);
+
+		ScanCache cache = new ScanCache(cacheFile, JARS);
+		assertTrue(cache.isLoaded());
+		assertNull(cache.lookup(path("a.jar")));
+	}
+
+	@Test(timeout = 10000)
+	public void corruptSlotsAreReported() throws IOException
+	{
+		File cacheFile = savedCache();
+		int tableOffset = tableOffset(cacheFile);
+		int hash = path("a.jar").hashCode();
+
+		// Hash of the path, with an offset beyond the entries
+		RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+		try
+		{
+			raf.seek(tableOffset);
+			while (raf.getFilePointer() < raf.length())
+			{
+				raf.writeInt(hash);
+				raf.writeInt(Integer.MAX_VALUE);
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		ScanCache cache = new ScanCache(cacheFile, JARS);
+		try
+		{
+			cache.lookup(path("a.jar"));
+			fail("lookup of a corrupt entry");
+		}
+		catch (IOException e)
+		{
+			assertCorrupt(e);
+		}
+		assertEntriesCorrupt(cache);
+	}
+
+	/** Paths of the corrupt entries don't match, i.e. they are not found */
+	@Test(timeout = 10000)
+	public void corruptEntriesAreReported() throws IOException
+	{
+		File cacheFile = savedCache();
+		int entriesOffset = entriesOffset(cacheFile);
+		fill(cacheFile, entriesOffset, tableOffset(cacheFile) - entriesOffset, (byte) 0xFF);
+
+		ScanCache cache = new ScanCache(cacheFile, JARS);
+		assertNull(cache.lookup(path("a.jar")));
+		assertEntriesCorrupt(cache);
+	}
+
+	@Test
+	public void memoryCacheEvictsLeastRecentlyUsed() throws IOException
+	{
+		ScanCache cache = new ScanCache(2);
+		cache.put(memoryEntry("a.jar"));
+		cache.put(memoryEntry("b.jar"));
+		cache.lookup("a.jar");
+		cache.put(memoryEntry("c.jar"));
+
+		assertEquals("a.jar", cache.lookup("a.jar").path);
+		assertNull(cache.lookup("b.jar"));
+		assertEquals("c.jar", cache.lookup("c.jar").path);
+	}
+
+	/** Scans of different file extensions share the entries (and their max. no.), but don't see each other's */
+	@Test
+	public void memoryCacheIsByFileExtns() throws IOException
+	{
+		ScanCache cache = new ScanCache(2);
+		ScanCache jarsCache = cache.forScan(JARS, null), warsCache = cache.forScan(fileExtns("war", "JAR"), null);
+		jarsCache.put(memoryEntry("a.war"));
+		assertNull(warsCache.lookup("a.war"));
+		assertEquals("a.war", cache.forScan(fileExtns("Jar"), null).lookup("a.war").path);
+
+		warsCache.put(memoryEntry("a.war"));
+		warsCache.put(memoryEntry("b.war"));
+		assertNull(jarsCache.lookup("a.war"));
+		assertEquals("a.war", warsCache.lookup("a.war").path);
+	}
+
+	/** Relative paths of the scans of different folders (e.g. of the daemon's clients) are different files */
+	@Test
+	public void memoryCacheIsByFolder() throws IOException
+	{
+		ScanCache cache = new ScanCache(4);
+		File dir1 = tempFolder.newFolder("dir1"), dir2 = tempFolder.newFolder("dir2");
+		cache.forScan(JARS, dir1).put(memoryEntry("a.jar"));
+		cache.forScan(JARS, dir1).put(memoryEntry(new File(dir2, "b.jar").getPath()));
+
+		assertEquals("a.jar", cache.forScan(JARS, dir1).lookup("a.jar").path);
+		assertNull(cache.forScan(JARS, dir2).lookup("a.jar"));
+		assertNull(cache.forScan(JARS, null).lookup("a.jar"));
+		assertEquals("b.jar", new File(cache.forScan(JARS, dir2).lookup(new File(dir2, "b.jar").getPath()).path).getName());
+	}
+
+	/** Files whose cache entries are corrupt are scanned */
+	@Test(timeout = 10000)
+	public void scanWithCorruptCache() throws IOException
+	{
+		File folder = tempFolder.newFolder("classes");
+		write(new File(folder, "A.class"), new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 52 });
+
+		File cacheFile = new File(tempFolder.getRoot(), "scan.cvcc");
+		Set<String> fileExtns = fileExtns("class");
+		ScanCache cache = new ScanCache(cacheFile, fileExtns);
+		new Scanner(Collections.singletonList(folder), fileExtns, 1, false, true, cache, null).scan();
+		assertTrue(new ScanCache(cacheFile, fileExtns).isLoaded());
+
+		int tableOffset = tableOffset(cacheFile);
+		int entriesOffset = entriesOffset(cacheFile);
+		fill(cacheFile, entriesOffset, tableOffset - entriesOffset, (byte) 0xFF);
+		fill(cacheFile, tableOffset, (int) cacheFile.length() - tableOffset, (byte) 0x7F);
+
+		Scanner scanner = new Scanner(Collections.singletonList(folder), fileExtns, 1, false, true,
+				new ScanCache(cacheFile, fileExtns), null);
+		scanner.scan();
+		List<Result> results = scanner.getNewResults();
+		assertEquals(1, results.size());
+		assertEquals("[52.0=1]", countsStr(results.get(0).getContainerSummary().counts));
+		assertEquals(0, scanner.noOfFilesFromCache());
+	}
+
+	private static void assertEntriesCorrupt(ScanCache cache)
+	{
+		assertTrue(cache.isLoaded());
+		try
+		{
+			cache.entries();
+			fail("entries of a corrupt cache");
+		}
+		catch (IOException e)
+		{
+			assertCorrupt(e);
+		}
+	}
+
+	private static void assertCorrupt(IOException e)
+	{
+		assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt cache file"));
+	}
+
+	/** An archive with a nested archive and a class file */
+	private File savedCache() throws IOException
+	{
+		File cacheFile = new File(tempFolder.getRoot(), "cache.cvcc");
+		ScanCache cache = new ScanCache(cacheFile, JARS);
+
+		String archivePath = path("a.jar");
+		cache.put(new ScanCache.Entry(archivePath, 10, 20, 30, Arrays.asList(
+				new ContainerSummary(archivePath, counts(JAVA_8, 3, JAVA_11, 4)),
+				new ContainerSummary(archivePath + File.separator + "lib" + File.separator + "b.jar", counts(JAVA_11, 5)))));
+		cache.put(new ScanCache.Entry(path("x" + File.separator + "A.class"), 1, 2, 0,
+				Collections.singletonList(new ContainerSummary(path("x"), counts(JAVA_8, 1)))));
+		cache.save();
+		return cacheFile;
+	}
+
+	private static ScanCache.Entry memoryEntry(String path)
+	{
+		return new ScanCache.Entry(path, 1, 2, 0, Collections.singletonList(new ContainerSummary(path, counts(JAVA_8, 1))));
+	}
+
+	/** As the Main creates them */
+	private static Set<String> fileExtns(String... fileExtns)
+	{
+		Set<String> set = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		set.addAll(Arrays.asList(fileExtns));
+		return set;
+	}
+
+	private String path(String relativePath)
+	{
+		return new File(tempFolder.getRoot(), relativePath).getPath();
+	}
+
+	private static VersionCounts counts(Object... versionsAndCounts)
+	{
+		VersionCounts counts = new VersionCounts();
+		for (int i = 0; i < versionsAndCounts.length; i += 2)
+			counts.add((Version) versionsAndCounts[i], (Integer) versionsAndCounts[i + 1]);
+		return counts;
+	}
+
+	private static String countsStr(VersionCounts counts)
+	{
+		StringBuilder sb = new StringBuilder("[");
+		for (Version version : counts.versions())
+			sb.append(sb.length() == 1 ? "" : ", ").append(version.classMajor).append('.').append(version.classMinor)
+					.append('=').append(counts.count(version));
+		return sb.append(']').toString();
+	}
+
+	private static int tableOffset(File cacheFile) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+		try
+		{
+			raf.seek(16);
+			return raf.readInt();
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/** After the file extensions */
+	private static int entriesOffset(File cacheFile) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+		try
+		{
+			raf.seek(20);
+			return 22 + raf.readUnsignedShort();
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private static void fill(File file, int offset, int length, byte value) throws IOException
+	{
+		byte[] bytes = new byte[length];
+		Arrays.fill(bytes, value);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.seek(offset);
+			raf.write(bytes);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private static void truncate(File file, long length) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(length);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private static void write(File file, byte[] bytes) throws IOException
+	{
+		FileOutputStream fos = new FileOutputStream(file);
+		try
+		{
+			fos.write(bytes);
+		}
+		finally
+		{
+			fos.close();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package raju.javautils.cvc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotTest
+{
+	private static final Version JAVA_8 = Version.fromClassVersion(52, 0), JAVA_11 = Version.fromClassVersion(55, 0);
+
+	/** Offset of the no. of containers, in a snapshot of an empty source and without failures */
+	private static final int NO_OF_CONTAINERS_OFFSET = 4 + 4 + 1 + 8 + 1;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws IOException
+	{
+		File file = new File(tempFolder.getRoot(), "host1" + Snapshot.FILE_EXTN);
+		Snapshot.Writer writer = new Snapshot.Writer(file, "host1", 1234);
+		writer.failure("ERROR: a.jar");
+
+		ContainerVersionCounts counts = new ContainerVersionCounts(true);
+		counts.add("/lib/a.jar", JAVA_8, 3);
+		counts.add("/lib/a.jar", JAVA_11, 300);
+		counts.add("/lib/b.jar", JAVA_11, 2);
+		counts.sampled("/lib/b.jar");
+		writer.finish(counts);
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+
+		Snapshot snapshot = Snapshot.read(file);
+		assertEquals("host1", snapshot.source);
+		assertEquals(1234, snapshot.createdTime);
+		assertEquals(Arrays.asList("ERROR: a.jar"), snapshot.failures);
+		assertEquals(2, snapshot.noOfContainers());
+
+		ContainerVersionCounts readCounts = new ContainerVersionCounts(true);
+		snapshot.addTo(readCounts);
+		assertEquals(2, readCounts.noOfContainers());
+		assertEquals("/lib/a.jar", readCounts.containerPath(0));
+		assertEquals("/lib/b.jar", readCounts.containerPath(1));
+		assertArrayEquals(new Version[] { JAVA_8, JAVA_11 }, readCounts.versions());
+		assertEquals(3, readCounts.count(0, JAVA_8));
+		assertEquals(300, readCounts.count(0, JAVA_11));
+		assertEquals(0, readCounts.count(1, JAVA_8));
+		assertEquals(2, readCounts.count(1, JAVA_11));
+		assertFalse(readCounts.isSampled(0));
+		assertTrue(readCounts.isSampled(1));
+	}
+
+	@Test
+	public void truncatedFileIsRejected() throws IOException
+	{
+		File file = savedSnapshot();
+		truncate(file, file.length() - 1);
+		assertRejected(file, null);
+
+		truncate(file, 6);
+		assertRejected(file, null);
+	}
+
+	@Test
+	public void otherFileIsRejected() throws IOException
+	{
+		File file = savedSnapshot();
+		write(file, 0, (byte) 'P', (byte) 'K', 3, 4);
+		assertRejected(file, "Not a snapshot file");
+	}
+
+	/** Nothing is allocated for a no. of containers that the file can't hold */
+	@Test
+	public void hugeCountIsRejected() throws IOException
+	{
+		File file = savedSnapshot();
+		write(file, NO_OF_CONTAINERS_OFFSET, (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07);
+		assertRejected(file, "Corrupt snapshot file");
+	}
+
+	/** Ids of a column are in ascending order, each container once */
+	@Test
+	public void repeatedContainerIdIsRejected() throws IOException
+	{
+		File file = savedSnapshot();
+		Snapshot.read(file);
+
+		// The last column ends with the delta of the 2nd id and its count
+		write(file, (int) file.length() - 2, 0);
+		assertRejected(file, "Corrupt snapshot file");
+	}
+
+	/** Containers a.jar and b.jar, with Java 8 classes only. So the column's entries are a byte each */
+	private File savedSnapshot() throws IOException
+	{
+		File file = new File(tempFolder.getRoot(), "snapshot" + Snapshot.FILE_EXTN);
+		ContainerVersionCounts counts = new ContainerVersionCounts(true);
+		counts.add("a.jar", JAVA_8, 1);
+		counts.add("b.jar", JAVA_8, 2);
+		new Snapshot.Writer(file, "", 0).finish(counts);
+		return file;
+	}
+
+	/**
+	 * @param messagePrefix
+	 *          null if any message
+	 */
+	private static void assertRejected(File file, String messagePrefix)
+	{
+		try
+		{
+			Snapshot.read(file);
+			fail("Read a corrupt snapshot");
+		}
+		catch (IOException e)
+		{
+			if (messagePrefix != null)
+				assertTrue(e.getMessage(), e.getMessage().startsWith(messagePrefix));
+		}
+	}
+
+	private static void write(File file, int offset, int... bytes) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.seek(offset);
+			for (int b : bytes)
+				raf.write(b);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private static void truncate(File file, long length) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(length);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+}